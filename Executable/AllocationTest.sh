@@ -0,0 +1,32 @@
+#!/bin/bash
+
+# Runs the churn simulation under Java Flight Recorder and reports the allocation rate (MB/s, from the
+# jdk.ObjectAllocationSample weights) and the classes allocating most. Run it once with this jar and once with
+# a jar built before address interning to compare the two.
+# Usage: ./AllocationTest.sh [top classes] [flags...]   (default: 15 classes)
+
+top=${1:-15}
+shift 1 &>/dev/null
+
+echo "Simulating churn with flight recording..."
+
+start=$(date +%s)
+java -XX:StartFlightRecording=filename=./allocation.jfr,settings=profile -jar ./swim-project-1.0-SNAPSHOT.jar churn $@ > ./allocationlog.txt
+end=$(date +%s)
+
+echo "Simulation complete!"
+
+echo "Reading the recording..."
+
+jfr print --events jdk.ObjectAllocationSample ./allocation.jfr | awk -v seconds=$((end - start)) -v top=$top '
+$1 == "objectClass" { cls = $3 }
+$1 == "weight" {
+    w = $3
+    if ($4 == "kB") w *= 1024; else if ($4 == "MB") w *= 1024 * 1024; else if ($4 == "GB") w *= 1024 * 1024 * 1024
+    bytes[cls] += w; total += w
+}
+END {
+    if (seconds < 1) seconds = 1
+    printf "ALLOCATION %.1f MB in %d s: %.2f MB/s\n", total / 1048576, seconds, total / 1048576 / seconds
+    for (c in bytes) printf "%.1f MB %s\n", bytes[c] / 1048576, c | "sort -rn | head -" top
+}'
@@ -0,0 +1,19 @@
+#!/bin/bash
+
+# Runs the JMH benchmarks under src/test: all of them, or the ones the JMH arguments select.
+# Needs Maven, run from anywhere.
+# Usage: ./Benchmark.sh [jmh arguments...]   e.g. ./Benchmark.sh PiggybackList -prof gc
+#        ./Benchmark.sh report <class>        runs the main() of a benchmark class, e.g. its footprint report
+
+cd "$(dirname "$0")/.."
+
+echo "Compiling the benchmarks..."
+
+mvn -q -B test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/benchmark.classpath || exit 1
+cp=target/test-classes:target/classes:$(cat target/benchmark.classpath)
+
+if [ "$1" = "report" ]; then
+    java -Djdk.attach.allowAttachSelf -cp $cp $2
+else
+    java -cp $cp org.openjdk.jmh.Main $@
+fi
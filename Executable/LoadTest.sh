@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Starts a cluster of SWIM members on localhost over real UDP sockets, in one JVM, crashes some of them and
+# reports CPU, packets per second and detection latency.
+# Usage: ./LoadTest.sh [members] [kills] [seconds] [flags...]   (defaults: 200 members, 10 kills, 120 seconds)
+
+members=${1:-200}
+kills=${2:-10}
+seconds=${3:-120}
+shift 3 &>/dev/null
+
+echo "Starting $members members on localhost for $seconds seconds, crashing $kills of them after 60 seconds..."
+
+java -cp ./swim-project-1.0-SNAPSHOT.jar se.kth.swim.launcher.UdpMain cluster $members kill $kills 60 duration $seconds $@ > ./loadlog.txt
+
+echo "Load test complete!"
+
+echo "Reading the log..."
+
+egrep "LAUNCHER" ./loadlog.txt
+egrep "LOAD" ./loadlog.txt | tail -1
+egrep "LOAD" ./loadlog.txt | awk '{ for(i=1;i<=NF;i++){ if($i=="cpu"){cpu+=$(i+1)} if($i=="out" && $(i-1)=="packets/s"){out+=$(i+1)} } n++ }
+END { if(n>0) printf "average over %d s: cpu %.1f%% packets/s out %.0f\n", n, cpu/n, out/n }'
+egrep "DETECTIONSTATS" ./loadlog.txt | tail -1
+egrep "FALSEPOSITIVES" ./loadlog.txt | tail -1
+egrep "CONVERGENCE" ./loadlog.txt
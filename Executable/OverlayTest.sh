@@ -0,0 +1,21 @@
+#!/bin/bash
+
+# Runs the overlays100 simulation with N croupier overlays per node, first as N separate CroupierComps, then
+# batched in one MultiCroupierComp, and compares croupier messages per second over the second half of each run.
+# Usage: ./OverlayTest.sh [overlays] [flags...]   (default: 4 overlays)
+
+overlays=${1:-4}
+shift 1 &>/dev/null
+
+for mode in separate batched; do
+    echo "Simulating $overlays overlays, $mode..."
+
+    if [ $mode == "batched" ]; then
+        java -jar ./swim-project-1.0-SNAPSHOT.jar overlays100 overlays $overlays batched $@ > ./overlaylog-$mode.txt
+    else
+        java -jar ./swim-project-1.0-SNAPSHOT.jar overlays100 overlays $overlays $@ > ./overlaylog-$mode.txt
+    fi
+
+    egrep "CROUPIERTRAFFIC" ./overlaylog-$mode.txt | awk '{ for(i=1;i<=NF;i++){ if($i=="messages/s"){m[NR]=$(i+1)} if($i=="shuffles/s"){s[NR]=$(i+1)} } }
+    END { for(r=int(NR/2)+1;r<=NR;r++){ tm+=m[r]; ts+=s[r]; n++ } if(n>0) printf "'$mode': messages/s %.0f shuffles/s %.0f shuffles/msg %.2f\n", tm/n, ts/n, ts/tm }'
+done
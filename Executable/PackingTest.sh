@@ -0,0 +1,24 @@
+#!/bin/bash
+
+# Packs many SWIM members into one JVM on one shared UDP socket and reports members per busy core at steady
+# state (the second half of the run), next to the JVM thread count.
+# Usage: ./PackingTest.sh [members] [workers] [seconds] [flags...]   (defaults: 500 members, 4 workers, 120 seconds)
+
+members=${1:-500}
+workers=${2:-4}
+seconds=${3:-120}
+shift 3 &>/dev/null
+
+echo "Starting $members members on one socket and $workers workers for $seconds seconds..."
+
+java -cp ./swim-project-1.0-SNAPSHOT.jar se.kth.swim.launcher.UdpMain cluster $members shared workers $workers duration $seconds $@ > ./packinglog.txt
+
+echo "Packing test complete!"
+
+echo "Reading the log..."
+
+egrep "LAUNCHER" ./packinglog.txt
+egrep "LOAD" ./packinglog.txt | tail -1
+egrep "LOAD" ./packinglog.txt | awk -v from=$(($seconds / 2)) 'NR>from { for(i=1;i<=NF;i++){ if($i=="cpu"){cpu+=$(i+1)} if($i=="members/core"){mpc+=$(i+1)} if($i=="out" && $(i-1)=="packets/s"){out+=$(i+1)} } n++ }
+END { if(n>0) printf "steady state over %d s: cpu %.1f%% members/core %.0f packets/s out %.0f\n", n, cpu/n, mpc/n, out/n }'
+egrep "CONVERGENCE" ./packinglog.txt | tail -1
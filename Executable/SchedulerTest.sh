@@ -0,0 +1,21 @@
+#!/bin/bash
+
+# Runs the same packed cluster on a pool of platform threads and on virtual threads (JDK 21 or later) and
+# compares handler throughput, schedule-to-run latency and CPU over the second half of each run.
+# Usage: ./SchedulerTest.sh [members] [workers] [seconds] [flags...]   (defaults: 1000 members, 4 workers, 120 seconds)
+
+members=${1:-1000}
+workers=${2:-4}
+seconds=${3:-120}
+shift 3 &>/dev/null
+
+for scheduler in pool virtual; do
+    echo "Starting $members members on the $scheduler scheduler for $seconds seconds..."
+
+    java -cp ./swim-project-1.0-SNAPSHOT.jar se.kth.swim.launcher.UdpMain cluster $members shared workers $workers scheduler $scheduler duration $seconds $@ > ./schedulerlog-$scheduler.txt
+
+    egrep "DISPATCH" ./schedulerlog-$scheduler.txt | awk -v from=$(($seconds / 2)) 'NR>from { for(i=1;i<=NF;i++){ if($i=="handlers/s"){h+=$(i+1)} if($i=="avg"){avg+=$(i+1)} if($i=="max" && $(i+1)+0>max){max=$(i+1)+0} } n++ }
+    END { if(n>0) printf "'$scheduler': handlers/s %.0f latency avg %.0f us max %d us\n", h/n, avg/n, max }'
+    egrep "LOAD" ./schedulerlog-$scheduler.txt | awk -v from=$(($seconds / 2)) 'NR>from { for(i=1;i<=NF;i++){ if($i=="cpu"){cpu+=$(i+1)} if($i=="threads"){t=$(i+1)} } n++ }
+    END { if(n>0) printf "'$scheduler': cpu %.1f%% threads %d\n", cpu/n, t }'
+done
@@ -1,10 +1,13 @@
 #!/bin/bash
 
+# Runs a simulation scenario and summarizes its log.
+# Usage: ./Simulate.sh scenario [flags...]   (the SwimMain flags: roundrobin, lifeguard, budget, objectstore, ...)
+
 echo "Executing simulation. Please, be patient..."
 
 date1=$(date +"%s")
 
-java -jar ./swim-project-1.0-SNAPSHOT.jar $1 > ./log.txt
+java -jar ./swim-project-1.0-SNAPSHOT.jar $@ > ./log.txt
 
 echo "Simulation complete!"
 
@@ -15,6 +18,15 @@ echo "$(($diff / 60)) minutes and $(($diff % 60)) seconds elapsed."
 
 echo "Reading the log..."
 
+egrep "DETECTIONSTATS" ./log.txt | tail -1
+egrep "FALSEPOSITIVES" ./log.txt | tail -1
+egrep "TIMEREVENTS" ./log.txt | tail -1
+egrep "PIGGYBACK" ./log.txt | tail -1
+egrep "CONVERGENCE" ./log.txt
+egrep "STALEVIEWS" ./log.txt | tail -1
+egrep "STALECLEARED" ./log.txt
+egrep "CROUPIERTRAFFIC" ./log.txt | tail -1
+
 egrep ">>>" -i ./log.txt > tmp
 egrep "PBAlive" ./log.txt > a
 egrep "PBDead" ./log.txt > d
@@ -0,0 +1,137 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
+
+/**
+ * Interned addresses: one canonical, immutable NatedAddress per node id and parent set. A new instance is built
+ * only for a parent set (or base address) not seen before, every other lookup returns the instance already held,
+ * so addresses can be stored and sent around without defensive copies.
+ * A node can have several live versions at once, e.g. the address MembershipList stores and an older or newer one
+ * in a message header while a parent change spreads; each keeps its own instance, so interning one never evicts
+ * the other. The versions of an id are kept most recently used last, at most MAX_VERSIONS of them.
+ * Canonical parent sets are unmodifiable: code that used to change them in place has to go through
+ * withParent()/withoutParent().
+ */
+final class AddressRegistry {
+
+    //Parent changes of a node spread in a few protocol periods, old versions stop showing up after that
+    private static final int MAX_VERSIONS = 4;
+
+    private final HashMap<Integer,NatedAddress[]> canonical = new HashMap<Integer,NatedAddress[]>();
+
+    public NatedAddress intern(NatedAddress na) {
+        if(na == null) return null;
+        NatedAddress[] versions = canonical.get(na.getId());
+        if(versions != null){
+            for(int i = 0; i < versions.length; i++){
+                if(versions[i] == na) return touch(versions, i);
+            }
+            for(int i = 0; i < versions.length; i++){
+                if(sameAddress(versions[i], na)) return touch(versions, i);
+            }
+        }
+
+        Set<NatedAddress> parents = new HashSet<NatedAddress>();
+        for(NatedAddress parent : na.getParents()){
+            parents.add(intern(parent));
+        }
+        return put(na, parents);
+    }
+
+    public NatedAddress withParent(NatedAddress self, NatedAddress parent) {
+        NatedAddress current = intern(self);
+        if(containsParent(current, parent.getId())) return current;
+        Set<NatedAddress> parents = new HashSet<NatedAddress>(current.getParents());
+        parents.add(intern(parent));
+        return put(current, parents);
+    }
+
+    public NatedAddress withoutParent(NatedAddress self, NatedAddress parent) {
+        NatedAddress current = intern(self);
+        if(!containsParent(current, parent.getId())) return current;
+        Set<NatedAddress> parents = new HashSet<NatedAddress>();
+        for(NatedAddress na : current.getParents()){
+            if(!na.getId().equals(parent.getId())) parents.add(na);
+        }
+        return put(current, parents);
+    }
+
+    //Drops every version of a node nobody refers to anymore. The caller keeps self, members and the parents still
+    //relaying for either; a forgotten id that comes back is simply interned again
+    public void forget(Integer id) {
+        canonical.remove(id);
+    }
+
+    //Whether some version of the node lists the parent
+    public boolean hasParent(Integer id, Integer parentId) {
+        NatedAddress[] versions = canonical.get(id);
+        if(versions == null) return false;
+        for(NatedAddress version : versions){
+            if(containsParent(version, parentId)) return true;
+        }
+        return false;
+    }
+
+    //Moves version i to the end, in place
+    private NatedAddress touch(NatedAddress[] versions, int i) {
+        NatedAddress hit = versions[i];
+        System.arraycopy(versions, i + 1, versions, i, versions.length - i - 1);
+        versions[versions.length - 1] = hit;
+        return hit;
+    }
+
+    //The version of the node with these parents: an existing one if withParent()/withoutParent() went back to a
+    //parent set already held, else a new one, the least recently used making room when there are MAX_VERSIONS
+    private NatedAddress put(NatedAddress na, Set<NatedAddress> parents) {
+        NatedAddress interned = new BasicNatedAddress(new BasicAddress(na.getIp(), na.getPort(), na.getId()), na.getNatType(), Collections.unmodifiableSet(parents));
+        NatedAddress[] versions = canonical.get(na.getId());
+        if(versions != null){
+            for(int i = 0; i < versions.length; i++){
+                if(sameAddress(versions[i], interned)) return touch(versions, i);
+            }
+        }
+        if(versions == null){
+            canonical.put(na.getId(), new NatedAddress[]{interned});
+        } else if(versions.length < MAX_VERSIONS){
+            versions = Arrays.copyOf(versions, versions.length + 1);
+            versions[versions.length - 1] = interned;
+            canonical.put(na.getId(), versions);
+        } else {
+            touch(versions, 0);
+            versions[versions.length - 1] = interned;
+        }
+        return interned;
+    }
+
+    //Same base address, nat type and parent ids (parents are compared by id, they are interned themselves)
+    private boolean sameAddress(NatedAddress current, NatedAddress na) {
+        if(current.getPort() != na.getPort() || current.getNatType() != na.getNatType() || !current.getIp().equals(na.getIp())){
+            return false;
+        }
+        if(current.getParents().size() != na.getParents().size()) return false;
+        for(NatedAddress parent : na.getParents()){
+            if(!containsParent(current, parent.getId())) return false;
+        }
+        return true;
+    }
+
+    private boolean containsParent(NatedAddress na, Integer parentId) {
+        for(NatedAddress parent : na.getParents()){
+            if(parent.getId().equals(parentId)) return true;
+        }
+        return false;
+    }
+}
@@ -18,10 +18,17 @@
 */
 package se.kth.swim;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.kth.swim.croupier.msg.CroupierStatusNet;
 import se.kth.swim.msg.net.NetStatus;
+import se.kth.swim.simulation.SwimMain;
 import se.sics.kompics.ComponentDefinition;
 import se.sics.kompics.Handler;
 import se.sics.kompics.Init;
@@ -45,15 +52,51 @@ public class AggregatorComp extends ComponentDefinition {
     
     private UUID statusTimeoutId;
     
+    //First time any member declared a killed node dead, and whether new samples arrived since last print
+    private final HashMap<Integer, Long> firstDetections = new HashMap<Integer, Long>();
+    private boolean newDetections = false;
+    //Members declared dead while alive (never killed, or killed only later), in total and by slow nodes
+    private int falsePositives = 0;
+    private int falsePositivesBySlow = 0;
+    private boolean newFalsePositives = false;
+    //Latest cumulative probe RTT histogram of every node
+    private final HashMap<Integer, int[]> rttHistograms = new HashMap<Integer, int[]>();
+    //Timer work reported by all nodes since the last print, one print per second
+    private long timerEvents = 0;
+    private long wheelEvents = 0;
+    //Piggyback traffic reported by all nodes since the last print
+    private long pbMessages = 0;
+    private long pbEntries = 0;
+    private long pbBytes = 0;
+    private long runMessages = 0;
+    private long runBytes = 0;
+    //Croupier shuffle messages reported by all croupier components since the last print, and the overlay shuffles
+    //they carried
+    private long croupierMessages = 0;
+    private long croupierShuffles = 0;
+    //Latest member list size of every node and when it was reported, to see when the system agrees again
+    private final HashMap<Integer, Integer> memberSizes = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Long> lastReports = new HashMap<Integer, Long>();
+    //Latest croupier views of every node, the ids in each of its overlays, as its croupier components report them
+    private final HashMap<Integer, HashMap<Integer, int[]>> croupierViews = new HashMap<Integer, HashMap<Integer, int[]>>();
+    private long convergedSince = -1; //last start or kill the system has converged after
+    
+    private int staleEntries = -1; //descriptors of killed nodes in the croupier views of the live ones
+    private long staleClearedSince = -1; //last kill the views have been cleared of
+    
     private final NatedAddress selfAddress;
+    //Starts and kills of the run, written by whoever starts and kills the nodes
+    private final ChurnLog churn;
     
     public AggregatorComp(AggregatorInit init) {
         this.selfAddress = init.selfAddress;
+        this.churn = init.churn;
         log.info("{} initiating...", new Object[]{selfAddress.getId()});
         
         subscribe(handleStart, control);
         subscribe(handleStop, control);
         subscribe(handleStatus, network);
+        subscribe(handleCroupierStatus, network);
         subscribe(handlePrintTimeout,timer);
     }
     
@@ -93,16 +136,82 @@ public class AggregatorComp extends ComponentDefinition {
             if(status.getContent().parentsSize!=0){
                 log.info("{} ParentListSize  {}", new Object[]{status.getHeader().getSource().getId(), status.getContent().parentsSize}); 
             }
+            if(status.getContent().tombstones!=null && status.getContent().tombstones!=0){
+                log.info("{} Tombstones  {}", new Object[]{status.getHeader().getSource().getId(), status.getContent().tombstones}); 
+            }
+            
+            if(status.getContent().localHealth!=null && status.getContent().localHealth!=0){
+                log.info("{} LocalHealth  {}", new Object[]{status.getHeader().getSource().getId(), status.getContent().localHealth}); 
+            }
+            
+            if(status.getContent().latePongs!=null && status.getContent().latePongs!=0){
+                log.info("{} LatePongs  {}", new Object[]{status.getHeader().getSource().getId(), status.getContent().latePongs}); 
+            }
+            if(status.getContent().duplicatePongs!=null && status.getContent().duplicatePongs!=0){
+                log.info("{} DuplicatePongs  {}", new Object[]{status.getHeader().getSource().getId(), status.getContent().duplicatePongs}); 
+            }
+            memberSizes.put(status.getHeader().getSource().getId(), status.getContent().memberSize);
+            lastReports.put(status.getHeader().getSource().getId(), System.currentTimeMillis());
+            if(status.getContent().pbMessages!=null){
+                pbMessages += status.getContent().pbMessages;
+                pbEntries += status.getContent().pbEntries;
+                pbBytes += status.getContent().pbBytes;
+            }
+            if(status.getContent().timerEvents!=null){
+                timerEvents += status.getContent().timerEvents;
+                wheelEvents += status.getContent().wheelEvents;
+            }
+            if(status.getContent().rttBuckets!=null){
+                rttHistograms.put(status.getHeader().getSource().getId(), status.getContent().rttBuckets);
+            }
+            
+            if(status.getContent().detections!=null){
+                for(Map.Entry<Integer, Long> e : status.getContent().detections.entrySet()){
+                    Long killed = churn.killBefore(e.getKey(), e.getValue());
+                    if(killed==null){
+                        falsePositives++;
+                        if(SwimMain.slowNodes.contains(status.getHeader().getSource().getId())) falsePositivesBySlow++;
+                        newFalsePositives = true;
+                        continue;
+                    }
+                    //A node can be killed more than once under churn: a late detection of an earlier kill is no false
+                    //positive, but only detections of its last kill count
+                    if(!killed.equals(churn.lastKill(e.getKey()))) continue;
+                    Long first = firstDetections.get(e.getKey());
+                    if(first==null || first<killed || e.getValue()<first){
+                        firstDetections.put(e.getKey(), e.getValue());
+                        newDetections = true;
+                    }
+                }
+            }
             
         }
     };
     
+    //Every croupier component reports once per shuffle cycle, for its own traffic and overlays
+    private Handler<CroupierStatusNet> handleCroupierStatus = new Handler<CroupierStatusNet>() {
+        
+        @Override
+        public void handle(CroupierStatusNet status) {
+            croupierMessages += status.getContent().messagesSent;
+            croupierShuffles += status.getContent().shufflesSent;
+            HashMap<Integer, int[]> views = croupierViews.get(status.getHeader().getSource().getId());
+            if(views==null){
+                views = new HashMap<Integer, int[]>();
+                croupierViews.put(status.getHeader().getSource().getId(), views);
+            }
+            views.putAll(status.getContent().views);
+        }
+    };
+    
     public static class AggregatorInit extends Init<AggregatorComp> {
         
         public final NatedAddress selfAddress;
+        public final ChurnLog churn;
         
-        public AggregatorInit(NatedAddress selfAddress) {
+        public AggregatorInit(NatedAddress selfAddress, ChurnLog churn) {
             this.selfAddress = selfAddress;
+            this.churn = churn;
         }
     }
     
@@ -111,9 +220,124 @@ public class AggregatorComp extends ComponentDefinition {
         
         @Override
         public void handle(PrintTimeout event) {
+            //All simulated nodes share this JVM, so this is the heap of the whole system
+            Runtime rt = Runtime.getRuntime();
+            log.info("HEAP used {} KB", new Object[]{(rt.totalMemory() - rt.freeMemory()) / 1024});
+            if(newDetections){
+                printDetectionLatencies();
+                newDetections = false;
+            }
+            if(!rttHistograms.isEmpty()){
+                printRttHistogram();
+            }
+            if(timerEvents!=0 || wheelEvents!=0){
+                log.info("TIMEREVENTS timers {} timerport/s {} wheel/s {}", new Object[]{SwimMain.kompicsTimers ? "kompics" : "wheel", timerEvents, wheelEvents});
+                timerEvents = 0;
+                wheelEvents = 0;
+            }
+            if(pbMessages!=0){
+                runMessages += pbMessages;
+                runBytes += pbBytes;
+                //carrier messages: every PING, PING-REQ, PING-RESP and PONG, or the PONGs only with pongonly
+                log.info("PIGGYBACK policy {} supersede {} carriers {} carrier messages/s {} entries/msg {} bytes/msg {} run bytes/msg {}", new Object[]{SwimMain.piggybackBudget ? "budget" : "full",
+                    SwimMain.noSupersession ? "off" : "on", SwimMain.pongOnlyPiggyback ? "pong" : "all", pbMessages, String.format("%.1f", (double) pbEntries/pbMessages), String.format("%.1f", (double) pbBytes/pbMessages),
+                    String.format("%.1f", (double) runBytes/runMessages)});
+                pbMessages = 0;
+                pbEntries = 0;
+                pbBytes = 0;
+            }
+            printConvergence();
+            printStaleViews();
+            printCroupierTraffic();
+            if(newFalsePositives){
+                log.info("FALSEPOSITIVES lifeguard {} total {} byslow {}", new Object[]{SwimMain.lifeguard ? "on" : "off", falsePositives, falsePositivesBySlow});
+                newFalsePositives = false;
+            }
         }
     };
     
+    //Distribution of kill -> first detection latency over the killed nodes detected so far
+    private void printDetectionLatencies() {
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        for(Map.Entry<Integer, Long> e : firstDetections.entrySet()){
+            long killed = churn.lastKill(e.getKey());
+            //detected before its last kill: that kill is not detected yet
+            if(e.getValue()<killed) continue;
+            latencies.add(e.getValue() - killed);
+        }
+        if(latencies.isEmpty()) return;
+        Collections.sort(latencies);
+        int n = latencies.size();
+        log.info("DETECTIONSTATS probe {} lifeguard {} detected {}/{} min {} p50 {} p90 {} max {}",
+                new Object[]{SwimMain.roundRobinProbe ? "roundrobin" : "random", SwimMain.lifeguard ? "on" : "off", n, churn.killedNodes(),
+                    latencies.get(0), latencies.get(n/2), latencies.get((n*9)/10), latencies.get(n-1)});
+    }
+    
+    //Once every node still reporting lists all the others, time since the last node start or kill
+    private void printConvergence() {
+        long now = System.currentTimeMillis();
+        long since = Math.max(churn.lastStart(), churn.lastKill());
+        if(since==0 || since==convergedSince) return;
+        int live = 0;
+        for(Long reported : lastReports.values()){
+            if(now - reported <= 2500) live++;
+        }
+        if(live<2) return;
+        for(Map.Entry<Integer, Long> e : lastReports.entrySet()){
+            if(now - e.getValue() <= 2500 && memberSizes.get(e.getKey())!=live-1) return;
+        }
+        convergedSince = since;
+        log.info("CONVERGENCE policy {} carriers {} members {} after {} ms", new Object[]{SwimMain.piggybackBudget ? "budget" : "full",
+            SwimMain.pongOnlyPiggyback ? "pong" : "all", live, now - since});
+    }
+    
+    //Croupier view healing: how many dead descriptors the live nodes still hold in all their overlays, and how long
+    //after the last kill the last of them was gone
+    private void printStaleViews() {
+        if(churn.killedNodes()==0 || croupierViews.isEmpty()) return;
+        int stale = 0;
+        for(Map.Entry<Integer, HashMap<Integer, int[]>> e : croupierViews.entrySet()){
+            if(churn.wasKilled(e.getKey())) continue;
+            for(int[] view : e.getValue().values()){
+                for(int id : view){
+                    if(churn.wasKilled(id)) stale++;
+                }
+            }
+        }
+        String policy = SwimMain.croupierPolicy.name().toLowerCase() + (SwimMain.croupierTemperature > 0 ? "-softmax" : "");
+        if(stale!=staleEntries){
+            staleEntries = stale;
+            log.info("STALEVIEWS policy {} fanout {} killed {} stale {}", new Object[]{policy, SwimMain.croupierFanout, churn.killedNodes(), stale});
+        }
+        long lastKill = churn.lastKill();
+        if(stale==0 && lastKill!=staleClearedSince){
+            staleClearedSince = lastKill;
+            log.info("STALECLEARED policy {} fanout {} after {} ms", new Object[]{policy, SwimMain.croupierFanout, System.currentTimeMillis() - lastKill});
+        }
+    }
+    
+    //Croupier shuffle messages reported in the last second, and the overlay shuffles they carried: each component
+    //reports a whole shuffle period at once, so this is a per-second rate once the reports spread over the period
+    private void printCroupierTraffic() {
+        if(croupierMessages==0) return;
+        log.info("CROUPIERTRAFFIC overlays {} batched {} messages/s {} shuffles/s {} shuffles/msg {}", new Object[]{SwimMain.croupierOverlays,
+            SwimMain.batchedOverlays ? "on" : "off", croupierMessages, croupierShuffles, String.format("%.2f", (double) croupierShuffles/croupierMessages)});
+        croupierMessages = 0;
+        croupierShuffles = 0;
+    }
+    
+    //Probe RTTs of the whole system, bucket i counting RTTs in [2^i, 2^(i+1)) ms
+    private void printRttHistogram() {
+        long[] total = null;
+        for(int[] buckets : rttHistograms.values()){
+            if(total==null) total = new long[buckets.length];
+            for(int i = 0; i < buckets.length; i++){
+                total[i] += buckets[i];
+            }
+        }
+        log.info("RTTHISTOGRAM {}", new Object[]{Arrays.toString(total)});
+    }
+    
     private void schedulePeriodicPrint() {
         SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(1000, 1000);
         PrintTimeout sc = new PrintTimeout(spt);
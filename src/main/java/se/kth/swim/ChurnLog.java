@@ -0,0 +1,73 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Churn of a run: every kill of every node in order, so a node killed again under churn keeps the earlier kills
+ * its late detections belong to, and the time the last node was started. Written by whoever starts and kills the
+ * nodes (the scenario, the UDP launcher), each with its own log, and read by the aggregator of the run, possibly
+ * from another thread.
+ */
+public class ChurnLog {
+
+    private final HashMap<Integer, List<Long>> kills = new HashMap<Integer, List<Long>>();
+    private long lastKill = 0;
+    private long lastStart = 0;
+
+    public synchronized void killed(int id, long time) {
+        List<Long> times = kills.get(id);
+        if(times==null){
+            times = new ArrayList<Long>(1);
+            kills.put(id, times);
+        }
+        times.add(time);
+        lastKill = Math.max(lastKill, time);
+    }
+
+    public synchronized void started(long time) {
+        lastStart = Math.max(lastStart, time);
+    }
+
+    public synchronized boolean wasKilled(int id) {
+        return kills.containsKey(id);
+    }
+
+    //Latest kill of the node, null if never killed
+    public synchronized Long lastKill(int id) {
+        List<Long> times = kills.get(id);
+        return times==null ? null : times.get(times.size()-1);
+    }
+
+    //Latest kill of the node at or before time, the one a detection at that time is about; null if none
+    public synchronized Long killBefore(int id, long time) {
+        List<Long> times = kills.get(id);
+        if(times==null) return null;
+        for(int i = times.size()-1; i >= 0; i--){
+            if(times.get(i)<=time) return times.get(i);
+        }
+        return null;
+    }
+
+    //Nodes killed at least once
+    public synchronized int killedNodes() {
+        return kills.size();
+    }
+
+    //Time of the last kill of any node, 0 before the first
+    public synchronized long lastKill() {
+        return lastKill;
+    }
+
+    //Time the last node was started, 0 before the first
+    public synchronized long lastStart() {
+        return lastStart;
+    }
+}
@@ -20,12 +20,14 @@
 package se.kth.swim;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.swim.croupier.CroupierComp;
 import se.kth.swim.croupier.CroupierConfig;
 import se.kth.swim.croupier.CroupierPort;
+import se.kth.swim.croupier.MultiCroupierComp;
 import se.kth.swim.croupier.util.OverlayFilter;
 import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
@@ -53,7 +55,7 @@ public class HostComp extends ComponentDefinition {
     
     private Component swim;
     private Component nat;
-    private Component croupier;
+    private final List<Component> croupiers = new ArrayList<Component>();
     
     public HostComp(HostInit init) {
         this.selfAddress = init.selfAddress;
@@ -62,22 +64,47 @@ public class HostComp extends ComponentDefinition {
         subscribe(handleStart, control);
         subscribe(handleStop, control);
         
-        int overlayId = 1; //so far we don' start multiple croupier overlay
-        if(croupierConnected){
-            croupier = create(CroupierComp.class, new CroupierComp.CroupierInit(selfAddress, new ArrayList<NatedAddress>(init.bootstrapNodes), init.seed, init.croupierConfig, overlayId));
+        //Overlays 1..overlays: overlay 1 feeds the NAT traversal, the others only shuffle. Batched, one
+        //MultiCroupierComp runs them all, else one CroupierComp each. They report their shuffle traffic to the
+        //aggregator themselves
+        if(croupierConnected && init.batchedOverlays){
+            List<Integer> overlayIds = new ArrayList<Integer>();
+            for(int overlayId = 1; overlayId <= init.overlays; overlayId++){
+                overlayIds.add(overlayId);
+            }
+            Component croupier = create(MultiCroupierComp.class, new MultiCroupierComp.MultiCroupierInit(selfAddress, new ArrayList<NatedAddress>(init.bootstrapNodes), init.seed, init.croupierConfig, overlayIds,
+                    init.aggregatorAddress));
             connect(croupier.getNegative(Timer.class), timer);
-            connect(croupier.getNegative(Network.class), network, new OverlayFilter(overlayId));
+            connect(croupier.getNegative(Network.class), network);
+            croupiers.add(croupier);
+        } else if(croupierConnected){
+            for(int overlayId = 1; overlayId <= init.overlays; overlayId++){
+                Component c = create(CroupierComp.class, new CroupierComp.CroupierInit(selfAddress, new ArrayList<NatedAddress>(init.bootstrapNodes), init.seed, init.croupierConfig, overlayId,
+                        init.aggregatorAddress));
+                connect(c.getNegative(Timer.class), timer);
+                connect(c.getNegative(Network.class), network, new OverlayFilter(overlayId));
+                croupiers.add(c);
+            }
         }
         
         nat = create(NatTraversalComp.class, new NatTraversalComp.NatTraversalInit(selfAddress, init.seed));
         connect(nat.getNegative(Timer.class), timer);
         connect(nat.getNegative(Network.class), network);
-        if(croupierConnected)
-            connect(nat.getNegative(CroupierPort.class), croupier.getPositive(CroupierPort.class));
+        if(!croupiers.isEmpty()){
+            //overlay 1: the CroupierComp of it, or the MultiCroupierComp, whose other samples the NAT traversal skips
+            connect(nat.getNegative(CroupierPort.class), croupiers.get(0).getPositive(CroupierPort.class));
+        }
         
         swim = create(SwimComp.class, new SwimComp.SwimInit(selfAddress, init.bootstrapNodes, init.aggregatorAddress));
         connect(swim.getNegative(Timer.class), timer);
-        connect(swim.getNegative(Network.class), nat.getPositive(Network.class));
+        if(init.swimShim!=null){
+            Component shim = create(init.swimShim, init.swimShimInit);
+            connect(shim.getNegative(Timer.class), timer);
+            connect(shim.getNegative(Network.class), nat.getPositive(Network.class));
+            connect(swim.getNegative(Network.class), shim.getPositive(Network.class));
+        } else {
+            connect(swim.getNegative(Network.class), nat.getPositive(Network.class));
+        }
     }
     
     private Handler<Start> handleStart = new Handler<Start>() {
@@ -104,13 +131,28 @@ public class HostComp extends ComponentDefinition {
         public final NatedAddress aggregatorAddress;
         public final long seed;
         public final CroupierConfig croupierConfig;
+        public final int overlays;
+        public final boolean batchedOverlays;
+        //Optional component between the NAT traversal and SwimComp, providing and requiring Network and requiring
+        //Timer: the scenarios put their fault injection there
+        public final Class swimShim;
+        public final Init swimShimInit;
         
         public HostInit(NatedAddress selfAddress, Set<NatedAddress> bootstrapNodes, NatedAddress aggregatorAddress, long seed,  CroupierConfig croupierConfig) {
+            this(selfAddress, bootstrapNodes, aggregatorAddress, seed, croupierConfig, 1, false, null, null);
+        }
+        
+        public HostInit(NatedAddress selfAddress, Set<NatedAddress> bootstrapNodes, NatedAddress aggregatorAddress, long seed,  CroupierConfig croupierConfig,
+                int overlays, boolean batchedOverlays, Class swimShim, Init swimShimInit) {
             this.selfAddress = selfAddress;
             this.bootstrapNodes = bootstrapNodes;
             this.aggregatorAddress = aggregatorAddress;
             this.seed = seed;
             this.croupierConfig = croupierConfig;
+            this.overlays = overlays;
+            this.batchedOverlays = batchedOverlays;
+            this.swimShim = swimShim;
+            this.swimShimInit = swimShimInit;
         }
     }
 }
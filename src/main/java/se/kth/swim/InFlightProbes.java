@@ -0,0 +1,150 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Direct probes in flight, in a ring indexed by sequence number (seq & mask). Every ping carries a fresh
+ * sequence number and the pong echoes it, so an ack is matched to its probe with one array read: on time,
+ * late (after the ack timeout), duplicate, or unknown (too old for the ring, or not one of our probes).
+ * Matched acks give the exact RTT of the probe, kept per peer and for the node as a whole.
+ * A probe still pending when its ring slot comes round again is dropped; with the ring much larger than the
+ * probes that fit in one ack timeout this does not happen in practice.
+ */
+final class InFlightProbes {
+    
+    public enum Ack { ON_TIME, LATE, DUPLICATE, UNKNOWN }
+    
+    private static final int PENDING = 0;
+    private static final int ACKED = 1;
+    private static final int TIMED_OUT = 2;
+    
+    private final Probe[] ring;
+    private final int mask;
+    private int nextSeq = 1; //0 is left for pings that are not probes (indirect ones)
+    
+    private final HashMap<Integer,RttHistogram> perPeer = new HashMap<Integer,RttHistogram>();
+    private final RttHistogram total = new RttHistogram();
+    private int late = 0;
+    private int duplicates = 0;
+    
+    //capacity is rounded up to a power of two
+    public InFlightProbes(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new Probe[size];
+        for(int i = 0; i < size; i++){
+            ring[i] = new Probe();
+        }
+        mask = size-1;
+    }
+    
+    //Sequence number for a new probe to the target
+    public int send(NatedAddress target, long now) {
+        int seq = nextSeq++;
+        if(nextSeq<=0) nextSeq = 1;
+        Probe p = ring[seq & mask];
+        p.seq = seq;
+        p.target = target;
+        p.sentAt = now;
+        p.state = PENDING;
+        p.timeout = null;
+        return seq;
+    }
+    
+    public void setTimeout(int seq, TimerWheel.Entry timeout) {
+        Probe p = ring[seq & mask];
+        if(p.seq==seq) p.timeout = timeout;
+    }
+    
+    //Timer to cancel for a pending probe, null otherwise
+    public TimerWheel.Entry getTimeout(int seq) {
+        Probe p = ring[seq & mask];
+        return (p.seq==seq && p.state==PENDING) ? p.timeout : null;
+    }
+    
+    public long getSentAt(int seq) {
+        return ring[seq & mask].sentAt;
+    }
+    
+    public Ack ack(int seq, Integer from, long now) {
+        Probe p = ring[seq & mask];
+        if(seq<=0 || p.seq!=seq || !p.target.getId().equals(from)){
+            return Ack.UNKNOWN;
+        }
+        if(p.state==ACKED){
+            duplicates++;
+            return Ack.DUPLICATE;
+        }
+        long rtt = now - p.sentAt;
+        histogram(from).add(rtt, now);
+        total.add(rtt, now);
+        if(p.state==TIMED_OUT){
+            p.state = ACKED;
+            late++;
+            return Ack.LATE;
+        }
+        p.state = ACKED;
+        return Ack.ON_TIME;
+    }
+    
+    //True if the probe was still waiting for its ack
+    public boolean timeout(int seq) {
+        Probe p = ring[seq & mask];
+        if(p.seq!=seq || p.state!=PENDING) return false;
+        p.state = TIMED_OUT;
+        return true;
+    }
+    
+    //True if the peer acked any probe since the given time
+    public boolean ackedSince(Integer peer, long since) {
+        RttHistogram h = perPeer.get(peer);
+        return h!=null && h.getLastAckAt()>=since;
+    }
+    
+    public RttHistogram histogram(Integer peer) {
+        RttHistogram h = perPeer.get(peer);
+        if(h==null){
+            h = new RttHistogram();
+            perPeer.put(peer, h);
+        }
+        return h;
+    }
+    
+    public Map<Integer,RttHistogram> histograms() {
+        return Collections.unmodifiableMap(perPeer);
+    }
+    
+    public void forget(Integer peer) {
+        perPeer.remove(peer);
+    }
+    
+    public RttHistogram total() {
+        return total;
+    }
+    
+    public int late() {
+        return late;
+    }
+    
+    public int duplicates() {
+        return duplicates;
+    }
+    
+    
+    
+    private static final class Probe {
+        private int seq = 0;
+        private NatedAddress target;
+        private long sentAt;
+        private int state;
+        private TimerWheel.Entry timeout;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+/**
+ * Lifeguard local health multiplier: a saturating score of how badly this node itself seems to be doing.
+ * Missed acks and having to refute suspicions about ourselves push it up, acks received in time bring it
+ * back down. While it is above zero the probe period and the ack timeouts are stretched by (score + 1), so a
+ * lagging node gives its peers more time instead of suspecting them.
+ */
+final class LocalHealth {
+
+    private final int max;
+    private int score = 0;
+
+    public LocalHealth(int max) {
+        this.max = max;
+    }
+
+    public void failure() {
+        if(score<max) score++;
+    }
+
+    public void success() {
+        if(score>0) score--;
+    }
+
+    public int score() {
+        return score;
+    }
+
+    public int multiplier() {
+        return score+1;
+    }
+
+    public long scale(long timeout) {
+        return timeout*multiplier();
+    }
+}
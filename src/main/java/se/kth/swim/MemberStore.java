@@ -0,0 +1,42 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Per-member protocol state behind MembershipList. Members live in dense slots handed out by allocate() and
+ * recycled by free(). A slot number alone is only meaningful until it is freed: (slot, generation) names one
+ * member record for good, since the generation is bumped on every free().
+ */
+interface MemberStore {
+    
+    int allocate(NatedAddress address, int incarnation, long now);
+    
+    void free(int slot);
+    
+    int getGeneration(int slot);
+    
+    NatedAddress getAddress(int slot);
+    
+    void setAddress(int slot, NatedAddress address);
+    
+    int getIncarnation(int slot);
+    
+    boolean isSuspected(int slot);
+    
+    //Suspicion and incarnation always change together in SWIM; the change time is stamped with them
+    void setState(int slot, boolean suspected, int incarnation, long now);
+    
+    long getStateChangedAt(int slot);
+    
+    //Position of the member in MembershipList's dense alive array
+    int getAliveIndex(int slot);
+    
+    void setAliveIndex(int slot, int aliveIndex);
+    
+}
@@ -7,16 +7,19 @@
 package se.kth.swim;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.sics.p2ptoolbox.util.network.NatedAddress;
-import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
-import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
 
 /**
  *
@@ -30,16 +33,45 @@ public final class MembershipList {
     
     private final NatedAddress selfAddress;
     private Integer selfIncarnation;
-    private final HashMap<NatedAddress,MemberInfo> neighboursNodes = new HashMap<NatedAddress,MemberInfo>();
-    private HashMap<Integer,HashSet> tabuMap = new HashMap<Integer,HashSet>();
+    //Per-member state lives in the store, indexed by slot
+    private final MemberStore store;
+    //Stored addresses are the canonical instances of the registry, shared with SwimComp
+    private final AddressRegistry addresses;
+    //Primary index: node id -> store slot of the member record (the record carries the current address). Alive members only.
+    private final HashMap<Integer,Integer> neighboursNodes = new HashMap<Integer,Integer>();
+    //Dead members: node id -> incarnation they died with, oldest first. Bounded in size and age.
+    private final LinkedHashMap<Integer,Tombstone> tombstones = new LinkedHashMap<Integer,Tombstone>();
+    private final long tombstoneTimer;
+    private final int maxTombstones;
+    //Dense array of the alive slots only (swap-remove), used for uniform random picks
+    private int[] aliveSlots = new int[16];
+    private int aliveCount = 0;
+    //Round-robin probe order (SWIM paper, sec. 4.3): a random permutation walked by probeIndex, reshuffled every round.
+    //Entries are (generation << 32 | slot), so a slot that was freed and reused since is not mistaken for its new owner.
+    //Only kept in round-robin mode, random probing never walks it
+    private final boolean roundRobin;
+    private long[] probeOrder = new long[16];
+    private int probeCount = 0;
+    private int probeIndex = 0;
+    //Immutable view of the alive addresses: rebuilt at most once per membership change, shared until the next one
+    private List<NatedAddress> aliveSnapshot = null;
+    //Relay links of the NATed members, both directions
+    private final ParentIndex parentIndex = new ParentIndex();
+    private HashMap<Integer,HashSet<Integer>> tabuMap = new HashMap<Integer,HashSet<Integer>>();
     
     
     private Random rand = new Random();
     
-    public MembershipList(Set<NatedAddress> addresses, NatedAddress selfAddress){
+    public MembershipList(Set<NatedAddress> bootstrapNodes, NatedAddress selfAddress, long tombstoneTimer, int maxTombstones, MemberStore store, AddressRegistry addresses,
+            boolean roundRobin){
         
         this.selfAddress=selfAddress;
-        for(NatedAddress na : addresses){
+        this.roundRobin=roundRobin;
+        this.tombstoneTimer=tombstoneTimer;
+        this.maxTombstones=maxTombstones;
+        this.store=store;
+        this.addresses=addresses;
+        for(NatedAddress na : bootstrapNodes){
             add(na,0);
         }
         selfIncarnation = 0;
@@ -51,55 +83,133 @@ public final class MembershipList {
     //ADD
     public boolean add(NatedAddress n, Integer incarnationNumber){
         
-        NatedAddress found = containsAddress(n);
-        
         if(n.getId().equals(selfAddress.getId())) return false;
         
-        if(found!=null){
-            MemberInfo mi = neighboursNodes.get(found);
-            if(mi.dead==true && mi.incarnationNumber<incarnationNumber){
-                neighboursNodes.remove(found);
-                
-                //Update the parent list of the new nodewith the last ones in the cache
-                //Set<NatedAddress> parentList = new HashSet<NatedAddress>(found.getParents());
-                NatedAddress toAdd = deepCopy(n);
-                //toAdd.getParents().clear();
-                //toAdd.getParents().addAll(parentList);
-                
-                neighboursNodes.put(toAdd,new MemberInfo(false,false,incarnationNumber, n.getId()));
+        if(neighboursNodes.containsKey(n.getId())) return false;
+        
+        expireTombstones();
+        Tombstone t = tombstones.get(n.getId());
+        
+        if(t!=null){
+            if(t.incarnationNumber<incarnationNumber){
+                //Revived with a fresh incarnation
+                tombstones.remove(n.getId());
+                int revived = store.allocate(addresses.intern(n), incarnationNumber, System.currentTimeMillis());
+                neighboursNodes.put(n.getId(),revived);
+                addAlive(revived);
+                indexParents(n);
                 log.info("NODEADDED {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), n.getId(), n.getParents()});
                 return true;
             }
+            //Stale rumour about a member we know is dead
             return false;
         } else {
-            neighboursNodes.put(deepCopy(n),new MemberInfo(false,false,incarnationNumber, n.getId()));
+            int added = store.allocate(addresses.intern(n), incarnationNumber, System.currentTimeMillis());
+            neighboursNodes.put(n.getId(),added);
+            addAlive(added);
+            indexParents(n);
             log.info("NODEADDED {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), n.getId(), n.getParents()});
             return true;
         }
     }
     
     
-    private NatedAddress containsAddress(NatedAddress toFind){
-        NatedAddress found = null;
-        for(NatedAddress na : neighboursNodes.keySet()){
-            if(na.getId().equals(toFind.getId())){
-                found = na;
+    //Slot of the member record, -1 if not an alive member
+    private int lookup(NatedAddress toFind){
+        Integer slot = neighboursNodes.get(toFind.getId());
+        return slot==null ? -1 : slot;
+    }
+    
+    private void addAlive(int slot){
+        if(aliveCount==aliveSlots.length){
+            aliveSlots = Arrays.copyOf(aliveSlots, aliveCount*2);
+        }
+        store.setAliveIndex(slot, aliveCount);
+        aliveSlots[aliveCount++] = slot;
+        if(roundRobin) addProbe(slot);
+        aliveSnapshot = null;
+    }
+    
+    //New members go to a uniformly random position of the part of the round not walked yet, so they are probed
+    //in this round; the entry they displace moves to the end, still ahead of probeIndex
+    private void addProbe(int slot){
+        //the alive count includes the new member already
+        if(probeCount-(aliveCount-1) > aliveCount-1){
+            compactProbes();
+        }
+        if(probeCount==probeOrder.length){
+            probeOrder = Arrays.copyOf(probeOrder, probeCount*2);
+        }
+        int j = probeIndex + rand.nextInt(probeCount-probeIndex+1);
+        probeOrder[probeCount++] = probeOrder[j];
+        probeOrder[j] = probeEntry(slot);
+    }
+    
+    //Drops the entries of members that died, keeping the order and the position in the round
+    private void compactProbes(){
+        int kept = 0;
+        int index = 0;
+        for(int i = 0; i < probeCount; i++){
+            if(i==probeIndex) index = kept;
+            if(isCurrent(probeOrder[i])){
+                probeOrder[kept++] = probeOrder[i];
             }
         }
-        return found;
+        probeIndex = probeIndex>=probeCount ? kept : index;
+        probeCount = kept;
+    }
+    
+    private long probeEntry(int slot){
+        return ((long) store.getGeneration(slot) << 32) | (slot & 0xFFFFFFFFL);
+    }
+    
+    private boolean isCurrent(long probeEntry){
+        return store.getGeneration((int) probeEntry) == (int) (probeEntry >>> 32);
+    }
+    
+    //Swap-remove: the last alive slot takes the position of the removed one
+    private void removeAlive(int slot){
+        int index = store.getAliveIndex(slot);
+        int moved = aliveSlots[--aliveCount];
+        aliveSlots[index] = moved;
+        store.setAliveIndex(moved, index);
+        store.setAliveIndex(slot, -1);
+        aliveSnapshot = null;
+    }
+    
+    private void swapAlive(int i, int j){
+        int a = aliveSlots[i];
+        int b = aliveSlots[j];
+        aliveSlots[i] = b;
+        aliveSlots[j] = a;
+        store.setAliveIndex(a, j);
+        store.setAliveIndex(b, i);
     }
     
     
     //REMOVE
     public boolean remove(NatedAddress n, Integer incarnationNumber){
         
-        NatedAddress found = containsAddress(n);
-        
-        if(found!=null){
-            MemberInfo mi = neighboursNodes.get(found);
-            if(mi.dead==false && mi.incarnationNumber<=incarnationNumber){
-                neighboursNodes.remove(found);
-                neighboursNodes.put(deepCopy(n),new MemberInfo(false,true,incarnationNumber, n.getId()));
+        int slot = lookup(n);
+        
+        if(slot>=0){
+            if(store.getIncarnation(slot)<=incarnationNumber){
+                Set<NatedAddress> parents = store.getAddress(slot).getParents();
+                removeAlive(slot);
+                neighboursNodes.remove(n.getId());
+                store.free(slot);
+                parentIndex.removeChild(n.getId());
+                tabuMap.remove(n.getId());
+                failoverChildren(n);
+                release(n.getId());
+                for(NatedAddress parent : parents){
+                    release(parent.getId());
+                }
+                expireTombstones();
+                tombstones.put(n.getId(), new Tombstone(incarnationNumber, System.currentTimeMillis()));
+                if(tombstones.size()>maxTombstones){
+                    tombstones.remove(tombstones.keySet().iterator().next());
+                }
                 log.info("NODEREMOVE {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), n.getId(), n.getParents()});
                 return true;
             }
@@ -111,12 +221,11 @@ public final class MembershipList {
     
     //SUSPECT
     public boolean suspectNode(NatedAddress n, Integer incarnationValue){
-        NatedAddress found = containsAddress(n);
+        int slot = lookup(n);
         
-        if(found!=null){
-            if(neighboursNodes.get(found).dead==false && neighboursNodes.get(found).suspected==false &&  neighboursNodes.get(found).incarnationNumber<incarnationValue){
-                neighboursNodes.get(found).setSuspected(true);
-                neighboursNodes.get(found).setIncarnationNumber(incarnationValue);
+        if(slot>=0){
+            if(!store.isSuspected(slot) && store.getIncarnation(slot)<incarnationValue){
+                store.setState(slot, true, incarnationValue, System.currentTimeMillis());
                 return true;
             }
             return false;
@@ -127,11 +236,10 @@ public final class MembershipList {
     
     //UNSUSPECT
     public boolean unsuspectNode(NatedAddress n, Integer incarnationValue){
-        NatedAddress found = containsAddress(n);
-        if(found!=null){
-            if(neighboursNodes.get(found).dead==false &&  neighboursNodes.get(found).suspected==true && neighboursNodes.get(found).incarnationNumber<incarnationValue){
-                neighboursNodes.get(found).setSuspected(false);
-                neighboursNodes.get(found).setIncarnationNumber(incarnationValue);
+        int slot = lookup(n);
+        if(slot>=0){
+            if(store.isSuspected(slot) && store.getIncarnation(slot)<incarnationValue){
+                store.setState(slot, false, incarnationValue, System.currentTimeMillis());
                 return true;
             }
             return false;
@@ -153,64 +261,69 @@ public final class MembershipList {
     
     public boolean contains(NatedAddress na){
         
-        NatedAddress found = containsAddress(na);
-        if(found!=null){
-            if(neighboursNodes.get(found).dead==false){
-                return true;
-            } else {
-                return false;
-            }
-        }
-        return false;
+        return lookup(na)>=0;
     }
     
     public boolean isSuspected(NatedAddress n){
-        NatedAddress found = containsAddress(n);
+        int slot = lookup(n);
         
-        if(found==null) {
-            return false;
-        } else if (neighboursNodes.get(found).dead==true) {
+        if(slot<0) {
             return false;
         }
         
-        return neighboursNodes.get(found).getSuspected();
+        return store.isSuspected(slot);
     }
     
     public boolean isEmpty() {
         return (size()==0);
     }
     
+    //Alive count, kept by the dense alive array
     public int size() {
-        int i = 0;
-        for(NatedAddress na : neighboursNodes.keySet()){
-            if(neighboursNodes.get(na).dead==false){
-                i++;
-            }
-        }
-        return i;
+        return aliveCount;
     }
     
     public NatedAddress randomNode() {
-        if(isEmpty()) return null;
+        if(aliveCount==0) return null;
+        return store.getAddress(aliveSlots[rand.nextInt(aliveCount)]);
+    }
+    
+    /*
+    Round-robin alternative to randomNode(): every alive member is returned exactly once per round, so a failed
+    member is probed within at most two rounds. Records of members that died are skipped and dropped when the
+    round ends, or earlier once they outnumber the live ones (a revived member gets a fresh slot generation, so stale entries are recognised by generation).
+    */
+    public NatedAddress nextProbeNode() {
+        if(aliveCount==0) return null;
         while(true){
-            int randomNum = rand.nextInt(((neighboursNodes.size()-1) - 0) + 1) + 0;
-            NatedAddress node = (NatedAddress) neighboursNodes.keySet().toArray()[randomNum];
-            if(neighboursNodes.get(node).dead==false){
-                return node;
+            if(probeIndex>=probeCount){
+                compactProbes();
+                for(int i = probeCount-1; i > 0; i--){
+                    int j = rand.nextInt(i+1);
+                    long tmp = probeOrder[i];
+                    probeOrder[i] = probeOrder[j];
+                    probeOrder[j] = tmp;
+                }
+                probeIndex = 0;
+            }
+            long entry = probeOrder[probeIndex++];
+            if(isCurrent(entry)){
+                return store.getAddress((int) entry);
             }
         }
-        
     }
     
-    //Return alive nodes in the list
-    public ArrayList<NatedAddress> getNeighboursList(){
+    //Return alive nodes in the list: a read-only snapshot shared by all callers, later membership changes produce a new one
+    public List<NatedAddress> getNeighboursList(){
         
-        ArrayList<NatedAddress> list = new ArrayList<NatedAddress>();
-        for(NatedAddress na : neighboursNodes.keySet()){
-            if(neighboursNodes.get(na).dead==false)
-                list.add(na);
+        if(aliveSnapshot==null){
+            ArrayList<NatedAddress> list = new ArrayList<NatedAddress>(aliveCount);
+            for(int i = 0; i < aliveCount; i++){
+                list.add(store.getAddress(aliveSlots[i]));
+            }
+            aliveSnapshot = Collections.unmodifiableList(list);
         }
-        return list;
+        return aliveSnapshot;
     }
     
     public void printNeighbour() {
@@ -227,17 +340,13 @@ public final class MembershipList {
     
     void selectRandom(ArrayList<NatedAddress> indirectPings, Integer K_VALUE) throws Exception {
         
-        if(K_VALUE>size()) throw new Exception("Cannot chose K random nodes");
+        if(K_VALUE>aliveCount) throw new Exception("Cannot chose K random nodes");
         
+        //Partial Fisher-Yates over the alive array: after k steps the first k slots are a uniform k-subset
+        int n = aliveCount;
         for(int k = 0; k < K_VALUE; k++){
-            while(true){
-                NatedAddress tmp = randomNode();
-                if(!indirectPings.contains(tmp) && neighboursNodes.get(tmp).dead==false){
-                    indirectPings.add(tmp);
-                    break;
-                }
-            }
-            
+            swapAlive(k, k + rand.nextInt(n - k));
+            indirectPings.add(store.getAddress(aliveSlots[k]));
         }
     }
     
@@ -258,61 +367,77 @@ public final class MembershipList {
     }
     
     Integer getIncarnationForMember(NatedAddress address) {
-        if(neighboursNodes.containsKey(address)){
-            return (neighboursNodes.get(address).incarnationNumber);
+        int slot = lookup(address);
+        if(slot>=0){
+            return (store.getIncarnation(slot));
+        }
+        Tombstone t = tombstones.get(address.getId());
+        if(t!=null){
+            return (t.incarnationNumber);
         }
         return -1;
     }
     
+    int tombstoneCount() {
+        return tombstones.size();
+    }
+    
+    /*
+    The registry only needs the addresses something may still send to or through: self, the members and the
+    parents relaying for them or for self. Anything else is forgotten as soon as its last reference goes, so
+    the registry stays as large as the membership under churn (tombstones only keep incarnation numbers)
+    */
+    private void release(Integer id) {
+        if(id.equals(selfAddress.getId()) || neighboursNodes.containsKey(id) || !parentIndex.childrenOf(id).isEmpty()){
+            return;
+        }
+        if(addresses.hasParent(selfAddress.getId(), id)) return;
+        addresses.forget(id);
+    }
+    
+    //Tombstones are kept in insertion order, so the expired ones are always at the head
+    private void expireTombstones() {
+        long now = System.currentTimeMillis();
+        Iterator<Tombstone> it = tombstones.values().iterator();
+        while(it.hasNext()){
+            if(now - it.next().diedAt < tombstoneTimer) break;
+            it.remove();
+        }
+    }
+    
     
    //This method tries to add a new parent for a certain nated node in the membershipList 
     boolean updateNewParents(NatedAddress infoTarget, NatedAddress newParent) {
         
-        if(tabuMap.containsKey(infoTarget.getId())){
-            if(tabuMap.get(infoTarget.getId()).contains(newParent.getId())){
-                //I added this parent before, not allowed until clearing of the cacheN
-                NatedAddress print = null;
-                for(NatedAddress na : neighboursNodes.keySet()){
-                    if(na.getId().equals(infoTarget.getId())){
-                        print = na;
-                    }
-                }
-                if(print!=null)
-                    log.info("FORBIDDEN {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), infoTarget.getId(), print.getParents()});
-                return false;
-            }
+        HashSet<Integer> tabu = tabuMap.get(infoTarget.getId());
+        if(tabu!=null && tabu.contains(newParent.getId())){
+            //I added this parent before, not allowed until clearing of the cacheN
+            int print = lookup(infoTarget);
+            if(print>=0)
+                log.info("FORBIDDEN {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), infoTarget.getId(), store.getAddress(print).getParents()});
+            return false;
         }
         
-        NatedAddress toUpdate = null;
+        int slot = lookup(infoTarget);
         
-        for(NatedAddress na : neighboursNodes.keySet()){
-            if(na.getId().equals(infoTarget.getId())){
-                for(NatedAddress na2 : na.getParents()){
-                    if(na2.getId().equals(newParent.getId())){
-                        return false;
-                    }
-                }
-                //I have the target but not the new parent
-                toUpdate=na;
-                break;
+        if(slot>=0){
+            if(!parentIndex.add(infoTarget.getId(), newParent.getId())){
+                return false;
             }
-        }
-        
-        if(toUpdate!=null){
-            MemberInfo mi = neighboursNodes.get(toUpdate);
-            NatedAddress toAdd = deepCopy(toUpdate,newParent);
-            neighboursNodes.remove(toUpdate);
-            neighboursNodes.put(toAdd, mi);
+            //I have the target but not the new parent
+            NatedAddress toAdd = addresses.withParent(store.getAddress(slot),newParent);
+            store.setAddress(slot, toAdd);
+            aliveSnapshot = null;
             log.info("ADDEDP {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), toAdd.getId(), toAdd.getParents()});
             
-            if(!tabuMap.containsKey(toAdd.getId())){
+            if(tabu==null){
                 log.info("UPDATEDPN {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), toAdd.getId(), toAdd.getParents()});
-                tabuMap.put(toAdd.getId(), new HashSet<Integer>(newParent.getId()));
+                tabu = new HashSet<Integer>();
+                tabuMap.put(toAdd.getId(), tabu);
             } else {
                 log.info("UPDATEDP {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), toAdd.getId(), toAdd.getParents()});
-                tabuMap.get(toAdd.getId()).add(newParent.getId());
             }
-            
+            tabu.add(newParent.getId());
             
             return true;
         }
@@ -323,131 +448,54 @@ public final class MembershipList {
        //This method tries to delete a parent for a certain nated node in the membershipList 
     boolean updateDeadParents(NatedAddress infoTarget, NatedAddress newParent) {
         
-        NatedAddress toUpdate = null;
-        NatedAddress toRemove = null;
+        int slot = lookup(infoTarget);
         
-        for(NatedAddress na : neighboursNodes.keySet()){
-            if(na.getId().equals(infoTarget.getId())){
-                //I have the target for the information
-                toUpdate=na;
-                for(NatedAddress na2 : toUpdate.getParents()){
-                    if(na2.getId().equals(newParent.getId())){
-                        //I have to remove this from toUpdate
-                        toRemove=na2;
-                        break;
-                    }
-                }
-            }
-        }
-        
-        if(toRemove!=null && toUpdate!=null){
-            MemberInfo mi = neighboursNodes.get(toUpdate);
-            NatedAddress toAdd = deepCopyRemove(toUpdate,toRemove);
-            neighboursNodes.remove(toUpdate);
-            neighboursNodes.put(toAdd, mi);
+        if(slot>=0 && parentIndex.remove(infoTarget.getId(), newParent.getId())){
+            //I have the target and it was relaying through the parent
+            NatedAddress toAdd = addresses.withoutParent(store.getAddress(slot),newParent);
+            store.setAddress(slot, toAdd);
+            aliveSnapshot = null;
+            release(newParent.getId());
             log.info("REMOVEDP {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), toAdd.getId(), toAdd.getParents()});
             return true;
         }
         return false;
     }
     
-    
-    
-    private static class MemberInfo {
-        private boolean suspected;
-        private boolean dead;
-        private Integer incarnationNumber;
-        private Integer nodeID;
-        
-        public MemberInfo(boolean suspected, boolean dead, Integer incarnationNumber, Integer nodeID) {
-            this.suspected=suspected;
-            this.incarnationNumber=incarnationNumber;
-            this.nodeID = nodeID;
-            this.dead = dead;
-        }
-        
-        /**
-         * @return the suspected
-         */
-        public boolean isSuspected() {
-            return suspected;
-        }
-        
-        /**
-         * @param suspected the suspected to set
-         */
-        public void setSuspected(boolean suspected) {
-            this.suspected = suspected;
+    private void indexParents(NatedAddress child) {
+        for(NatedAddress parent : child.getParents()){
+            parentIndex.add(child.getId(), parent.getId());
         }
-        
-        /**
-         * @return the incarnationNumber
-         */
-        public Integer getIncarnationNumber() {
-            return incarnationNumber;
-        }
-        
-        /**
-         * @param incarnationNumber the incarnationNumber to set
-         */
-        public void setIncarnationNumber(Integer incarnationNumber) {
-            this.incarnationNumber = incarnationNumber;
-        }
-        
-        /**
-         * @return the nodeID
-         */
-        public Integer getNodeID() {
-            return nodeID;
-        }
-        
-        /**
-         * @param nodeID the nodeID to set
-         */
-        public void setNodeID(Integer nodeID) {
-            this.nodeID = nodeID;
-        }
-        
-        private boolean getSuspected() {
-            return this.suspected;
-        }
-        
-        /**
-         * @return the dead
-         */
-        public boolean isDead() {
-            return dead;
-        }
-        
-        /**
-         * @param dead the dead to set
-         */
-        public void setDead(boolean dead) {
-            this.dead = dead;
-        }
-        
-        
-        
     }
     
-    private NatedAddress deepCopy(NatedAddress na){
-        NatedAddress na2 = new BasicNatedAddress(new BasicAddress(na.getIp(), na.getPort(), na.getId()), na.getNatType(), new HashSet<NatedAddress>(na.getParents()));
-        return na2;
+    /*
+    A dead member cannot relay anymore: drop it from the parents of the members behind it right away, so messages
+    to them go through their other parents instead of waiting for their own DEADPARENT rumour
+    */
+    private void failoverChildren(NatedAddress deadParent) {
+        for(Integer child : new ArrayList<Integer>(parentIndex.childrenOf(deadParent.getId()))){
+            parentIndex.remove(child, deadParent.getId());
+            Integer slot = neighboursNodes.get(child);
+            if(slot!=null){
+                NatedAddress toAdd = addresses.withoutParent(store.getAddress(slot), deadParent);
+                store.setAddress(slot, toAdd);
+                aliveSnapshot = null;
+                log.info("FAILOVERP {} parents for nated node {}: {}", new Object[]{selfAddress.getId(), toAdd.getId(), toAdd.getParents()});
+            }
+        }
     }
     
-    private NatedAddress deepCopy(NatedAddress self, NatedAddress par){
-        Set<NatedAddress> parentListTmp = new HashSet<NatedAddress>(self.getParents());
-        parentListTmp.add(deepCopy(par));
-        NatedAddress na2 = new BasicNatedAddress(new BasicAddress(self.getIp(), self.getPort(), self.getId()), self.getNatType(), parentListTmp);
-        return na2;
-    }
     
     
-    private NatedAddress deepCopyRemove(NatedAddress self, NatedAddress par){
-        Set<NatedAddress> parentListTmp = new HashSet<NatedAddress>(self.getParents());
-        parentListTmp.remove(par);
-        NatedAddress na2 = new BasicNatedAddress(new BasicAddress(self.getIp(), self.getPort(), self.getId()), self.getNatType(), parentListTmp);
-        return na2;
+    //What is left of a dead member: enough to reject NEWNODE rumours older than its death
+    private static class Tombstone {
+        private final int incarnationNumber;
+        private final long diedAt;
+        
+        public Tombstone(int incarnationNumber, long diedAt) {
+            this.incarnationNumber=incarnationNumber;
+            this.diedAt=diedAt;
+        }
     }
     
     
@@ -67,6 +67,8 @@ public class NatTraversalComp extends ComponentDefinition {
     private static final int MAX_NUMBER_PARENTS = 5;
     private static final int PERIODIC_PARENT_PING = 1000;
     private static final int PARENT_ACK_TIMER = 1000;
+    //Croupier overlay the relays are picked from; a MultiCroupierComp publishes the samples of all its overlays
+    private static final int CROUPIER_OVERLAY = 1;
     
     private UUID parentPingTimeoutId;
     private HashMap<Integer,UUID> parentAckTimeoutIds = new HashMap<Integer,UUID>();
@@ -162,6 +164,7 @@ public class NatTraversalComp extends ComponentDefinition {
     private Handler<CroupierSample> handleCroupierSample = new Handler<CroupierSample>() {
         @Override
         public void handle(CroupierSample event) {
+            if(event.overlayId!=CROUPIER_OVERLAY) return;
             log.info("{} croupier public nodes:{}", selfAddress.getBaseAdr(), event.publicSample);
             //use this to change parent in case it died
             
@@ -247,25 +250,28 @@ public class NatTraversalComp extends ComponentDefinition {
         @Override
         public void handle(NetMsg<Object> msg) {
             
-            //First check if it is a DEAD NODE notification
-            if(msg.getContent() instanceof DeadNotification && !selfAddress.isOpen()){
-                /*
+            //First check if it is a DEAD NODE notification: local only, never sent out. The members behind a dead
+            //parent are failed over by the membership list, whose addresses SWIM sends to; here only our own parents
+            if(msg.getContent() instanceof DeadNotification){
                 DeadNotification dn = (DeadNotification)msg.getContent();
-                log.info(" {} deadnotification for: {} - current parent list: {}", new Object[]{selfAddress.getId(), dn.getDeadNode().getId(), selfAddress.getParents()});
-                NatedAddress toRemove = null;
-                for(NatedAddress na : selfAddress.getParents()){
-                    if(na.getId().equals(dn.getDeadNode().getId())){
-                        toRemove = na;
+                if(!selfAddress.isOpen()){
+                    //Fail over right away instead of waiting for the parent ack timeout
+                    NatedAddress toRemove = null;
+                    for(NatedAddress na : selfAddress.getParents()){
+                        if(na.getId().equals(dn.getDeadNode().getId())){
+                            toRemove = na;
+                        }
+                    }
+                    if(toRemove!=null){
+                        if(parentAckTimeoutIds.containsKey(toRemove.getId())){
+                            cancelParentAck(toRemove);
+                        }
+                        selfAddress = deepCopyRemove(selfAddress,toRemove);
+                        log.info(" {} myparents removed (dead): {}", new Object[]{selfAddress.getId(), selfAddress.getParents()});
+                        trigger(new NetDeadParent(selfAddress,selfAddress,toRemove),local);
                     }
-                }
-                if(toRemove!=null){
-                    selfAddress = deepCopyRemove(selfAddress,toRemove);
-                    log.info(" {} myparents removed: {}", new Object[]{selfAddress.getId(), selfAddress.getParents()});
-                    
-                    trigger(new NetDeadParent(selfAddress,selfAddress,toRemove),local);
                 }
                 return;
-                        */
             }
             
             log.info("{} nnnn sending msg:{}", new Object[]{selfAddress.getId(), msg});
@@ -0,0 +1,105 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * One MemberInfo object per member, the original layout of the membership list.
+ */
+final class ObjectMemberStore implements MemberStore {
+    
+    private final ArrayList<MemberInfo> slots = new ArrayList<MemberInfo>();
+    private final ArrayList<Integer> freeSlots = new ArrayList<Integer>();
+    
+    @Override
+    public int allocate(NatedAddress address, int incarnation, long now) {
+        if(freeSlots.isEmpty()){
+            slots.add(new MemberInfo(address, false, incarnation, now, 0));
+            return slots.size()-1;
+        }
+        int slot = freeSlots.remove(freeSlots.size()-1);
+        slots.set(slot, new MemberInfo(address, false, incarnation, now, slots.get(slot).generation));
+        return slot;
+    }
+    
+    @Override
+    public void free(int slot) {
+        MemberInfo mi = slots.get(slot);
+        mi.address = null;
+        mi.generation++;
+        freeSlots.add(slot);
+    }
+    
+    @Override
+    public int getGeneration(int slot) {
+        return slots.get(slot).generation;
+    }
+    
+    @Override
+    public NatedAddress getAddress(int slot) {
+        return slots.get(slot).address;
+    }
+    
+    @Override
+    public void setAddress(int slot, NatedAddress address) {
+        slots.get(slot).address = address;
+    }
+    
+    @Override
+    public int getIncarnation(int slot) {
+        return slots.get(slot).incarnationNumber;
+    }
+    
+    @Override
+    public boolean isSuspected(int slot) {
+        return slots.get(slot).suspected;
+    }
+    
+    @Override
+    public void setState(int slot, boolean suspected, int incarnation, long now) {
+        MemberInfo mi = slots.get(slot);
+        mi.suspected = suspected;
+        mi.incarnationNumber = incarnation;
+        mi.stateChangedAt = now;
+    }
+    
+    @Override
+    public long getStateChangedAt(int slot) {
+        return slots.get(slot).stateChangedAt;
+    }
+    
+    @Override
+    public int getAliveIndex(int slot) {
+        return slots.get(slot).aliveIndex;
+    }
+    
+    @Override
+    public void setAliveIndex(int slot, int aliveIndex) {
+        slots.get(slot).aliveIndex = aliveIndex;
+    }
+    
+    
+    
+    private static class MemberInfo {
+        private NatedAddress address;
+        private boolean suspected;
+        private Integer incarnationNumber;
+        private Long stateChangedAt;
+        private int generation;
+        private int aliveIndex = -1;
+        
+        public MemberInfo(NatedAddress address, boolean suspected, Integer incarnationNumber, Long stateChangedAt, int generation) {
+            this.address=address;
+            this.suspected=suspected;
+            this.incarnationNumber=incarnationNumber;
+            this.stateChangedAt=stateChangedAt;
+            this.generation=generation;
+        }
+    }
+}
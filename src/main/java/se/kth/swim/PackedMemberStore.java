@@ -0,0 +1,125 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.Arrays;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Struct-of-arrays member storage: every field is a primitive array indexed by slot, so a member costs a few
+ * array cells instead of an object with boxed fields, and state checks never unbox.
+ */
+final class PackedMemberStore implements MemberStore {
+    
+    private static final int SUSPECTED = 1;
+    
+    private NatedAddress[] addresses;
+    private int[] state;
+    private int[] incarnations;
+    private long[] stateChangedAt;
+    private int[] generations;
+    private int[] aliveIndexes;
+    private int used = 0; //slots [0, used) have been handed out at least once
+    
+    private int[] freeSlots;
+    private int freeCount = 0;
+    
+    public PackedMemberStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        addresses = new NatedAddress[capacity];
+        state = new int[capacity];
+        incarnations = new int[capacity];
+        stateChangedAt = new long[capacity];
+        generations = new int[capacity];
+        aliveIndexes = new int[capacity];
+        freeSlots = new int[capacity];
+    }
+    
+    @Override
+    public int allocate(NatedAddress address, int incarnation, long now) {
+        int slot;
+        if(freeCount>0){
+            slot = freeSlots[--freeCount];
+        } else {
+            if(used==addresses.length){
+                grow();
+            }
+            slot = used++;
+        }
+        addresses[slot] = address;
+        state[slot] = 0;
+        incarnations[slot] = incarnation;
+        stateChangedAt[slot] = now;
+        aliveIndexes[slot] = -1;
+        return slot;
+    }
+    
+    @Override
+    public void free(int slot) {
+        addresses[slot] = null;
+        generations[slot]++;
+        freeSlots[freeCount++] = slot;
+    }
+    
+    private void grow() {
+        int capacity = addresses.length*2;
+        addresses = Arrays.copyOf(addresses, capacity);
+        state = Arrays.copyOf(state, capacity);
+        incarnations = Arrays.copyOf(incarnations, capacity);
+        stateChangedAt = Arrays.copyOf(stateChangedAt, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        aliveIndexes = Arrays.copyOf(aliveIndexes, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+    
+    @Override
+    public int getGeneration(int slot) {
+        return generations[slot];
+    }
+    
+    @Override
+    public NatedAddress getAddress(int slot) {
+        return addresses[slot];
+    }
+    
+    @Override
+    public void setAddress(int slot, NatedAddress address) {
+        addresses[slot] = address;
+    }
+    
+    @Override
+    public int getIncarnation(int slot) {
+        return incarnations[slot];
+    }
+    
+    @Override
+    public boolean isSuspected(int slot) {
+        return (state[slot] & SUSPECTED) != 0;
+    }
+    
+    @Override
+    public void setState(int slot, boolean suspected, int incarnation, long now) {
+        state[slot] = suspected ? (state[slot] | SUSPECTED) : (state[slot] & ~SUSPECTED);
+        incarnations[slot] = incarnation;
+        stateChangedAt[slot] = now;
+    }
+    
+    @Override
+    public long getStateChangedAt(int slot) {
+        return stateChangedAt[slot];
+    }
+    
+    @Override
+    public int getAliveIndex(int slot) {
+        return aliveIndexes[slot];
+    }
+    
+    @Override
+    public void setAliveIndex(int slot, int aliveIndex) {
+        aliveIndexes[slot] = aliveIndex;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Relay links between NATed members and their parents, indexed both ways (child id -> parent ids and
+ * parent id -> child ids), so link checks and "who relays through P" queries cost O(degree).
+ */
+final class ParentIndex {
+
+    private final HashMap<Integer,HashSet<Integer>> parentsOf = new HashMap<Integer,HashSet<Integer>>();
+    private final HashMap<Integer,HashSet<Integer>> childrenOf = new HashMap<Integer,HashSet<Integer>>();
+
+    public boolean add(Integer child, Integer parent) {
+        if(!link(parentsOf, child, parent)) return false;
+        link(childrenOf, parent, child);
+        return true;
+    }
+
+    public boolean remove(Integer child, Integer parent) {
+        if(!unlink(parentsOf, child, parent)) return false;
+        unlink(childrenOf, parent, child);
+        return true;
+    }
+
+    //Drops every link of the child, used when the child leaves the membership
+    public void removeChild(Integer child) {
+        HashSet<Integer> parents = parentsOf.remove(child);
+        if(parents==null) return;
+        for(Integer parent : parents){
+            unlink(childrenOf, parent, child);
+        }
+    }
+
+    //Children currently relaying through the parent: read-only, empty if none
+    public Set<Integer> childrenOf(Integer parent) {
+        HashSet<Integer> children = childrenOf.get(parent);
+        if(children==null) return Collections.emptySet();
+        return Collections.unmodifiableSet(children);
+    }
+
+    private static boolean link(HashMap<Integer,HashSet<Integer>> map, Integer from, Integer to) {
+        HashSet<Integer> set = map.get(from);
+        if(set==null){
+            set = new HashSet<Integer>();
+            map.put(from, set);
+        }
+        return set.add(to);
+    }
+
+    private static boolean unlink(HashMap<Integer,HashSet<Integer>> map, Integer from, Integer to) {
+        HashSet<Integer> set = map.get(from);
+        if(set==null || !set.remove(to)) return false;
+        if(set.isEmpty()) map.remove(from);
+        return true;
+    }
+}
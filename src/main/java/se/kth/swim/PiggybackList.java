@@ -6,96 +6,248 @@
 package se.kth.swim;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.swim.msg.net.InfoPiggyback;
 import se.kth.swim.msg.net.InfoType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
 
 /**
+ * Updates waiting to be piggybacked, in a bucket queue ordered by remaining transmissions.
+ * Counters are not stored per update: every update keeps the round at which it runs out (expiry) and
+ * decreaseCounters() only moves the current round forward, dropping the one bucket that ran out.
+ * Buckets are indexed by expiry modulo their number, which is kept above the largest counter, so eviction
+ * (fewest transmissions left), decrement and "most transmissions left first" cost O(buckets + k), not O(size).
+ * With supersession on, updates are keyed by subject (InfoPiggyback.equals) and the list keeps one live rumour
+ * per member and per parent link: an update that does not supersede the one held (see
+ * InfoPiggyback.supersedes) is dropped, one that does replaces it.
  *
  * @author samia
  */
 public class PiggybackList {
-    
+
     private static final Logger log = LoggerFactory.getLogger(MembershipList.class);
-    
-    private Map<InfoPiggyback, Integer> updates;
+    //Smallest sizeOf() an update can have: no parent, a target without parents
+    private static final int MIN_UPDATE_BYTES = 1 + 4 + 4 + 4 + 2 + 1 + 1;
+    //Updates over the byte budget take() steps over before it stops looking for smaller ones
+    private static final int MAX_SKIPPED = 8;
+
+    private final Map<InfoPiggyback, Node> updates;
     private final int maxSize;
-    
+    private Node[] buckets; //sentinel heads of circular lists, one per expiry round
+    private int mask;
+    private int round = 0;
+    private ArrayList<InfoPiggyback> snapshot = null; //shared by the messages sent since the last change
+    private int snapshotBytes = 0;
+
     public PiggybackList(HashMap<InfoPiggyback, Integer> m, int maxSize) {
-        updates = new HashMap<InfoPiggyback, Integer>();
-        updates = m;
-        this.maxSize = maxSize;
-        
+        this(maxSize, true);
+        for(Map.Entry<InfoPiggyback, Integer> e : m.entrySet()){
+            add(e.getKey(), e.getValue());
+        }
     }
-    
+
     public PiggybackList(int maxSize) {
-        updates = new HashMap<InfoPiggyback, Integer>();
+        this(maxSize, true);
+    }
+
+    //supersede false: every update is kept on its own, even several about the same member
+    public PiggybackList(int maxSize, boolean supersede) {
+        this.updates = supersede ? new HashMap<InfoPiggyback, Node>() : new IdentityHashMap<InfoPiggyback, Node>();
         this.maxSize = maxSize;
+        this.buckets = newBuckets(64);
+        this.mask = buckets.length-1;
     }
-    
+
     public void add(InfoPiggyback info, Integer counter) {
-        
-        
+        if(counter<=0) return;
+        Node current = updates.get(info);
+        if(current!=null && !info.supersedes(current.info)) return;
+        remove(info);
         if (updates.size() >= maxSize) {
             deleteItem();
         }
-        updates.put(info, counter);
-        
+        if(counter>mask){
+            grow(counter);
+        }
+        Node node = new Node(info, round+counter);
+        link(node);
+        updates.put(info, node);
+        snapshot = null;
     }
-    
+
     public void remove(InfoPiggyback info) {
-        if (updates.containsKey(info)) {
-            updates.remove(info);
+        Node node = updates.remove(info);
+        if (node != null) {
+            unlink(node);
+            snapshot = null;
         }
     }
-    
+
     public int listSize() {
         return updates.size();
     }
-    
+
+    //Drops the update with the fewest transmissions left, the oldest one among equals
     private void deleteItem() {
-        int min = 10000;
-        InfoPiggyback tmp = null;
-        for (InfoPiggyback i : updates.keySet()) {
-            if (updates.get(i) <= min) {
-                min = updates.get(i);
-                tmp = i;
+        for(int r = round+1; r <= round+mask; r++){
+            Node head = buckets[r & mask];
+            if(head.next != head){
+                remove(head.next.info);
+                return;
             }
         }
-        
-        if (tmp != null) {
-            updates.remove(tmp);
-        }
     }
-    
+
+    //Every update, most transmissions left first. The list is shared: callers must not change it
     public ArrayList<InfoPiggyback> getList(){
-        return new ArrayList<InfoPiggyback>(updates.keySet());
+        if(snapshot==null){
+            snapshot = getList(updates.size());
+            snapshotBytes = 0;
+            for(InfoPiggyback info : snapshot){
+                snapshotBytes += sizeOf(info);
+            }
+        }
+        return snapshot;
     }
-    
-    public void decreaseCounters() {
-        //decrease counters and remove 0
-        Collection<InfoPiggyback> coll = new LinkedList<InfoPiggyback>();
-        for(InfoPiggyback ipb : updates.keySet()){
-            coll.add(ipb);
+
+    //Estimated wire size of getList()
+    public int getListBytes(){
+        getList();
+        return snapshotBytes;
+    }
+
+    //The k updates with most transmissions left (the least disseminated ones), in that order
+    public ArrayList<InfoPiggyback> getList(int k){
+        ArrayList<InfoPiggyback> top = new ArrayList<InfoPiggyback>(Math.min(k, updates.size()));
+        for(int r = round+mask; r > round && top.size() < k; r--){
+            Node head = buckets[r & mask];
+            for(Node n = head.next; n != head && top.size() < k; n = n.next){
+                top.add(n.info);
+            }
         }
-        for(InfoPiggyback ipb : coll){
-            int newCounter = updates.get(ipb);
-            newCounter--;
-            if(newCounter==0){
-                updates.remove(ipb);
+        return top;
+    }
+
+    //Budgeted dissemination: the least disseminated updates that fit in maxEntries and maxBytes, each of them
+    //counted as sent once (and retired when that was its last transmission). An update too large for the bytes
+    //left is stepped over, but only MAX_SKIPPED times, and the scan stops once no update can fit anymore: the
+    //cost stays O(buckets + maxEntries) however full the list is
+    public ArrayList<InfoPiggyback> take(int maxEntries, int maxBytes){
+        ArrayList<Node> sent = new ArrayList<Node>(Math.min(maxEntries, updates.size()));
+        int bytes = 0;
+        int skipped = 0;
+        boolean more = maxEntries > 0 && maxBytes >= MIN_UPDATE_BYTES;
+        for(int r = round+mask; r > round && more; r--){
+            Node head = buckets[r & mask];
+            for(Node n = head.next; n != head && more; n = n.next){
+                int size = sizeOf(n.info);
+                if(bytes + size > maxBytes){
+                    more = ++skipped < MAX_SKIPPED;
+                    continue;
+                }
+                bytes += size;
+                sent.add(n);
+                more = sent.size() < maxEntries && maxBytes - bytes >= MIN_UPDATE_BYTES;
+            }
+        }
+        ArrayList<InfoPiggyback> list = new ArrayList<InfoPiggyback>(sent.size());
+        for(Node n : sent){
+            list.add(n.info);
+            unlink(n);
+            if(n.expiry-1 == round){
+                updates.remove(n.info);
             } else {
-                updates.put(ipb, newCounter);
+                n.expiry--;
+                link(n);
             }
         }
+        if(!sent.isEmpty()) snapshot = null;
+        return list;
+    }
+
+    //Wire size estimate of an update: type, incarnation, target address and, for parent updates, the parent address
+    public static int sizeOf(InfoPiggyback info) {
+        int size = 1 + 4 + sizeOf(info.getInfoTarget());
+        if(info.getInfoParent()!=null) size += sizeOf(info.getInfoParent());
+        return size;
+    }
+
+    //id, ip, port, nat type, then the parents as id, ip and port
+    private static int sizeOf(NatedAddress na) {
+        return 4 + 4 + 2 + 1 + 1 + 10*na.getParents().size();
+    }
+
+    public void decreaseCounters() {
+        //decrease counters and remove 0
+        round++;
+        Node head = buckets[round & mask];
+        if(head.next == head) return;
+        for(Node n = head.next; n != head; n = n.next){
+            updates.remove(n.info);
+        }
+        head.next = head;
+        head.prev = head;
+        snapshot = null;
     }
 
     Integer getDissemination(InfoPiggyback ipb) {
-        return updates.get(ipb);
+        Node node = updates.get(ipb);
+        return node==null ? null : node.expiry - round;
+    }
+
+    //Room for counters up to maxCounter: the live expiries must map to distinct buckets
+    private void grow(int maxCounter) {
+        Node[] old = buckets;
+        buckets = newBuckets(Integer.highestOneBit(maxCounter) << 1);
+        mask = buckets.length-1;
+        for(int r = round+1; r < round+old.length; r++){
+            Node head = old[r & (old.length-1)];
+            Node n = head.next;
+            while(n != head){
+                Node next = n.next;
+                link(n);
+                n = next;
+            }
+        }
+    }
+
+    private void link(Node node) {
+        Node head = buckets[node.expiry & mask];
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    private static Node[] newBuckets(int n) {
+        Node[] heads = new Node[n];
+        for(int i = 0; i < n; i++){
+            Node head = new Node(null, 0);
+            head.prev = head;
+            head.next = head;
+            heads[i] = head;
+        }
+        return heads;
+    }
+
+    private static final class Node {
+        private final InfoPiggyback info;
+        private int expiry; //round at which the counter reaches zero
+        private Node prev;
+        private Node next;
+
+        private Node(InfoPiggyback info, int expiry) {
+            this.info = info;
+            this.expiry = expiry;
+        }
     }
-    
 }
@@ -0,0 +1,136 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Open indirect-probe sessions, keyed by (requestor, target, sequence number) and also indexed by target, since
+ * a single ack from the target answers every session waiting on it. The requestor picks the sequence number,
+ * so any number of requestors can probe the same target at once, and one requestor can run probes on several
+ * targets at once. At most maxSessions are open at a time.
+ */
+final class ProbeSessions {
+
+    private final int maxSessions;
+    private final HashMap<Key,Session> sessions = new HashMap<Key,Session>();
+    private final HashMap<Integer,ArrayList<Session>> byTarget = new HashMap<Integer,ArrayList<Session>>();
+
+    public ProbeSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public boolean isFull() {
+        return sessions.size()>=maxSessions;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    //Null if the table is full or the same session is already open
+    public Session open(NatedAddress requestor, NatedAddress target, int seq) {
+        Key key = new Key(requestor.getId(), target.getId(), seq);
+        if(isFull() || sessions.containsKey(key)) return null;
+        Session session = new Session(key, requestor, target);
+        sessions.put(key, session);
+        ArrayList<Session> waiting = byTarget.get(target.getId());
+        if(waiting==null){
+            waiting = new ArrayList<Session>(2);
+            byTarget.put(target.getId(), waiting);
+        }
+        waiting.add(session);
+        return session;
+    }
+
+    //Null if the session was already closed (answered or timed out)
+    public Session close(Integer requestor, Integer target, int seq) {
+        Session session = sessions.remove(new Key(requestor, target, seq));
+        if(session==null) return null;
+        ArrayList<Session> waiting = byTarget.get(target);
+        waiting.remove(session);
+        if(waiting.isEmpty()) byTarget.remove(target);
+        return session;
+    }
+
+    public boolean hasTarget(Integer target) {
+        return byTarget.containsKey(target);
+    }
+
+    //Closes and returns every session waiting on the target
+    public List<Session> closeAll(Integer target) {
+        ArrayList<Session> waiting = byTarget.remove(target);
+        if(waiting==null) return Collections.emptyList();
+        for(Session session : waiting){
+            sessions.remove(session.key);
+        }
+        return waiting;
+    }
+
+
+
+    static final class Session {
+        private final Key key;
+        private final NatedAddress requestor;
+        private final NatedAddress target;
+        private TimerWheel.Entry timeout;
+
+        private Session(Key key, NatedAddress requestor, NatedAddress target) {
+            this.key = key;
+            this.requestor = requestor;
+            this.target = target;
+        }
+
+        public NatedAddress getRequestor() {
+            return requestor;
+        }
+
+        public NatedAddress getTarget() {
+            return target;
+        }
+
+        public int getSeq() {
+            return key.seq;
+        }
+
+        public TimerWheel.Entry getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(TimerWheel.Entry timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    private static final class Key {
+        private final int requestor;
+        private final int target;
+        private final int seq;
+
+        private Key(int requestor, int target, int seq) {
+            this.requestor = requestor;
+            this.target = target;
+            this.seq = seq;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return requestor==k.requestor && target==k.target && seq==k.seq;
+        }
+
+        @Override
+        public int hashCode() {
+            return (requestor*31 + target)*31 + seq;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.Arrays;
+
+/**
+ * Round trip times in power-of-two millisecond buckets: bucket i counts RTTs in [2^i, 2^(i+1)) ms, the first one
+ * also takes anything below 2 ms and the last one anything above.
+ */
+final class RttHistogram {
+    
+    public static final int BUCKETS = 16;
+    
+    private final int[] counts = new int[BUCKETS];
+    private long samples = 0;
+    private long sum = 0;
+    private long max = 0;
+    private long lastAckAt = Long.MIN_VALUE;
+    
+    public void add(long rtt, long ackedAt) {
+        int bucket = rtt < 2 ? 0 : Math.min(BUCKETS-1, 63 - Long.numberOfLeadingZeros(rtt));
+        counts[bucket]++;
+        samples++;
+        sum += rtt;
+        max = Math.max(max, rtt);
+        lastAckAt = Math.max(lastAckAt, ackedAt);
+    }
+    
+    public long getSamples() {
+        return samples;
+    }
+    
+    public long getMean() {
+        return samples==0 ? 0 : sum/samples;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    public long getLastAckAt() {
+        return lastAckAt;
+    }
+    
+    public int[] getCounts() {
+        return Arrays.copyOf(counts, BUCKETS);
+    }
+    
+    @Override
+    public String toString() {
+        return "n=" + samples + " mean=" + getMean() + " max=" + max + " " + Arrays.toString(counts);
+    }
+}
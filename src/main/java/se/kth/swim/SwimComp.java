@@ -20,6 +20,8 @@ package se.kth.swim;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -28,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import se.kth.swim.msg.Status;
 import se.kth.swim.msg.net.InfoPiggyback;
 import se.kth.swim.msg.net.InfoType;
+import se.kth.swim.msg.net.NetDeadNotification;
 import se.kth.swim.msg.net.NetDeadParent;
 import se.kth.swim.msg.net.NetNewParent;
 import se.kth.swim.msg.net.NetPing;
@@ -49,8 +52,6 @@ import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 import se.sics.p2ptoolbox.util.network.NatedAddress;
-import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
-import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
 
 
 public class SwimComp extends ComponentDefinition {
@@ -69,6 +70,7 @@ public class SwimComp extends ComponentDefinition {
     //PRINTING OPTIONS
     public static final boolean printListOfNeighbours = false;
     public static final boolean debugPB = false;
+    public static final boolean debugRTT = false;
     
     
     
@@ -76,6 +78,27 @@ public class SwimComp extends ComponentDefinition {
     private static final Integer DISSEMINATION_VALUE = SwimMain.disseminationValue;
     private static final Integer K_VALUE = SwimMain.kValue;
     private static final Integer MAX_LIST_SIZE = SwimMain.pbSize;
+    //false: uniform random target every period, true: SWIM round-robin over a shuffled member list
+    private static final boolean ROUND_ROBIN_PROBE = SwimMain.roundRobinProbe;
+    //Direct probes remembered by sequence number: must cover every ping sent within an ack timeout
+    private static final int IN_FLIGHT_PROBES = 256;
+    //Indirect probes we can run at once as requestor, and run at once for other requestors
+    private static final int MAX_INDIRECT_PROBES = 16;
+    private static final int MAX_RELAYED_PROBES = 64;
+    //false: one object per member (ObjectMemberStore), true: member state packed in primitive arrays (PackedMemberStore)
+    private static final boolean PACKED_MEMBER_STORE = !SwimMain.objectMemberStore;
+    //false: every PONG carries the whole piggyback list and every update lives DISSEMINATION_VALUE received pings,
+    //true: a PONG carries at most the budget below, least disseminated updates first, and every update is retired
+    //after PIGGYBACK_LAMBDA*ceil(log10(N+1)) sends
+    private static final boolean PIGGYBACK_BUDGET = SwimMain.piggybackBudget;
+    private static final int PIGGYBACK_LAMBDA = 4;
+    private static final int MAX_PIGGYBACK_ENTRIES = 10;
+    private static final int MAX_PIGGYBACK_BYTES = 512;
+    //true: one live rumour per member (and per parent link) in the piggyback list, a newer one by SWIM precedence
+    //replaces it. false: every rumour is kept and sent, even several about the same member
+    private static final boolean RUMOUR_SUPERSESSION = !SwimMain.noSupersession;
+    //true: PING, PING-REQ and PING-RESP carry piggybacked updates too, false: only PONG does
+    private static final boolean PIGGYBACK_ON_ALL = !SwimMain.pongOnlyPiggyback;
     
     
     
@@ -88,6 +111,23 @@ public class SwimComp extends ComponentDefinition {
     private static final int DEAD_TIMER = 100000; //usually bigger than previos two... Keep it SUSPECTED for a while
     //Has to be higher than delete_req_timer
     private static final int INDIRECT_PING_TIMER = 20000; //x2 with respect to DELETE_REQ_TIMER, just in case
+    //Lifeguard: stretch probe period and ack timers by the local health multiplier, and size suspicion timeouts
+    //between SUSPICION_ALPHA*log10(N) and SUSPICION_BETA times that many probe periods, shrinking with the number
+    //of independent confirmations (SUSPICION_K of them bring it to the minimum). When off, the fixed timers above apply
+    private static final boolean LIFEGUARD = SwimMain.lifeguard;
+    private static final int MAX_LOCAL_HEALTH = 8;
+    private static final int SUSPICION_ALPHA = 5;
+    private static final int SUSPICION_BETA = 6;
+    private static final int SUSPICION_K = 3;
+    //Dead members are remembered (id + incarnation) to reject stale NEWNODE rumours, until this expires
+    //Keep it well above the time a DEADNODE rumour needs to die out of the piggyback lists
+    private static final int TOMBSTONE_TIMER = 300000;
+    private static final int MAX_TOMBSTONES = 1000;
+    //Ack, indirect, delete-request and dead timers run on an in-component timer wheel driven by one periodic
+    //timeout of WHEEL_TICK ms (deadlines are rounded up to it). false: one Kompics timeout per deadline
+    private static final boolean TIMER_WHEEL = !SwimMain.kompicsTimers;
+    private static final int WHEEL_TICK = 250;
+    private static final int WHEEL_SLOTS = 512;
     
     
     
@@ -100,27 +140,41 @@ public class SwimComp extends ComponentDefinition {
     private Positive<Timer> timer = requires(Timer.class);
     
     private  NatedAddress selfAddress;
+    private final AddressRegistry addresses = new AddressRegistry();
     private final MembershipList membershipList;
     private final NatedAddress aggregatorAddress;
     
     
     private final PiggybackList pbList;
-    private HashMap<Integer, Integer> requestMapping = new HashMap<Integer,Integer>(); //Ping final destination - Initiali requestor
+    private final ProbeSessions indirectProbes = new ProbeSessions(MAX_INDIRECT_PROBES); //Ours: we are the requestor
+    private final ProbeSessions relayedProbes = new ProbeSessions(MAX_RELAYED_PROBES); //Others': we ping the target for them
+    private int indirectSeq = 0;
     
     private UUID pingTimeoutId;
     private UUID statusTimeoutId;
-    private HashMap<Integer,UUID> ackTimeoutIds = new HashMap<Integer,UUID>();
-    private HashMap<Integer,UUID> deleteTimeoutIds = new HashMap<Integer,UUID>();
-    private HashMap<Integer,UUID> indTimeoutIds = new HashMap<Integer,UUID>();  
-    private HashMap<Integer,UUID> deadTimeoutIds = new HashMap<Integer,UUID>();
-    private HashMap<Integer,NatedAddress> requestorsIndirect = new HashMap<Integer,NatedAddress>();
+    private UUID wheelTimeoutId;
+    private final TimerWheel wheel = new TimerWheel(WHEEL_TICK, WHEEL_SLOTS, System.currentTimeMillis());
+    private final ArrayList<TimerWheel.Entry> expired = new ArrayList<TimerWheel.Entry>();
+    private final HashMap<TimerWheel.Entry,UUID> kompicsTimeoutIds = new HashMap<TimerWheel.Entry,UUID>(); //Only without TIMER_WHEEL
+    private int timerEvents = 0; //Timer port requests and timeouts since last status
+    private long wheelEvents = 0; //Wheel schedules, cancels and expiries at last status
+    private int pbMessages = 0; //Messages carrying piggybacked updates since last status
+    private int pbEntries = 0;
+    private int pbBytes = 0;
+    private final InFlightProbes probes = new InFlightProbes(IN_FLIGHT_PROBES);
+    private HashMap<Integer,DeadTimeout> deadTimeouts = new HashMap<Integer,DeadTimeout>();
+    private HashMap<Integer,Long> detections = new HashMap<Integer,Long>(); //Members declared dead by our own probing since last status
+    private HashMap<Integer,Suspicion> suspicions = new HashMap<Integer,Suspicion>(); //Pending dead timers: start time and confirmations
+    private final LocalHealth localHealth = new LocalHealth(MAX_LOCAL_HEALTH);
+    private int pingTicks = 0;
     
     public SwimComp(SwimInit init) {
-        this.selfAddress = init.selfAddress;
+        this.selfAddress = addresses.intern(init.selfAddress);
         log.info("{} initiating...", selfAddress);
-        this.membershipList = new MembershipList(init.bootstrapNodes,selfAddress);
+        this.membershipList = new MembershipList(init.bootstrapNodes,selfAddress,TOMBSTONE_TIMER,MAX_TOMBSTONES,
+                PACKED_MEMBER_STORE ? new PackedMemberStore(init.bootstrapNodes.size()) : new ObjectMemberStore(), addresses, ROUND_ROBIN_PROBE);
         this.aggregatorAddress = init.aggregatorAddress;
-        this.pbList = new PiggybackList(MAX_LIST_SIZE);
+        this.pbList = new PiggybackList(MAX_LIST_SIZE, RUMOUR_SUPERSESSION);
         
 
         for(NatedAddress na : membershipList.getNeighboursList()){
@@ -133,12 +187,10 @@ public class SwimComp extends ComponentDefinition {
         subscribe(handlePong, network);
         subscribe(handlePingTimeout, timer);
         subscribe(handleStatusTimeout, timer);
-        subscribe(handleAckTimeout, timer);
-        subscribe(handleDeadTimeout, timer);
+        subscribe(handleWheelTick, timer);
+        subscribe(handleEntryTimeout, timer);
         subscribe(handlePingReqMsg, network);
-        subscribe(handleDeleteTimeout, timer);
         subscribe(handlePingRespMsg, network);
-        subscribe(handleIndTimeout, timer);
         subscribe(handleNewParentMesg,network);
         subscribe(handleDeadParentMesg,network);
         
@@ -154,6 +206,9 @@ public class SwimComp extends ComponentDefinition {
                 schedulePeriodicPing();
             }
             schedulePeriodicStatus();
+            if(TIMER_WHEEL){
+                scheduleWheelTick();
+            }
         }
     };
     
@@ -168,6 +223,9 @@ public class SwimComp extends ComponentDefinition {
             if (statusTimeoutId != null) {
                 cancelPeriodicStatus();
             }
+            if (wheelTimeoutId != null) {
+                cancelWheelTick();
+            }
         }
         
     };
@@ -190,9 +248,11 @@ public class SwimComp extends ComponentDefinition {
             printmyneigh(); //method activated only if debug flag is ON
             
 //Handle indirect-ping protocol
-//If you received a ping from a node that you are testing via indirect procedure, cancel timeout
-            if(indTimeoutIds.keySet().contains(event.getHeader().getSource().getId())){
-                cancelIndTimeout(event.getHeader().getSource());
+//If you received a ping from a node that you are testing via indirect procedure, close the sessions
+            if(indirectProbes.hasTarget(event.getHeader().getSource().getId())){
+                for(ProbeSessions.Session session : indirectProbes.closeAll(event.getHeader().getSource().getId())){
+                    cancelIndTimeout(session);
+                }
                 membershipList.unsuspectNode(event.getHeader().getSource(),pingInc);
             }
             
@@ -206,7 +266,7 @@ public class SwimComp extends ComponentDefinition {
                 
 //Save the new info to be disseminated and add it to the list
                 if(membershipList.add(event.getHeader().getSource(),pingInc))
-                    pbList.add(new InfoPiggyback(InfoType.NEWNODE,event.getHeader().getSource(),pingInc), DISSEMINATION_VALUE);
+                    pbList.add(new InfoPiggyback(InfoType.NEWNODE,event.getHeader().getSource(),pingInc), disseminations());
                 
                 /*
                 Catch-up procedure: send a DEAD info to the node with current incarnation value to let it get the
@@ -222,14 +282,20 @@ public class SwimComp extends ComponentDefinition {
 //Ping is in the list and marked as "ALIVE"
 //iIfthe ping has higher incarnation value than the suspected record in the list, no more suspected (and disseminate)
                 if(membershipList.unsuspectNode(event.getHeader().getSource(), pingInc)){
-                    pbList.add(new InfoPiggyback(InfoType.ALIVENODE,event.getHeader().getSource(),pingInc), DISSEMINATION_VALUE);
+                    pbList.add(new InfoPiggyback(InfoType.ALIVENODE,event.getHeader().getSource(),pingInc), disseminations());
                 }
             }
             
+            if(PIGGYBACK_ON_ALL){
+                applyPiggyback(event.getContent().infoList, event.getHeader().getSource());
+            }
+            
 //Decrease counter procedure before answering with a PONG message
-            pbList.decreaseCounters();
+            if(!PIGGYBACK_BUDGET){
+                pbList.decreaseCounters();
+            }
             log.info("{} sending pong to partner: {}", new Object[]{selfAddress.getId(), event.getHeader().getSource().getId()});
-            trigger(new NetPong(deepCopy(selfAddress), deepCopy(event.getHeader().getSource()), pbList.getList(), membershipList.getSelfIncarnation()), network);
+            trigger(new NetPong(selfAddress, addresses.intern(event.getHeader().getSource()), piggyback(), membershipList.getSelfIncarnation(), event.getContent().seq), network);
         }
     };
     
@@ -252,126 +318,37 @@ public class SwimComp extends ComponentDefinition {
             
 //log.info("{} received pong from:{}", new Object[]{selfAddress.getId(), event.getHeader().getSource()});
             
-//Cancel ack timeout if you receive a pong in time
-            if(ackTimeoutIds.containsKey(event.getSource().getId())){
-                cancelAck(event.getSource());
+//Match the pong to our probe by sequence number: cancel the ack timeout if it came in time
+            int seq = event.getContent().seq;
+            TimerWheel.Entry ackTimeout = probes.getTimeout(seq);
+            if(probes.ack(seq, event.getHeader().getSource().getId(), System.currentTimeMillis())==InFlightProbes.Ack.ON_TIME){
+                cancelTimer(ackTimeout);
+                localHealth.success();
             }
             
 //Control that the pong is from a suspected node, and unsuspect it in case of greater incarnation value in the PONG
             if(membershipList.unsuspectNode(event.getHeader().getSource(),pongInc))
-                pbList.add(new InfoPiggyback(InfoType.ALIVENODE,event.getHeader().getSource(),membershipList.getIncarnationForMember(event.getHeader().getSource())), DISSEMINATION_VALUE);
+                pbList.add(new InfoPiggyback(InfoType.ALIVENODE,event.getHeader().getSource(),membershipList.getIncarnationForMember(event.getHeader().getSource())), disseminations());
             
             /*
-            Indipendently from the execution, if received a PONG from a node in a indirect procedure, send back to the first
-            requesor a "NetPingResp" message to inform that the node targeted is alive
+            Indipendently from the execution, if received a PONG from a node in a indirect procedure, send back to every
+            requestor waiting on it a "NetPingResp" message to inform that the node targeted is alive
             */
-            Integer toremove = null;
-            Integer toremovehelper = null;
-            for(Integer indirectPinged : requestMapping.keySet()){
-                if(indirectPinged==event.getHeader().getSource().getId()){
-//log.info("Sending indirect ack to {} for node {}", new Object[]{requestorAddress,requestMapping.get(requestorAddress)});
-                    NatedAddress requestorAddress = requestorsIndirect.get(requestMapping.get(indirectPinged));
-                    trigger(new NetPingResp(deepCopy(selfAddress),deepCopy(requestorAddress),deepCopy(event.getHeader().getSource())),network);
-                    if(requestorAddress!=null)
-                        toremovehelper = requestorAddress.getId();
-                    toremove = indirectPinged;
+            for(ProbeSessions.Session session : relayedProbes.closeAll(event.getHeader().getSource().getId())){
+                cancelDeleteReq(session);
+                if(PIGGYBACK_ON_ALL){
+                    trigger(new NetPingResp(selfAddress,session.getRequestor(),session.getTarget(),session.getSeq(),piggyback()),network);
+                } else {
+                    trigger(new NetPingResp(selfAddress,session.getRequestor(),session.getTarget(),session.getSeq()),network);
                 }
             }
-            if(toremove!=null) requestMapping.remove(toremove); //Note that multiple this mapping supports a single request at a time from the starting requestor! A subsequent request from the requestor overrides this.
-            //if(toremovehelper!=null)requestorsIndirect.remove(toremovehelper);
-            
-            /*
-            For each information packet in the PONG message, exevute certain operations (critical code)
-            */
-            if(event.getContent().infoList!=null && event.getContent().infoList.size()>0){
-                for(Object ipb2 : event.getContent().infoList){
-                    InfoPiggyback ipb = (InfoPiggyback)ipb2;
-                    switch(ipb.getInfoType()){
-                        
-                        
-                        case NEWNODE:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                if(membershipList.add(ipb.getInfoTarget(), ipb.getIncarnationValue()))
-                                    pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),ipb.getIncarnationValue()), DISSEMINATION_VALUE);
-                            } else {
-//It is referred to me
-                                if(ipb.getIncarnationValue()>membershipList.getSelfIncarnation()){
-                                    membershipList.setSelfIncarnation(ipb.getIncarnationValue());
-                                    pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                            
-                            
-                        case DEADNODE:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                if(membershipList.remove(ipb.getInfoTarget(),ipb.getIncarnationValue())){
-                                    pbList.add(new InfoPiggyback(InfoType.DEADNODE,ipb.getInfoTarget(),ipb.getIncarnationValue()), DISSEMINATION_VALUE);
-                                    //trigger(new NetDeadNotification(selfAddress,selfAddress,ipb.getInfoTarget()),network);
-                                }
-                            } else {
-//It is referred to me
-                                if(membershipList.getSelfIncarnation()<=ipb.getIncarnationValue()){   
-                                    membershipList.setSelfIncarnation(ipb.getIncarnationValue()+1);
-                                    pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                            
-                            
-                        case ALIVENODE:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                if(membershipList.unsuspectNode(ipb.getInfoTarget(),ipb.getIncarnationValue())){
-                                    pbList.add(new InfoPiggyback(InfoType.ALIVENODE,ipb.getInfoTarget(),membershipList.getIncarnationForMember(ipb.getInfoTarget())), DISSEMINATION_VALUE);
-                                    if(deadTimeoutIds.containsKey(ipb.getInfoTarget().getId())){
-                                        cancelDeadTimeout(ipb.getInfoTarget());
-                                    }
-                                }
-                            } else {
-//It is referred to me
-                                if(ipb.getIncarnationValue()>membershipList.getSelfIncarnation()){
-                                    membershipList.setSelfIncarnation(ipb.getIncarnationValue());
-                                    pbList.add(new InfoPiggyback(InfoType.ALIVENODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                            
-                            
-                        case SUSPECTEDNODE:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                
-                                if(membershipList.suspectNode(ipb.getInfoTarget(),ipb.getIncarnationValue()))
-                                    pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE,ipb.getInfoTarget(),membershipList.getIncarnationForMember(ipb.getInfoTarget())), DISSEMINATION_VALUE);
-//Check that there is no timeout associated to the event.getAddress already, otherwise the prev UUID is lost
-//And start a new ack timer in case, so that to declare the node dead in case of timeout before ALIVE
-                                if(!deadTimeoutIds.containsKey(ipb.getInfoTarget().getId()))
-                                    scheduleDeadTimeout(ipb.getInfoTarget());
-                            } else {
-//It is referred to me
-                                if(membershipList.getSelfIncarnation()<=ipb.getIncarnationValue()){ 
-                                    membershipList.setSelfIncarnation(ipb.getIncarnationValue()+1);
-                                    pbList.add(new InfoPiggyback(InfoType.ALIVENODE,deepCopy(selfAddress),membershipList.getSelfIncarnation()), DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                            
-                        case NEWPARENT:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                if(membershipList.updateNewParents(ipb.getInfoTarget(),ipb.getInfoParent())){
-                                    pbList.add(new InfoPiggyback(InfoType.NEWPARENT, ipb.getInfoTarget(),ipb.getInfoParent()),DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                        case DEADPARENT:
-                            if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
-                                if(membershipList.updateDeadParents(ipb.getInfoTarget(),ipb.getInfoParent())){
-                                    pbList.add(new InfoPiggyback(InfoType.DEADPARENT, ipb.getInfoTarget(),ipb.getInfoParent()),DISSEMINATION_VALUE);
-                                }
-                            }
-                            break;
-                    }
-                }
+            //A late direct ack also answers our own indirect probes on the node
+            for(ProbeSessions.Session session : indirectProbes.closeAll(event.getHeader().getSource().getId())){
+                cancelIndTimeout(session);
             }
+            
+//Updates piggybacked on the PONG
+            applyPiggyback(event.getContent().infoList, event.getHeader().getSource());
         }
     };
     
@@ -397,6 +374,7 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(PingTimeout event) {
+            timerEvents++;
             
 //Just configuration details
             if(membershipList.isEmpty()){
@@ -408,14 +386,20 @@ public class SwimComp extends ComponentDefinition {
                 }
             }
             
-            NatedAddress partnerAddress = membershipList.randomNode(); //Alive random node
-//Check if still waiting for an answer from the node, if yes do not send to avoid interference with previous operation
-            if(!ackTimeoutIds.containsKey(partnerAddress.getId())){
-                log.info("{} sending ping to partner:{}", new Object[]{selfAddress.getId(), partnerAddress});
-                scheduleAck(partnerAddress);
-                trigger(new NetPing(deepCopy(selfAddress), deepCopy(partnerAddress), membershipList.getSelfIncarnation()), network);
+            //A node in poor local health probes less often, one period out of multiplier()
+            if(LIFEGUARD && (pingTicks++ % localHealth.multiplier())!=0){
+                return;
+            }
+            
+            NatedAddress partnerAddress = ROUND_ROBIN_PROBE ? membershipList.nextProbeNode() : membershipList.randomNode(); //Alive node
+//Every probe has its own sequence number and timer, so a node still owing an ack can be probed again
+            log.info("{} sending ping to partner:{}", new Object[]{selfAddress.getId(), partnerAddress});
+            int seq = probes.send(partnerAddress, System.currentTimeMillis());
+            scheduleAck(partnerAddress, seq);
+            if(PIGGYBACK_ON_ALL){
+                trigger(new NetPing(selfAddress, partnerAddress, piggyback(), membershipList.getSelfIncarnation(), seq), network);
             } else {
-                log.info("{} FAIL sending ping to partner (waiting for ack):{}", new Object[]{selfAddress.getId(), partnerAddress});
+                trigger(new NetPing(selfAddress, partnerAddress, membershipList.getSelfIncarnation(), seq), network);
             }
         }
     };
@@ -433,6 +417,7 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(StatusTimeout event) {
+            timerEvents++;
 // log.info("{} sending status to aggregator:{}", new Object[]{selfAddress.getId(), aggregatorAddress});
             int a=0;
             int n=0;
@@ -462,7 +447,31 @@ public class SwimComp extends ComponentDefinition {
                 }
             }
             if(!selfAddress.isOpen()) ps = selfAddress.getParents().size();
-            trigger(new NetStatus(deepCopy(selfAddress), aggregatorAddress, new Status(0, membershipList.size(), a, n, d, s, np, dp, ps, membershipList.getSelfIncarnation())), network);
+            if(debugRTT){
+                for(Map.Entry<Integer,RttHistogram> e : probes.histograms().entrySet()){
+                    log.info("{} RTT to {}: {}", new Object[]{selfAddress.getId(), e.getKey(), e.getValue()});
+                }
+            }
+            long wheelTotal = wheel.getScheduled() + wheel.getCancelled() + wheel.getExpired();
+            Status status = new Status(0, membershipList.size(), a, n, d, s, np, dp, ps, membershipList.getSelfIncarnation());
+            status.detections = detections;
+            status.tombstones = membershipList.tombstoneCount();
+            status.localHealth = localHealth.score();
+            status.rttBuckets = probes.total().getCounts();
+            status.latePongs = probes.late();
+            status.duplicatePongs = probes.duplicates();
+            status.timerEvents = timerEvents;
+            status.wheelEvents = (int) (wheelTotal - wheelEvents);
+            status.pbMessages = pbMessages;
+            status.pbEntries = pbEntries;
+            status.pbBytes = pbBytes;
+            trigger(new NetStatus(selfAddress, aggregatorAddress, status), network);
+            detections = new HashMap<Integer,Long>();
+            timerEvents = 0;
+            pbMessages = 0;
+            pbEntries = 0;
+            pbBytes = 0;
+            wheelEvents = wheelTotal;
         }
     };
     
@@ -475,45 +484,46 @@ public class SwimComp extends ComponentDefinition {
         @Override
         public void handle(AckTimeout event) {
             
-//Clean UUID for the event
-            cancelAck(event.getAddress());
+//Ignore it if the probe got its ack meanwhile, or a later probe to the node did
+            if(!probes.timeout(event.getSeq())) return;
+            if(probes.ackedSince(event.getAddress().getId(), probes.getSentAt(event.getSeq()))) return;
+            localHealth.failure();
             
-//If it is already suspected just avoid interference and end the handler
-            if(!membershipList.isSuspected(event.getAddress())){
-//Limiting the indirect procedure
-                if(indTimeoutIds.size()>0){
-//Do not operate the indirect procedure, but proceed with the normal if no interference
-                    /*
-                    if(!deleteTimeoutIds.containsKey(event.getAddress())){
-                    membershipList.suspectNode(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()));
-                    pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE, event.getAddress(), membershipList.getIncarnationForMember(event.getAddress())),DISSEMINATION_VALUE);
-                    trigger(new NetPing(selfAddress, event.getAddress(),membershipList.getSelfIncarnation()), network);
-                    scheduleDeleteReq(event.getAddress());
-                    }
-                    */
-                } else if (indTimeoutIds.isEmpty()) {
-//Everything is free to proceed with the indirect procedure
-                    membershipList.suspectNode(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()));
-                        pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE, event.getAddress(), membershipList.getIncarnationForMember(event.getAddress())),DISSEMINATION_VALUE);
-                    
+//If it is already suspected (or already probed indirectly) just avoid interference and end the handler
+            if(!membershipList.isSuspected(event.getAddress()) && !indirectProbes.hasTarget(event.getAddress().getId())){
+//Limiting the indirect procedure: with every session slot taken, the node is simply probed again later
+                if(indirectProbes.isFull()){
+                    log.info("{} indirect probe limit reached, not probing {}", new Object[]{selfAddress.getId(), event.getAddress().getId()});
+                    return;
+                }
+                ProbeSessions.Session session = indirectProbes.open(selfAddress, event.getAddress(), indirectSeq++);
+                
+                membershipList.suspectNode(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()));
+                pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE, event.getAddress(), membershipList.getIncarnationForMember(event.getAddress())),disseminations());
+                
 //Triggering the indirect procedure to random K nodes
-                    ArrayList<NatedAddress> indirectPings = new ArrayList<NatedAddress>(K_VALUE);
-                    try {
-                        membershipList.selectRandom(indirectPings,K_VALUE);
-                    } catch (Exception ex) {
-                        java.util.logging.Logger.getLogger(SwimComp.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                    for(NatedAddress na : indirectPings){
-                        if(!na.getId().equals(event.getAddress().getId())){
-                            trigger(new NetPingReq(deepCopy(selfAddress),deepCopy(na),deepCopy(event.getAddress())),network);
-                            //Check that there is no timeout associated to the event.getAddress already, otherwise the prev UUID is lost
-//This is useless now, since we support a single indirect procedure per time
-                            if(!indTimeoutIds.containsKey(event.getAddress().getId())){
+                ArrayList<NatedAddress> indirectPings = new ArrayList<NatedAddress>(K_VALUE);
+                try {
+                    membershipList.selectRandom(indirectPings,K_VALUE);
+                } catch (Exception ex) {
+                    java.util.logging.Logger.getLogger(SwimComp.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                boolean sent = false;
+                for(NatedAddress na : indirectPings){
+                    if(!na.getId().equals(event.getAddress().getId())){
+                        if(PIGGYBACK_ON_ALL){
+                            trigger(new NetPingReq(selfAddress,na,event.getAddress(),session.getSeq(),piggyback()),network);
+                        } else {
+                            trigger(new NetPingReq(selfAddress,na,event.getAddress(),session.getSeq()),network);
+                        }
+                        sent = true;
+                    }     
+                }
+                if(sent){
 //log.info("INDIR {} starts indirect procedure for node {}", new Object[]{selfAddress.getId(), event.getAddress()});
-                                scheduleIndirectPing(event.getAddress());
-                            }
-                        }     
-                    }
+                    scheduleIndirectPing(session);
+                } else {
+                    indirectProbes.close(selfAddress.getId(), event.getAddress().getId(), session.getSeq());
                 }
             }
         }
@@ -530,10 +540,14 @@ public class SwimComp extends ComponentDefinition {
         public void handle(IndTimeout event) {
 //No answer from indirect pings
 //log.info("INDIR {} didn't get any hack from random nodes for node {}", new Object[]{selfAddress.getId(), event.getAddress()});
-            cancelIndTimeout(event.getAddress());
+            if(indirectProbes.close(selfAddress.getId(), event.getAddress().getId(), event.getSeq())==null){
+                return; //answered meanwhile
+            }
             if(membershipList.remove(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()))){
-                pbList.add(new InfoPiggyback(InfoType.DEADNODE, event.getAddress(),membershipList.getIncarnationForMember(event.getAddress())),DISSEMINATION_VALUE);
-                //trigger(new NetDeadNotification(selfAddress,selfAddress,event.getAddress()),network);
+                detections.put(event.getAddress().getId(), System.currentTimeMillis());
+                probes.forget(event.getAddress().getId());
+                pbList.add(new InfoPiggyback(InfoType.DEADNODE, event.getAddress(),membershipList.getIncarnationForMember(event.getAddress())),disseminations());
+                trigger(new NetDeadNotification(selfAddress,selfAddress,event.getAddress()),network);
             }
         }
     };
@@ -546,13 +560,19 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(NetPingResp event) {
-            cancelIndTimeout(event.getContent().toPing);
+            ProbeSessions.Session session = indirectProbes.close(selfAddress.getId(), event.getContent().toPing.getId(), event.getContent().seq);
+            if(session!=null){
+                cancelIndTimeout(session);
+            }
+            if(PIGGYBACK_ON_ALL){
+                applyPiggyback(event.getContent().infoList, event.getHeader().getSource());
+            }
 //log.info("INDIR {} received a single ack for node {}", new Object[]{selfAddress.getId(), event.getToPing()});
             if(membershipList.unsuspectNode(event.getContent().toPing,membershipList.getIncarnationForMember(event.getContent().toPing))){
                 /*
                 * Maybe disseminate here?
                 */
-                pbList.add(new InfoPiggyback(InfoType.ALIVENODE, event.getContent().toPing,membershipList.getIncarnationForMember(event.getContent().toPing)),DISSEMINATION_VALUE);
+                pbList.add(new InfoPiggyback(InfoType.ALIVENODE, event.getContent().toPing,membershipList.getIncarnationForMember(event.getContent().toPing)),disseminations());
             }
         }
     };
@@ -564,8 +584,7 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(DeleteTimeout event) {
-            requestMapping.remove(event.getAddress().getId());
-            cancelDeleteReq(event.getAddress());
+            relayedProbes.close(event.getRequestor().getId(), event.getAddress().getId(), event.getSeq());
         }
     };
     
@@ -576,13 +595,23 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(NetPingReq event) {
-            requestMapping.put(event.getContent().toPing.getId(), event.getSource().getId());
-            requestorsIndirect.put(event.getSource().getId(), deepCopy(event.getSource()));
-            //Note that we do not operate on our list/piggiback information since we just act as second stage of the indirect procedure
-            trigger(new NetPing(deepCopy(selfAddress), deepCopy(event.getContent().toPing),membershipList.getSelfIncarnation()), network);
+            if(PIGGYBACK_ON_ALL){
+                applyPiggyback(event.getContent().infoList, event.getHeader().getSource());
+            }
+            ProbeSessions.Session session = relayedProbes.open(addresses.intern(event.getSource()), addresses.intern(event.getContent().toPing), event.getContent().seq);
+            if(session==null){
+                //Too many probes in flight for others (or a duplicate request): the requestor has other helpers
+                return;
+            }
+            //Note that we do not change the state of the target in our list since we just act as second stage of the indirect procedure
+            if(PIGGYBACK_ON_ALL){
+                trigger(new NetPing(selfAddress, session.getTarget(), piggyback(), membershipList.getSelfIncarnation(), 0), network);
+            } else {
+                trigger(new NetPing(selfAddress, session.getTarget(),membershipList.getSelfIncarnation()), network);
+            }
            // if(membershipList.suspectNode(event.getContent().toPing,membershipList.getIncarnationForMember(event.getContent().toPing)))
-              //pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE, event.getContent().toPing, membershipList.getIncarnationForMember(event.getContent().toPing)),DISSEMINATION_VALUE);
-            scheduleDeleteReq(event.getSource());
+              //pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE, event.getContent().toPing, membershipList.getIncarnationForMember(event.getContent().toPing)),disseminations());
+            scheduleDeleteReq(session);
         }
     };
     
@@ -593,9 +622,9 @@ public class SwimComp extends ComponentDefinition {
         
         @Override
         public void handle(DeadTimeout event) {
-//As usual, cleanup the UUID tables
-            if(deadTimeoutIds.containsKey(event.getAddress().getId()))
-                cancelDeadTimeout(event.getAddress());
+//As usual, cleanup the timer table
+            deadTimeouts.remove(event.getAddress().getId());
+            suspicions.remove(event.getAddress().getId());
             
             /*
             Note that the DeadTimeout can be triggered because of direct or indirect pinging. In the second case we just
@@ -604,8 +633,41 @@ public class SwimComp extends ComponentDefinition {
             missed reception of the Pong message
             */
             if(membershipList.isSuspected(event.getAddress())){
-                membershipList.remove(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()));
-                //trigger(new NetDeadNotification(selfAddress,selfAddress,event.getAddress()),network);
+                if(membershipList.remove(event.getAddress(),membershipList.getIncarnationForMember(event.getAddress()))){
+                    detections.put(event.getAddress().getId(), System.currentTimeMillis());
+                    probes.forget(event.getAddress().getId());
+                    trigger(new NetDeadNotification(selfAddress,selfAddress,event.getAddress()),network);
+                }
+            }
+        }
+    };
+    
+    
+    
+    //Timer wheel: hand every deadline that passed since the last tick to its handler
+    private final Handler<WheelTick> handleWheelTick = new Handler<WheelTick>() {
+        
+        @Override
+        public void handle(WheelTick event) {
+            timerEvents++;
+            wheel.advance(System.currentTimeMillis(), expired);
+            for(TimerWheel.Entry e : expired){
+                expire(e);
+            }
+            expired.clear();
+        }
+    };
+    
+    
+    
+    //Without the timer wheel every deadline comes back as its own Kompics timeout
+    private final Handler<EntryTimeout> handleEntryTimeout = new Handler<EntryTimeout>() {
+        
+        @Override
+        public void handle(EntryTimeout event) {
+            timerEvents++;
+            if(kompicsTimeoutIds.remove(event.entry)!=null){
+                expire(event.entry);
             }
         }
     };
@@ -617,11 +679,11 @@ public class SwimComp extends ComponentDefinition {
         @Override
         public void handle(NetNewParent event) {
             //Updating the parents list also in SwimComponent
-            selfAddress=event.getSource();
+            selfAddress=addresses.intern(event.getSource());
             
             //Disseminating info about the new parent
             log.info("{} starting to disseminate NPInfo for {}", new Object[]{selfAddress.getId(), event.getContent().toPing});
-            pbList.add(new InfoPiggyback(InfoType.NEWPARENT, selfAddress,event.getContent().toPing),DISSEMINATION_VALUE);
+            pbList.add(new InfoPiggyback(InfoType.NEWPARENT, selfAddress,event.getContent().toPing),disseminations());
         }
     };
     
@@ -631,10 +693,10 @@ public class SwimComp extends ComponentDefinition {
         @Override
         public void handle(NetDeadParent event) {
             //Updating the parents list also in SwimComponent
-            selfAddress=event.getSource();
+            selfAddress=addresses.intern(event.getSource());
             
             //Disseminating info about the new parent
-            pbList.add(new InfoPiggyback(InfoType.DEADPARENT, selfAddress,event.getContent().toPing),DISSEMINATION_VALUE);
+            pbList.add(new InfoPiggyback(InfoType.DEADPARENT, selfAddress,event.getContent().toPing),disseminations());
         }
     };
     
@@ -655,17 +717,141 @@ public class SwimComp extends ComponentDefinition {
     
     
     
+    /*
+    For each information packet piggybacked on a message, execute certain operations (critical code)
+    */
+    private void applyPiggyback(ArrayList<InfoPiggyback> infoList, NatedAddress from) {
+        if(infoList!=null && infoList.size()>0){
+            for(Object ipb2 : infoList){
+                InfoPiggyback ipb = (InfoPiggyback)ipb2;
+                switch(ipb.getInfoType()){
+                    
+                    
+                    case NEWNODE:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            if(membershipList.add(ipb.getInfoTarget(), ipb.getIncarnationValue()))
+                                pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),ipb.getIncarnationValue()), disseminations());
+                        } else {
+//It is referred to me
+                            if(ipb.getIncarnationValue()>membershipList.getSelfIncarnation()){
+                                membershipList.setSelfIncarnation(ipb.getIncarnationValue());
+                                pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), disseminations());
+                            }
+                        }
+                        break;
+                        
+                        
+                    case DEADNODE:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            if(membershipList.remove(ipb.getInfoTarget(),ipb.getIncarnationValue())){
+                                probes.forget(ipb.getInfoTarget().getId());
+                                pbList.add(new InfoPiggyback(InfoType.DEADNODE,ipb.getInfoTarget(),ipb.getIncarnationValue()), disseminations());
+                                trigger(new NetDeadNotification(selfAddress,selfAddress,ipb.getInfoTarget()),network);
+                            }
+                        } else {
+//It is referred to me
+                            if(membershipList.getSelfIncarnation()<=ipb.getIncarnationValue()){   
+                                membershipList.setSelfIncarnation(ipb.getIncarnationValue()+1);
+                                pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), disseminations());
+                            }
+                        }
+                        break;
+                        
+                        
+                    case ALIVENODE:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            if(membershipList.unsuspectNode(ipb.getInfoTarget(),ipb.getIncarnationValue())){
+                                pbList.add(new InfoPiggyback(InfoType.ALIVENODE,ipb.getInfoTarget(),membershipList.getIncarnationForMember(ipb.getInfoTarget())), disseminations());
+                                if(deadTimeouts.containsKey(ipb.getInfoTarget().getId())){
+                                    cancelDeadTimeout(ipb.getInfoTarget());
+                                    suspicions.remove(ipb.getInfoTarget().getId());
+                                }
+                            } else if(membershipList.add(ipb.getInfoTarget(), ipb.getIncarnationValue())){
+//An ALIVENODE can have replaced the NEWNODE of a member in the senders' lists: it introduces the member as well
+                                pbList.add(new InfoPiggyback(InfoType.NEWNODE,ipb.getInfoTarget(),ipb.getIncarnationValue()), disseminations());
+                            }
+                        } else {
+//It is referred to me
+                            if(ipb.getIncarnationValue()>membershipList.getSelfIncarnation()){
+                                membershipList.setSelfIncarnation(ipb.getIncarnationValue());
+                                pbList.add(new InfoPiggyback(InfoType.ALIVENODE,ipb.getInfoTarget(),membershipList.getSelfIncarnation()), disseminations());
+                            }
+                        }
+                        break;
+                        
+                        
+                    case SUSPECTEDNODE:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            
+                            if(membershipList.suspectNode(ipb.getInfoTarget(),ipb.getIncarnationValue()))
+                                pbList.add(new InfoPiggyback(InfoType.SUSPECTEDNODE,ipb.getInfoTarget(),membershipList.getIncarnationForMember(ipb.getInfoTarget())), disseminations());
+//Check that there is no timeout associated to the target already, otherwise the prev timer is lost
+//And start a new ack timer in case, so that to declare the node dead in case of timeout before ALIVE
+                            if(!deadTimeouts.containsKey(ipb.getInfoTarget().getId())){
+                                scheduleDeadTimeout(ipb.getInfoTarget(), from.getId());
+                            } else {
+                                confirmSuspicion(ipb.getInfoTarget(), from.getId());
+                            }
+                        } else {
+//It is referred to me
+                            if(membershipList.getSelfIncarnation()<=ipb.getIncarnationValue()){ 
+                                //Being suspected while alive hints that we are the slow one
+                                localHealth.failure();
+                                membershipList.setSelfIncarnation(ipb.getIncarnationValue()+1);
+                                pbList.add(new InfoPiggyback(InfoType.ALIVENODE,selfAddress,membershipList.getSelfIncarnation()), disseminations());
+                            }
+                        }
+                        break;
+                        
+                    case NEWPARENT:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            if(membershipList.updateNewParents(ipb.getInfoTarget(),ipb.getInfoParent())){
+                                pbList.add(new InfoPiggyback(InfoType.NEWPARENT, ipb.getInfoTarget(),ipb.getInfoParent()),disseminations());
+                            }
+                        }
+                        break;
+                    case DEADPARENT:
+                        if(!ipb.getInfoTarget().getId().equals(selfAddress.getId())){
+                            if(membershipList.updateDeadParents(ipb.getInfoTarget(),ipb.getInfoParent())){
+                                pbList.add(new InfoPiggyback(InfoType.DEADPARENT, ipb.getInfoTarget(),ipb.getInfoParent()),disseminations());
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+    }
+    
+    //Updates to piggyback on an outgoing message, picked by the dissemination policy
+    private ArrayList<InfoPiggyback> piggyback() {
+        ArrayList<InfoPiggyback> list;
+        if(PIGGYBACK_BUDGET){
+            list = pbList.take(MAX_PIGGYBACK_ENTRIES, MAX_PIGGYBACK_BYTES);
+            for(InfoPiggyback ipb : list){
+                pbBytes += PiggybackList.sizeOf(ipb);
+            }
+        } else {
+            list = pbList.getList();
+            pbBytes += pbList.getListBytes();
+        }
+        pbMessages++;
+        pbEntries += list.size();
+        return list;
+    }
+    
     private void schedulePeriodicPing() {
         SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(PERIODIC_PING, PERIODIC_PING);
         PingTimeout sc = new PingTimeout(spt);
         spt.setTimeoutEvent(sc);
         pingTimeoutId = sc.getTimeoutId();
         trigger(spt, timer);
+        timerEvents++;
     }
     
     private void cancelPeriodicPing() {
         CancelTimeout cpt = new CancelTimeout(pingTimeoutId);
         trigger(cpt, timer);
+        timerEvents++;
         pingTimeoutId = null;
     }
     
@@ -675,69 +861,145 @@ public class SwimComp extends ComponentDefinition {
         spt.setTimeoutEvent(sc);
         statusTimeoutId = sc.getTimeoutId();
         trigger(spt, timer);
+        timerEvents++;
     }
     
     
     private void cancelPeriodicStatus() {
         CancelTimeout cpt = new CancelTimeout(statusTimeoutId);
         trigger(cpt, timer);
+        timerEvents++;
         statusTimeoutId = null;
     }
     
-    private void scheduleAck(NatedAddress address) {
-        ScheduleTimeout spt = new ScheduleTimeout(ACK_TIMER);
-        AckTimeout sc = new AckTimeout(spt, address);
+    private void scheduleWheelTick() {
+        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(WHEEL_TICK, WHEEL_TICK);
+        WheelTick sc = new WheelTick(spt);
         spt.setTimeoutEvent(sc);
-        ackTimeoutIds.put(address.getId(),sc.getTimeoutId());
+        wheelTimeoutId = sc.getTimeoutId();
         trigger(spt, timer);
+        timerEvents++;
     }
     
-    private void cancelAck(NatedAddress address) {
-        CancelTimeout cpt = new CancelTimeout(ackTimeoutIds.get(address.getId()));
+    private void cancelWheelTick() {
+        CancelTimeout cpt = new CancelTimeout(wheelTimeoutId);
         trigger(cpt, timer);
-        ackTimeoutIds.remove(address.getId());
+        timerEvents++;
+        wheelTimeoutId = null;
     }
     
-    private void scheduleDeleteReq(NatedAddress address) {
-        ScheduleTimeout spt = new ScheduleTimeout(DELETE_REQ_TIMER);
-        DeleteTimeout sc = new DeleteTimeout(spt, address);
+    //Puts the deadline on the wheel, or asks the timer port for it when the wheel is off
+    private void startTimer(TimerWheel.Entry e, long delay) {
+        if(TIMER_WHEEL){
+            wheel.schedule(e, delay, System.currentTimeMillis());
+            return;
+        }
+        ScheduleTimeout spt = new ScheduleTimeout(delay);
+        EntryTimeout sc = new EntryTimeout(spt, e);
         spt.setTimeoutEvent(sc);
-        deleteTimeoutIds.put(address.getId(),sc.getTimeoutId());
+        kompicsTimeoutIds.put(e, sc.getTimeoutId());
         trigger(spt, timer);
+        timerEvents++;
     }
     
-    private void cancelDeleteReq(NatedAddress address) {
-        CancelTimeout cpt = new CancelTimeout(deleteTimeoutIds.get(address.getId()));
-        trigger(cpt, timer);
-        deleteTimeoutIds.remove(address.getId());
+    private void cancelTimer(TimerWheel.Entry e) {
+        if(e==null) return;
+        if(TIMER_WHEEL){
+            wheel.cancel(e);
+            return;
+        }
+        UUID timeoutId = kompicsTimeoutIds.remove(e);
+        if(timeoutId!=null){
+            trigger(new CancelTimeout(timeoutId), timer);
+            timerEvents++;
+        }
     }
     
-    private void scheduleDeadTimeout(NatedAddress address) {
-        ScheduleTimeout spt = new ScheduleTimeout(DEAD_TIMER);
-        DeadTimeout sc = new DeadTimeout(spt, address);
-        spt.setTimeoutEvent(sc);
-        deadTimeoutIds.put(address.getId(),sc.getTimeoutId());
-        trigger(spt, timer);
+    private void expire(TimerWheel.Entry e) {
+        if(e instanceof AckTimeout){
+            handleAckTimeout.handle((AckTimeout) e);
+        } else if(e instanceof IndTimeout){
+            handleIndTimeout.handle((IndTimeout) e);
+        } else if(e instanceof DeleteTimeout){
+            handleDeleteTimeout.handle((DeleteTimeout) e);
+        } else if(e instanceof DeadTimeout){
+            handleDeadTimeout.handle((DeadTimeout) e);
+        }
     }
     
-    private void scheduleIndirectPing(NatedAddress address) {
-        ScheduleTimeout spt = new ScheduleTimeout(INDIRECT_PING_TIMER);
-        IndTimeout sc = new IndTimeout(spt,address);
-        spt.setTimeoutEvent(sc);
-        indTimeoutIds.put(address.getId(), sc.getTimeoutId());
-        trigger(spt, timer);
+    private void scheduleAck(NatedAddress address, int seq) {
+        AckTimeout sc = new AckTimeout(address, seq);
+        probes.setTimeout(seq, sc);
+        startTimer(sc, LIFEGUARD ? localHealth.scale(ACK_TIMER) : ACK_TIMER);
     }
     
-    private void cancelIndTimeout(NatedAddress address) {
-        CancelTimeout cpt = new CancelTimeout(indTimeoutIds.get(address.getId()));
-        trigger(cpt, timer);
-        indTimeoutIds.remove(address.getId());
+    private void scheduleDeleteReq(ProbeSessions.Session session) {
+        DeleteTimeout sc = new DeleteTimeout(session.getRequestor(), session.getTarget(), session.getSeq());
+        session.setTimeout(sc);
+        startTimer(sc, DELETE_REQ_TIMER);
+    }
+    
+    private void cancelDeleteReq(ProbeSessions.Session session) {
+        cancelTimer(session.getTimeout());
+    }
+    
+    private void scheduleDeadTimeout(NatedAddress address, Integer confirmedBy) {
+        Suspicion suspicion = new Suspicion(System.currentTimeMillis());
+        suspicion.confirmations.add(confirmedBy);
+        suspicions.put(address.getId(), suspicion);
+        scheduleDeadTimeout(address, suspicionTimeout(0));
+    }
+    
+    private void scheduleDeadTimeout(NatedAddress address, long delay) {
+        DeadTimeout sc = new DeadTimeout(address);
+        deadTimeouts.put(address.getId(), sc);
+        startTimer(sc, delay);
+    }
+    
+    //Another member relayed the same suspicion: with Lifeguard the pending dead timer is pulled in
+    private void confirmSuspicion(NatedAddress address, Integer confirmedBy) {
+        Suspicion suspicion = suspicions.get(address.getId());
+        if(!LIFEGUARD || suspicion==null || !suspicion.confirmations.add(confirmedBy)) return;
+        long remaining = suspicionTimeout(suspicion.confirmations.size()-1) - (System.currentTimeMillis() - suspicion.startedAt);
+        cancelDeadTimeout(address);
+        scheduleDeadTimeout(address, Math.max(remaining, 1));
+    }
+    
+    //Sends (budgeted) or received pings (whole list) an update stays in the piggyback list
+    private int disseminations() {
+        if(!PIGGYBACK_BUDGET) return DISSEMINATION_VALUE;
+        return PIGGYBACK_LAMBDA * Math.max(1, (int) Math.ceil(Math.log10(membershipList.size()+1)));
+    }
+    
+    private long suspicionTimeout(int confirmations) {
+        if(!LIFEGUARD) return DEAD_TIMER;
+        double min = SUSPICION_ALPHA * Math.max(1.0, Math.log10(membershipList.size()+1)) * PERIODIC_PING;
+        double max = SUSPICION_BETA * min;
+        double shrink = Math.log(confirmations+1) / Math.log(SUSPICION_K+1);
+        return (long) Math.max(min, max - (max-min)*shrink);
+    }
+    
+    private void scheduleIndirectPing(ProbeSessions.Session session) {
+        IndTimeout sc = new IndTimeout(session.getTarget(), session.getSeq());
+        session.setTimeout(sc);
+        startTimer(sc, LIFEGUARD ? localHealth.scale(INDIRECT_PING_TIMER) : INDIRECT_PING_TIMER);
+    }
+    
+    private void cancelIndTimeout(ProbeSessions.Session session) {
+        cancelTimer(session.getTimeout());
     }
     
     private void cancelDeadTimeout(NatedAddress address) {
-        CancelTimeout cpt = new CancelTimeout(deadTimeoutIds.get(address.getId()));
-        trigger(cpt, timer);
-        deadTimeoutIds.remove(address.getId());
+        cancelTimer(deadTimeouts.remove(address.getId()));
+    }
+    
+    private static class Suspicion {
+        private final long startedAt;
+        private final HashSet<Integer> confirmations = new HashSet<Integer>(); //members that relayed it to us
+        
+        public Suspicion(long startedAt) {
+            this.startedAt = startedAt;
+        }
     }
     
     public static class SwimInit extends Init<SwimComp> {
@@ -767,13 +1029,31 @@ public class SwimComp extends ComponentDefinition {
         }
     }
     
-    private static class IndTimeout extends Timeout {
+    private static class WheelTick extends Timeout {
         
-        private final NatedAddress address;
+        public WheelTick(SchedulePeriodicTimeout request) {
+            super(request);
+        }
+    }
+    
+    private static class EntryTimeout extends Timeout {
+        
+        private final TimerWheel.Entry entry;
         
-        public IndTimeout(ScheduleTimeout request, NatedAddress address) {
+        public EntryTimeout(ScheduleTimeout request, TimerWheel.Entry entry) {
             super(request);
+            this.entry = entry;
+        }
+    }
+    
+    private static class IndTimeout extends TimerWheel.Entry {
+        
+        private final NatedAddress address;
+        private final int seq;
+        
+        public IndTimeout(NatedAddress address, int seq) {
             this.address = address;
+            this.seq = seq;
         }
         
         /**
@@ -782,15 +1062,26 @@ public class SwimComp extends ComponentDefinition {
         public NatedAddress getAddress() {
             return address;
         }
+        
+        public int getSeq() {
+            return seq;
+        }
     }
     
-    private static class DeleteTimeout extends Timeout {
+    private static class DeleteTimeout extends TimerWheel.Entry {
         
+        private final NatedAddress requestor;
         private final NatedAddress address;
+        private final int seq;
         
-        public DeleteTimeout(ScheduleTimeout request, NatedAddress address) {
-            super(request);
+        public DeleteTimeout(NatedAddress requestor, NatedAddress address, int seq) {
+            this.requestor = requestor;
             this.address = address;
+            this.seq = seq;
+        }
+        
+        public NatedAddress getRequestor() {
+            return requestor;
         }
         
         /**
@@ -799,15 +1090,20 @@ public class SwimComp extends ComponentDefinition {
         public NatedAddress getAddress() {
             return address;
         }
+        
+        public int getSeq() {
+            return seq;
+        }
     }
     
-    private static class AckTimeout extends Timeout {
+    private static class AckTimeout extends TimerWheel.Entry {
         
         private final NatedAddress address;
+        private final int seq;
         
-        public AckTimeout(ScheduleTimeout request, NatedAddress address) {
-            super(request);
+        public AckTimeout(NatedAddress address, int seq) {
             this.address = address;
+            this.seq = seq;
         }
         
         /**
@@ -816,14 +1112,17 @@ public class SwimComp extends ComponentDefinition {
         public NatedAddress getAddress() {
             return address;
         }
+        
+        public int getSeq() {
+            return seq;
+        }
     }
     
-    private static class DeadTimeout extends Timeout {
+    private static class DeadTimeout extends TimerWheel.Entry {
         
         private final NatedAddress address;
         
-        public DeadTimeout(ScheduleTimeout request, NatedAddress address) {
-            super(request);
+        public DeadTimeout(NatedAddress address) {
             this.address = address;
         }
         
@@ -839,10 +1138,4 @@ public class SwimComp extends ComponentDefinition {
     private void printmyneigh() {
         membershipList.printNeighbour();
     }
-    
-    private NatedAddress deepCopy(NatedAddress na){
-        if(na == null) return null;
-        NatedAddress na2 = new BasicNatedAddress(new BasicAddress(na.getIp(), na.getPort(), na.getId()), na.getNatType(), na.getParents());
-        return na2;
-    }
 }
@@ -0,0 +1,130 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.List;
+import se.sics.kompics.KompicsEvent;
+
+/**
+ * Hashed timer wheel for the per-probe and per-suspect deadlines of the component. Deadlines are rounded up to
+ * whole ticks and hashed into slots by expiry tick; a deadline further away than one turn of the wheel keeps a
+ * count of the turns it still has to wait. Every slot is a doubly linked list of entries, so scheduling and
+ * cancelling are O(1) and allocate nothing but the entry itself. The wheel has no clock of its own: the owner
+ * drives it with advance(), from a single periodic timer, and dispatches the expired entries.
+ */
+final class TimerWheel {
+
+    private final long tickMs;
+    private final Entry[] slots; //sentinel heads of circular lists
+    private final int mask;
+    private final long startedAt;
+    private long tick = 0; //last tick processed
+    private int size = 0;
+    private long scheduled = 0;
+    private long cancelled = 0;
+    private long expired = 0;
+
+    //slots is rounded up to a power of two
+    public TimerWheel(long tickMs, int slots, long now) {
+        int n = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        this.tickMs = tickMs;
+        this.slots = new Entry[n];
+        for(int i = 0; i < n; i++){
+            Entry head = new Sentinel();
+            head.prev = head;
+            head.next = head;
+            this.slots[i] = head;
+        }
+        this.mask = n-1;
+        this.startedAt = now;
+    }
+
+    //An entry already on the wheel is moved to the new deadline, which is never made to expire early
+    public void schedule(Entry e, long delayMs, long now) {
+        if(e.isScheduled()) unlink(e);
+        long deadline = Math.max(tick + 1, (now + delayMs - startedAt + tickMs - 1) / tickMs);
+        e.rounds = (deadline - tick - 1) / slots.length;
+        Entry head = slots[(int) (deadline & mask)];
+        e.prev = head.prev;
+        e.next = head;
+        head.prev.next = e;
+        head.prev = e;
+        size++;
+        scheduled++;
+    }
+
+    //False if the entry was not on the wheel (already expired or cancelled)
+    public boolean cancel(Entry e) {
+        if(e==null || !e.isScheduled()) return false;
+        unlink(e);
+        cancelled++;
+        return true;
+    }
+
+    //Processes every tick up to now, moving the entries that expired into the list in deadline order
+    public void advance(long now, List<Entry> out) {
+        long target = (now - startedAt) / tickMs;
+        while(tick < target){
+            tick++;
+            Entry head = slots[(int) (tick & mask)];
+            Entry e = head.next;
+            while(e != head){
+                Entry next = e.next;
+                if(e.rounds > 0){
+                    e.rounds--;
+                } else {
+                    unlink(e);
+                    expired++;
+                    out.add(e);
+                }
+                e = next;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getScheduled() {
+        return scheduled;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    private void unlink(Entry e) {
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+        e.prev = null;
+        e.next = null;
+        size--;
+    }
+
+
+
+    /**
+     * A deadline on the wheel. Subclasses carry what the expiry handler needs, the same way a Kompics Timeout does.
+     */
+    static abstract class Entry implements KompicsEvent {
+        private Entry prev;
+        private Entry next;
+        private long rounds;
+
+        public boolean isScheduled() {
+            return next != null;
+        }
+    }
+
+    private static final class Sentinel extends Entry {
+    }
+}
@@ -21,19 +21,23 @@
 
 package se.kth.swim.croupier;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import se.kth.swim.croupier.internal.CroupierContainer;
 import se.kth.swim.croupier.internal.CroupierShuffle;
 import se.kth.swim.croupier.internal.CroupierShuffleNet;
-import se.kth.swim.croupier.internal.CroupierView;
+import se.kth.swim.croupier.internal.OverlayState;
 import se.kth.swim.croupier.msg.CroupierDisconnected;
 import se.kth.swim.croupier.msg.CroupierJoin;
 import se.kth.swim.croupier.msg.CroupierSample;
+import se.kth.swim.croupier.msg.CroupierStatus;
+import se.kth.swim.croupier.msg.CroupierStatusNet;
 import se.kth.swim.croupier.msg.CroupierUpdate;
 import se.kth.swim.croupier.util.OverlayHeaderImpl;
 import se.sics.kompics.ComponentDefinition;
@@ -71,19 +75,24 @@ public class CroupierComp extends ComponentDefinition {
     private final CroupierConfig croupierConfig;
     private final String logPrefix;
     private final int overlayId;
+    private final NatedAddress statusAddress;
 
     private List<NatedAddress> bootstrapNodes;
     private Object selfView;
-    private CroupierView publicView;
-    private CroupierView privateView;
+    private final OverlayState overlay;
 
     private UUID shuffleCycleId;
-    private UUID shuffleTimeoutId;
+    //request id -> timeout of each shuffle in flight
+    private final Map<UUID, ShuffleTimeout> pendingShuffles;
+    //sent since the last status report
+    private int messagesSent = 0;
+    private int shufflesSent = 0;
 
     public CroupierComp(CroupierInit init) {
         this.self = init.self;
         this.croupierConfig = init.croupierConfig;
         this.overlayId = init.overlayId;
+        this.statusAddress = init.statusAddress;
         this.logPrefix = "<oid:" + overlayId + ",nid:" + self.getBaseAdr().toString() + ">";
         this.bootstrapNodes = new ArrayList<NatedAddress>(init.bootstrapNodes);
 
@@ -91,11 +100,8 @@ public class CroupierComp extends ComponentDefinition {
 
         this.selfView = null;
         this.shuffleCycleId = null;
-        this.shuffleTimeoutId = null;
-
-        Random rand = new Random(init.seed + overlayId);
-        this.publicView = new CroupierView((BasicAddress) self.getBaseAdr(), croupierConfig.viewSize, rand);
-        this.privateView = new CroupierView((BasicAddress) self.getBaseAdr(), croupierConfig.viewSize, rand);
+        this.pendingShuffles = new HashMap<UUID, ShuffleTimeout>();
+        this.overlay = new OverlayState(overlayId, (BasicAddress) self.getBaseAdr(), croupierConfig, new Random(init.seed + overlayId));
 
         subscribe(handleStart, control);
         subscribe(handleStop, control);
@@ -144,6 +150,10 @@ public class CroupierComp extends ComponentDefinition {
 
     private void stopShuffle() {
         cancelPeriodicShuffle();
+        for (ShuffleTimeout timeout : pendingShuffles.values()) {
+            trigger(new CancelTimeout(timeout.getTimeoutId()), timer);
+        }
+        pendingShuffles.clear();
         log.info("{} stopped shuffle", new Object[]{logPrefix});
         trigger(new CroupierDisconnected(overlayId), croupierControlPort);
     }
@@ -153,7 +163,7 @@ public class CroupierComp extends ComponentDefinition {
     }
 
     private boolean haveShufflePartners() {
-        return !bootstrapNodes.isEmpty() || !publicView.isEmpty() || !privateView.isEmpty();
+        return !bootstrapNodes.isEmpty() || !overlay.isEmpty();
     }
 
     Handler<CroupierJoin> handleJoin = new Handler<CroupierJoin>() {
@@ -197,24 +207,23 @@ public class CroupierComp extends ComponentDefinition {
         }
     };
 
-    private NatedAddress selectPeerToShuffleWith(double temperature) {
-        if (!bootstrapNodes.isEmpty()) {
-            return bootstrapNodes.remove(0);
-        }
-        NatedAddress node = null;
-        if (!publicView.isEmpty()) {
-            node = publicView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature);
-        } else if (!privateView.isEmpty()) {
-            node = privateView.selectPeerToShuffleWith(croupierConfig.policy, true, temperature);
+    //exclude: peers picked earlier this cycle and peers with a shuffle in flight, so a slow peer is not asked again
+    //before it answered or timed out
+    private NatedAddress selectPeerToShuffleWith(Set<BasicAddress> exclude) {
+        while (!bootstrapNodes.isEmpty()) {
+            NatedAddress node = bootstrapNodes.remove(0);
+            if (!exclude.contains(node.getBaseAdr())) {
+                return node;
+            }
         }
-        return node;
+        return overlay.selectPeerToShuffleWith(exclude);
     }
 
     Handler<ShuffleCycle> handleShuffleCycle = new Handler<ShuffleCycle>() {
         @Override
         public void handle(ShuffleCycle event) {
             log.trace("{} {}", logPrefix, event);
-            log.debug("{} public view size:{}, private view size:{}, bootstrap nodes size:{}", new Object[]{logPrefix, publicView.size(), privateView.size(), bootstrapNodes.size()});
+            log.debug("{} public view size:{}, private view size:{}, bootstrap nodes size:{}", new Object[]{logPrefix, overlay.publicSize(), overlay.privateSize(), bootstrapNodes.size()});
 
             if (!haveShufflePartners()) {
                 log.warn("{} no shuffle partners - disconnected", logPrefix);
@@ -222,42 +231,48 @@ public class CroupierComp extends ComponentDefinition {
                 return;
             }
 
-            if (!publicView.isEmpty() || !privateView.isEmpty()) {
-                CroupierSample cs = new CroupierSample(overlayId, publicView.getAllCopy(), privateView.getAllCopy());
+            if (!overlay.isEmpty()) {
+                CroupierSample cs = overlay.sample();
                 log.info("{} publishing sample \n public nodes:{} \n private nodes:{}", new Object[]{logPrefix, cs.publicSample, cs.privateSample});
                 trigger(cs, croupierPort);
             }
+            reportStatus();
 
-            NatedAddress peer = selectPeerToShuffleWith(croupierConfig.softMaxTemperature);
-            if (peer == null || peer.getBaseAdr().equals(self.getBaseAdr())) {
-                log.error("{} this should not happen - logic error selecting peer", logPrefix);
-                //throw new RuntimeException("Error selecting peer");
-                return;
+            Set<BasicAddress> exclude = new HashSet<BasicAddress>();
+            exclude.add((BasicAddress) self.getBaseAdr());
+            for (ShuffleTimeout inFlight : pendingShuffles.values()) {
+                exclude.add((BasicAddress) inFlight.dest.getBaseAdr());
             }
-
-            if (!peer.isOpen()) {
-                log.debug("{} did not pick a public node for shuffling - public view size:{}", new Object[]{logPrefix, publicView.getAllCopy().size()});
+            List<NatedAddress> peers = new ArrayList<NatedAddress>();
+            for (int i = 0; i < croupierConfig.shuffleFanout; i++) {
+                NatedAddress peer = selectPeerToShuffleWith(exclude);
+                if (peer == null) {
+                    break;
+                }
+                exclude.add((BasicAddress) peer.getBaseAdr());
+                peers.add(peer);
+            }
+            if (peers.isEmpty()) {
+                log.debug("{} all known peers have a shuffle in flight:{}", new Object[]{logPrefix, pendingShuffles.size()});
+                return;
             }
 
             // NOTE:
-            publicView.incrementDescriptorAges();
-            privateView.incrementDescriptorAges();
+            overlay.incrementDescriptorAges();
 
-            Set<CroupierContainer> publicDescCopy = publicView.initiatorCopySet(croupierConfig.shuffleSize, peer);
-            Set<CroupierContainer> privateDescCopy = privateView.initiatorCopySet(croupierConfig.shuffleSize, peer);
+            for (NatedAddress peer : peers) {
+                if (!peer.isOpen()) {
+                    log.debug("{} did not pick a public node for shuffling - public view size:{}", new Object[]{logPrefix, overlay.publicSize()});
+                }
 
-            if (self.isOpen()) {
-                publicDescCopy.add(new CroupierContainer(self, selfView));
-            } else {
-                privateDescCopy.add(new CroupierContainer(self, selfView));
+                OverlayHeaderImpl<NatedAddress> requestHeader = new OverlayHeaderImpl(new BasicHeader(self, peer, Transport.UDP), overlayId);
+                CroupierShuffle.Request requestContent = overlay.request(self, selfView, peer);
+                CroupierShuffleNet.Request request = new CroupierShuffleNet.Request(requestHeader, requestContent);
+                log.trace("{} sending:{} to:{}", new Object[]{logPrefix, requestContent, peer});
+                trigger(request, network);
+                countSent();
+                scheduleShuffleTimeout(requestContent.getId(), peer);
             }
-
-            OverlayHeaderImpl<NatedAddress> requestHeader = new OverlayHeaderImpl(new BasicHeader(self, peer, Transport.UDP), overlayId);
-            CroupierShuffle.Request requestContent = new CroupierShuffle.Request(UUID.randomUUID(), publicDescCopy, privateDescCopy);
-            CroupierShuffleNet.Request request = new CroupierShuffleNet.Request(requestHeader, requestContent);
-            log.trace("{} sending:{} to:{}", new Object[]{logPrefix, requestContent, peer});
-            trigger(request, network);
-            scheduleShuffleTimeout(peer);
         }
     };
 
@@ -285,26 +300,14 @@ public class CroupierComp extends ComponentDefinition {
             log.debug("{} received from:{} \n public nodes:{} \n private nodes:{}",
                     new Object[]{logPrefix, request.getHeader().getSource(), request.getContent().publicNodes, request.getContent().privateNodes});
 
-            publicView.incrementDescriptorAges();
-            privateView.incrementDescriptorAges();
-
-            Set<CroupierContainer> publicDescCopy = publicView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
-            Set<CroupierContainer> privateDescCopy = privateView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
-            if (self.isOpen()) {
-                publicDescCopy.add(new CroupierContainer(self, selfView));
-            } else {
-                privateDescCopy.add(new CroupierContainer(self, selfView));
-            }
-
             OverlayHeaderImpl<NatedAddress> responseHeader = new OverlayHeaderImpl(new BasicHeader(self, reqSrc, Transport.UDP), overlayId);
-            CroupierShuffle.Response responseContent = new CroupierShuffle.Response(request.getContent().getId(), publicDescCopy, privateDescCopy);
+            CroupierShuffle.Response responseContent = overlay.respond(self, selfView, reqSrc, request.getContent());
             CroupierShuffleNet.Response response = new CroupierShuffleNet.Response(responseHeader, responseContent);
 
             log.trace("{} sending:{} to:{}", new Object[]{logPrefix, responseContent, reqSrc});
             trigger(response, network);
+            countSent();
 
-            publicView.selectToKeep(reqSrc, request.getContent().publicNodes);
-            privateView.selectToKeep(reqSrc, request.getContent().privateNodes);
             if (!connected() && haveShufflePartners()) {
                 startShuffle();
             }
@@ -327,31 +330,47 @@ public class CroupierComp extends ComponentDefinition {
                     }
                     log.trace("{} received:{} from:{}", new Object[]{logPrefix, response, respSrc});
 
-                    if (shuffleTimeoutId == null) {
-                        log.debug("{} req:{}  already timed out", new Object[]{logPrefix, response.getContent().getId(), respSrc});
+                    if (!pendingShuffles.containsKey(response.getContent().getId())) {
+                        log.debug("{} req:{} from:{} already timed out", new Object[]{logPrefix, response.getContent().getId(), respSrc});
                         return;
                     }
 
-                    publicView.selectToKeep(respSrc, response.getContent().publicNodes);
-                    privateView.selectToKeep(respSrc, response.getContent().privateNodes);
-                    cancelShuffleTimeout();
+                    overlay.keep(respSrc, response.getContent());
+                    cancelShuffleTimeout(response.getContent().getId());
                 }
             };
 
     Handler<ShuffleTimeout> handleShuffleTimeout = new Handler<ShuffleTimeout>() {
         @Override
         public void handle(ShuffleTimeout timeout) {
+            if (pendingShuffles.remove(timeout.requestId) == null) {
+                //answered or stopped as it fired
+                return;
+            }
             log.info("{} node:{} timed out", logPrefix, timeout.dest);
 
-            shuffleTimeoutId = null;
-            if (timeout.dest.isOpen()) {
-                publicView.timedOut(timeout.dest);
-            } else {
-                privateView.timedOut(timeout.dest);
-            }
+            overlay.timedOut(timeout.dest);
         }
     };
 
+    //One message, one overlay shuffle: compared with MultiCroupierComp batching (CROUPIERTRAFFIC)
+    private void countSent() {
+        messagesSent++;
+        shufflesSent++;
+    }
+
+    //Once per cycle, to the status address if there is one (the aggregator)
+    private void reportStatus() {
+        if (statusAddress == null) {
+            return;
+        }
+        HashMap<Integer, int[]> views = new HashMap<Integer, int[]>();
+        views.put(overlayId, overlay.viewIds());
+        trigger(new CroupierStatusNet(self, statusAddress, new CroupierStatus(messagesSent, shufflesSent, views)), network);
+        messagesSent = 0;
+        shufflesSent = 0;
+    }
+
     private void schedulePeriodicShuffle() {
         if (shuffleCycleId != null) {
             log.warn("{} double starting periodic shuffle", logPrefix);
@@ -374,24 +393,22 @@ public class CroupierComp extends ComponentDefinition {
         trigger(cpt, timer);
     }
 
-    private void scheduleShuffleTimeout(NatedAddress dest) {
-        if (shuffleTimeoutId != null) {
-            log.warn("{} double starting shuffle timeout", logPrefix);
-            return;
-        }
-        ScheduleTimeout spt = new ScheduleTimeout(croupierConfig.shufflePeriod / 2);
-        ShuffleTimeout sc = new ShuffleTimeout(spt, dest);
+    //Each shuffle has its own deadline, shuffleTimeout after it was sent, whatever the other shuffles in flight
+    private void scheduleShuffleTimeout(UUID requestId, NatedAddress dest) {
+        ScheduleTimeout spt = new ScheduleTimeout(croupierConfig.shuffleTimeout);
+        ShuffleTimeout sc = new ShuffleTimeout(spt, requestId, dest);
         spt.setTimeoutEvent(sc);
-        shuffleTimeoutId = sc.getTimeoutId();
+        pendingShuffles.put(requestId, sc);
         trigger(spt, timer);
     }
 
-    private void cancelShuffleTimeout() {
-        if (shuffleTimeoutId == null) {
+    private void cancelShuffleTimeout(UUID requestId) {
+        ShuffleTimeout timeout = pendingShuffles.remove(requestId);
+        if (timeout == null) {
             log.warn("{} double stopping shuffle timeout", logPrefix);
+            return;
         }
-        CancelTimeout cpt = new CancelTimeout(shuffleTimeoutId);
-        shuffleTimeoutId = null;
+        CancelTimeout cpt = new CancelTimeout(timeout.getTimeoutId());
         trigger(cpt, timer);
     }
 
@@ -402,13 +419,21 @@ public class CroupierComp extends ComponentDefinition {
         public final long seed;
         public final CroupierConfig croupierConfig;
         public final int overlayId;
+        //Where to send a CroupierStatus every cycle, null for no reports
+        public final NatedAddress statusAddress;
 
         public CroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig, int overlayId) {
+            this(self, bootstrapNodes, seed, croupierConfig, overlayId, null);
+        }
+
+        public CroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig, int overlayId,
+                NatedAddress statusAddress) {
             this.self = self;
             this.bootstrapNodes = bootstrapNodes;
             this.seed = seed;
             this.croupierConfig = croupierConfig;
             this.overlayId = overlayId;
+            this.statusAddress = statusAddress;
         }
     }
 
@@ -426,10 +451,12 @@ public class CroupierComp extends ComponentDefinition {
 
     public class ShuffleTimeout extends Timeout {
 
+        public final UUID requestId;
         public final NatedAddress dest;
 
-        public ShuffleTimeout(ScheduleTimeout request, NatedAddress dest) {
+        public ShuffleTimeout(ScheduleTimeout request, UUID requestId, NatedAddress dest) {
             super(request);
+            this.requestId = requestId;
             this.dest = dest;
         }
 
@@ -34,13 +34,29 @@ public class CroupierConfig {
     public final long shufflePeriod;
     public final long shuffleTimeout;
     public final double softMaxTemperature;
+    public final int shuffleFanout;
 
     public CroupierConfig(int viewSize, int shuffleSize, long shufflePeriod, long shuffleTimeout) {
-        this.policy = CroupierSelectionPolicy.RANDOM;
+        this(viewSize, shuffleSize, shufflePeriod, shuffleTimeout, CroupierSelectionPolicy.RANDOM, 0);
+    }
+
+    //softMaxTemperature 0: TAIL and HEALER always pick the oldest entry
+    public CroupierConfig(int viewSize, int shuffleSize, long shufflePeriod, long shuffleTimeout, CroupierSelectionPolicy policy, double softMaxTemperature) {
+        this(viewSize, shuffleSize, shufflePeriod, shuffleTimeout, policy, softMaxTemperature, 1);
+    }
+
+    //shuffleFanout: shuffles started per cycle, each with a different peer and its own shuffleTimeout
+    public CroupierConfig(int viewSize, int shuffleSize, long shufflePeriod, long shuffleTimeout, CroupierSelectionPolicy policy, double softMaxTemperature,
+            int shuffleFanout) {
+        if (shuffleFanout < 1) {
+            throw new IllegalArgumentException("shuffle fanout must be at least 1, was " + shuffleFanout);
+        }
+        this.policy = policy;
         this.viewSize = viewSize;
         this.shuffleSize = shuffleSize;
         this.shufflePeriod = shufflePeriod;
         this.shuffleTimeout = shuffleTimeout;
-        this.softMaxTemperature = 0;
+        this.softMaxTemperature = softMaxTemperature;
+        this.shuffleFanout = shuffleFanout;
     }
 }
@@ -19,15 +19,21 @@
 package se.kth.swim.croupier;
 
 /**
+ * Shuffle peer selection. RANDOM: any entry of the view. TAIL: the oldest entry (or, with a softmax temperature,
+ * an entry drawn with a bias towards the old ones). HEALER: TAIL, and a full view makes room by dropping its
+ * oldest entries rather than the ones sent to the shuffle peer.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public enum CroupierSelectionPolicy {
 
-    RANDOM;
+    RANDOM, TAIL, HEALER;
 
     public static CroupierSelectionPolicy create(String policy) {
-        if (policy.compareToIgnoreCase(CroupierSelectionPolicy.RANDOM.name()) == 0) {
-            return RANDOM;
+        for (CroupierSelectionPolicy p : values()) {
+            if (policy.compareToIgnoreCase(p.name()) == 0) {
+                return p;
+            }
         }
         return null;
     }
@@ -0,0 +1,499 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.croupier.internal.CroupierShuffle;
+import se.kth.swim.croupier.internal.CroupierShuffleNet;
+import se.kth.swim.croupier.internal.OverlayState;
+import se.kth.swim.croupier.msg.CroupierDisconnected;
+import se.kth.swim.croupier.msg.CroupierJoin;
+import se.kth.swim.croupier.msg.CroupierSample;
+import se.kth.swim.croupier.msg.CroupierStatus;
+import se.kth.swim.croupier.msg.CroupierStatusNet;
+import se.kth.swim.croupier.msg.CroupierUpdate;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Positive;
+import se.sics.kompics.Start;
+import se.sics.kompics.Stop;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.CancelTimeout;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+import se.sics.kompics.timer.Timer;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+
+/**
+ * Croupier for several overlays at once: the same protocol as CroupierComp, on the same OverlayState per overlay,
+ * but one periodic shuffle cycle for all of them. Each cycle every overlay picks its shuffle peer, and
+ * prefers a peer another overlay already picked this cycle if that peer is in its own view (or if its views are
+ * still empty), so overlays with the same members shuffle with the same peer; the shuffles to one peer travel in
+ * one CroupierShuffleNet.BatchRequest and come back in one BatchResponse, under one timeout. The overlay that
+ * picks first rotates from cycle to cycle, so each overlay's selection policy gets its turn.
+ * Samples are published per overlay on the CroupierPort, tagged with the overlay id; one CroupierStatus per cycle
+ * covers them all.
+ */
+public class MultiCroupierComp extends ComponentDefinition {
+
+    private final static Logger log = LoggerFactory.getLogger(MultiCroupierComp.class);
+
+    Negative<CroupierControlPort> croupierControlPort = negative(CroupierControlPort.class);
+    Negative<CroupierPort> croupierPort = negative(CroupierPort.class);
+    Positive<Network> network = requires(Network.class);
+    Positive<Timer> timer = requires(Timer.class);
+
+    private NatedAddress self;
+    private final CroupierConfig croupierConfig;
+    private final String logPrefix;
+    private final NatedAddress statusAddress;
+    private final OverlayState[] overlays;
+    private final Map<Integer, OverlayState> overlaysById;
+
+    private List<NatedAddress> bootstrapNodes;
+    private Object selfView;
+
+    private UUID shuffleCycleId;
+    private int cycles;
+    //batch id -> timeout of the batch sent with it
+    private final Map<UUID, ShuffleTimeout> pendingBatches;
+    //sent since the last status report
+    private int messagesSent = 0;
+    private int shufflesSent = 0;
+
+    public MultiCroupierComp(MultiCroupierInit init) {
+        this.self = init.self;
+        this.croupierConfig = init.croupierConfig;
+        this.statusAddress = init.statusAddress;
+        this.logPrefix = "<oids:" + init.overlayIds + ",nid:" + self.getBaseAdr().toString() + ">";
+        this.bootstrapNodes = new ArrayList<NatedAddress>(init.bootstrapNodes);
+
+        log.info("{} initiating with bootstrap nodes:{} ...", logPrefix, bootstrapNodes);
+
+        this.selfView = null;
+        this.shuffleCycleId = null;
+        this.cycles = 0;
+        this.pendingBatches = new HashMap<UUID, ShuffleTimeout>();
+
+        this.overlays = new OverlayState[init.overlayIds.size()];
+        this.overlaysById = new HashMap<Integer, OverlayState>();
+        for (int i = 0; i < overlays.length; i++) {
+            int overlayId = init.overlayIds.get(i);
+            overlays[i] = new OverlayState(overlayId, (BasicAddress) self.getBaseAdr(), croupierConfig, new Random(init.seed + overlayId));
+            overlaysById.put(overlayId, overlays[i]);
+        }
+
+        subscribe(handleStart, control);
+        subscribe(handleStop, control);
+        subscribe(handleJoin, croupierControlPort);
+        subscribe(handleShuffleRequest, network);
+        subscribe(handleShuffleResponse, network);
+        subscribe(handleShuffleCycle, timer);
+        subscribe(handleShuffleTimeout, timer);
+        subscribe(handleUpdateView, croupierPort);
+        subscribe(handleUpdateAddress, croupierPort);
+    }
+
+    Handler<Start> handleStart = new Handler<Start>() {
+
+        @Override
+        public void handle(Start event) {
+            log.info("{} starting...", logPrefix);
+            selfView = new Object();
+            startShuffle();
+        }
+
+    };
+
+    Handler<Stop> handleStop = new Handler<Stop>() {
+
+        @Override
+        public void handle(Stop event) {
+            log.info("{} stopping...", logPrefix);
+            stopShuffle();
+        }
+
+    };
+
+    private void startShuffle() {
+        if (selfView == null) {
+            log.info("{} no self view - not shuffling", new Object[]{logPrefix});
+            return;
+        }
+        if (!haveShufflePartners()) {
+            log.info("{} no partners - not shuffling", new Object[]{logPrefix});
+            return;
+        }
+        log.info("{} started shuffle", new Object[]{logPrefix});
+        schedulePeriodicShuffle();
+    }
+
+    private void stopShuffle() {
+        cancelPeriodicShuffle();
+        for (ShuffleTimeout timeout : pendingBatches.values()) {
+            trigger(new CancelTimeout(timeout.getTimeoutId()), timer);
+        }
+        pendingBatches.clear();
+        log.info("{} stopped shuffle", new Object[]{logPrefix});
+        for (OverlayState overlay : overlays) {
+            trigger(new CroupierDisconnected(overlay.id), croupierControlPort);
+        }
+    }
+
+    private boolean connected() {
+        return shuffleCycleId != null;
+    }
+
+    private boolean haveShufflePartners() {
+        if (!bootstrapNodes.isEmpty()) {
+            return true;
+        }
+        for (OverlayState overlay : overlays) {
+            if (!overlay.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Handler<CroupierJoin> handleJoin = new Handler<CroupierJoin>() {
+        @Override
+        public void handle(CroupierJoin join) {
+            log.trace("{} {}", logPrefix, join);
+            log.debug("{} joining using nodes:{}", logPrefix, join.peers);
+
+            bootstrapNodes.addAll(join.peers);
+            if (!connected()) {
+                startShuffle();
+            }
+        }
+    };
+
+    Handler<CroupierUpdate.Address> handleUpdateAddress = new Handler<CroupierUpdate.Address>() {
+        @Override
+        public void handle(CroupierUpdate.Address update) {
+            log.trace("{} {}", logPrefix, update);
+            log.info("{} updating selfAddress:{}", new Object[]{logPrefix, update.selfAddress});
+
+            self = (update.selfAddress == null ? self : update.selfAddress);
+
+            if (!connected()) {
+                startShuffle();
+            }
+        }
+    };
+
+    Handler<CroupierUpdate.View> handleUpdateView = new Handler<CroupierUpdate.View>() {
+        @Override
+        public void handle(CroupierUpdate.View update) {
+            log.trace("{} {}", logPrefix, update);
+            log.info("{} updating selfView:{}", new Object[]{logPrefix, update.selfView});
+
+            selfView = (update.selfView == null ? selfView : update.selfView);
+
+            if (!connected()) {
+                startShuffle();
+            }
+        }
+    };
+
+    //A peer already picked this cycle that the overlay knows (any of them, if the overlay knows nobody yet),
+    //else the overlay's own pick. exclude: self, peers with a batch in flight and peers this overlay already
+    //shuffles with this cycle, as in CroupierComp
+    private NatedAddress selectPeerToShuffleWith(OverlayState overlay, Map<BasicAddress, NatedAddress> picked, Set<BasicAddress> exclude) {
+        for (Map.Entry<BasicAddress, NatedAddress> e : picked.entrySet()) {
+            if (!exclude.contains(e.getKey()) && (overlay.isEmpty() || overlay.contains(e.getValue()))) {
+                return e.getValue();
+            }
+        }
+        return overlay.selectPeerToShuffleWith(exclude);
+    }
+
+    Handler<ShuffleCycle> handleShuffleCycle = new Handler<ShuffleCycle>() {
+        @Override
+        public void handle(ShuffleCycle event) {
+            log.trace("{} {}", logPrefix, event);
+
+            if (!haveShufflePartners()) {
+                log.warn("{} no shuffle partners - disconnected", logPrefix);
+                stopShuffle();
+                return;
+            }
+
+            for (OverlayState overlay : overlays) {
+                if (!overlay.isEmpty()) {
+                    CroupierSample cs = overlay.sample();
+                    log.debug("{} publishing sample overlay:{} \n public nodes:{} \n private nodes:{}", new Object[]{logPrefix, overlay.id, cs.publicSample, cs.privateSample});
+                    trigger(cs, croupierPort);
+                }
+            }
+            reportStatus();
+
+            Set<BasicAddress> inFlight = new HashSet<BasicAddress>();
+            inFlight.add((BasicAddress) self.getBaseAdr());
+            for (ShuffleTimeout timeout : pendingBatches.values()) {
+                inFlight.add((BasicAddress) timeout.dest.getBaseAdr());
+            }
+            Map<BasicAddress, NatedAddress> picked = new LinkedHashMap<BasicAddress, NatedAddress>();
+            while (!bootstrapNodes.isEmpty()) {
+                NatedAddress bootstrapNode = bootstrapNodes.remove(0);
+                if (!inFlight.contains(bootstrapNode.getBaseAdr())) {
+                    picked.put((BasicAddress) bootstrapNode.getBaseAdr(), bootstrapNode);
+                    break;
+                }
+            }
+            //peer -> shuffles with it, by overlay id
+            Map<BasicAddress, Map<Integer, CroupierShuffle.Request>> batches = new LinkedHashMap<BasicAddress, Map<Integer, CroupierShuffle.Request>>();
+            int first = cycles++ % overlays.length;
+            for (int i = 0; i < overlays.length; i++) {
+                OverlayState overlay = overlays[(first + i) % overlays.length];
+                //up to shuffleFanout distinct peers per overlay, shared between overlays where their views allow
+                Set<BasicAddress> exclude = new HashSet<BasicAddress>(inFlight);
+                for (int k = 0; k < croupierConfig.shuffleFanout; k++) {
+                    NatedAddress peer = selectPeerToShuffleWith(overlay, picked, exclude);
+                    if (peer == null) {
+                        break;
+                    }
+                    BasicAddress peerAdr = (BasicAddress) peer.getBaseAdr();
+                    exclude.add(peerAdr);
+                    if (!picked.containsKey(peerAdr)) {
+                        picked.put(peerAdr, peer);
+                    }
+
+                    if (k == 0) {
+                        overlay.incrementDescriptorAges();
+                    }
+
+                    Map<Integer, CroupierShuffle.Request> batch = batches.get(peerAdr);
+                    if (batch == null) {
+                        batch = new LinkedHashMap<Integer, CroupierShuffle.Request>();
+                        batches.put(peerAdr, batch);
+                    }
+                    batch.put(overlay.id, overlay.request(self, selfView, peer));
+                }
+            }
+            if (batches.isEmpty()) {
+                log.debug("{} all known peers have a batch in flight:{}", new Object[]{logPrefix, pendingBatches.size()});
+                return;
+            }
+
+            for (Map.Entry<BasicAddress, Map<Integer, CroupierShuffle.Request>> e : batches.entrySet()) {
+                NatedAddress peer = picked.get(e.getKey());
+                CroupierShuffle.Batch<CroupierShuffle.Request> requestContent = new CroupierShuffle.Batch<CroupierShuffle.Request>(UUID.randomUUID(), e.getValue());
+                CroupierShuffleNet.BatchRequest request = new CroupierShuffleNet.BatchRequest(self, peer, requestContent);
+                log.trace("{} sending:{} to:{}", new Object[]{logPrefix, requestContent, peer});
+                trigger(request, network);
+                countSent(requestContent);
+                scheduleShuffleTimeout(requestContent.getId(), peer, new ArrayList<Integer>(e.getValue().keySet()));
+            }
+        }
+    };
+
+    Handler handleShuffleRequest = new Handler<CroupierShuffleNet.BatchRequest>() {
+
+        @Override
+        public void handle(CroupierShuffleNet.BatchRequest request) {
+            NatedAddress reqSrc = request.getHeader().getSource();
+            if (self.getBaseAdr().equals(reqSrc.getBaseAdr())) {
+                log.error("{} Tried to shuffle with myself", logPrefix);
+                throw new RuntimeException("tried to shuffle with myself");
+            }
+            log.trace("{} received:{} from:{}", new Object[]{logPrefix, request.getContent(), reqSrc});
+            if (selfView == null) {
+                log.warn("{} not ready to shuffle - no self view available - {} tried to shuffle with me",
+                        logPrefix, reqSrc);
+                return;
+            }
+
+            Map<Integer, CroupierShuffle.Response> responses = new LinkedHashMap<Integer, CroupierShuffle.Response>();
+            for (Map.Entry<Integer, CroupierShuffle.Request> e : request.getContent().shuffles.entrySet()) {
+                OverlayState overlay = overlaysById.get(e.getKey());
+                if (overlay == null) {
+                    log.debug("{} not in overlay:{} - {} tried to shuffle with me", new Object[]{logPrefix, e.getKey(), reqSrc});
+                    continue;
+                }
+                responses.put(e.getKey(), overlay.respond(self, selfView, reqSrc, e.getValue()));
+            }
+
+            CroupierShuffle.Batch<CroupierShuffle.Response> responseContent = new CroupierShuffle.Batch<CroupierShuffle.Response>(request.getContent().getId(), responses);
+            CroupierShuffleNet.BatchResponse response = new CroupierShuffleNet.BatchResponse(self, reqSrc, responseContent);
+            log.trace("{} sending:{} to:{}", new Object[]{logPrefix, responseContent, reqSrc});
+            trigger(response, network);
+            countSent(responseContent);
+
+            if (!connected() && haveShufflePartners()) {
+                startShuffle();
+            }
+        }
+    };
+
+    Handler handleShuffleResponse = new Handler<CroupierShuffleNet.BatchResponse>() {
+
+        @Override
+        public void handle(CroupierShuffleNet.BatchResponse response) {
+            NatedAddress respSrc = response.getHeader().getSource();
+            if (self.getBaseAdr().equals(respSrc.getBaseAdr())) {
+                log.error("{} Tried to shuffle with myself", logPrefix);
+                throw new RuntimeException("tried to shuffle with myself");
+            }
+            log.trace("{} received:{} from:{}", new Object[]{logPrefix, response.getContent(), respSrc});
+
+            ShuffleTimeout timeout = pendingBatches.remove(response.getContent().getId());
+            if (timeout == null) {
+                log.debug("{} req:{} from:{} already timed out", new Object[]{logPrefix, response.getContent().getId(), respSrc});
+                return;
+            }
+            trigger(new CancelTimeout(timeout.getTimeoutId()), timer);
+
+            for (OverlayState overlay : overlays) {
+                CroupierShuffle.Response shuffle = response.getContent().shuffles.get(overlay.id);
+                if (shuffle != null) {
+                    overlay.keep(respSrc, shuffle);
+                } else {
+                    //not sent to it, or the peer is not in this overlay
+                    overlay.forgetSentTo(respSrc);
+                }
+            }
+        }
+    };
+
+    Handler<ShuffleTimeout> handleShuffleTimeout = new Handler<ShuffleTimeout>() {
+        @Override
+        public void handle(ShuffleTimeout timeout) {
+            if (pendingBatches.remove(timeout.batchId) == null) {
+                //answered or stopped as it fired
+                return;
+            }
+            log.info("{} node:{} timed out", logPrefix, timeout.dest);
+
+            for (Integer overlayId : timeout.overlayIds) {
+                overlaysById.get(overlayId).timedOut(timeout.dest);
+            }
+        }
+    };
+
+    //One message, as many overlay shuffles as it batches: compared with CroupierComp (CROUPIERTRAFFIC)
+    private void countSent(CroupierShuffle.Batch batch) {
+        messagesSent++;
+        shufflesSent += batch.shuffles.size();
+    }
+
+    //Once per cycle, to the status address if there is one (the aggregator), for all overlays
+    private void reportStatus() {
+        if (statusAddress == null) {
+            return;
+        }
+        HashMap<Integer, int[]> views = new HashMap<Integer, int[]>();
+        for (OverlayState overlay : overlays) {
+            views.put(overlay.id, overlay.viewIds());
+        }
+        trigger(new CroupierStatusNet(self, statusAddress, new CroupierStatus(messagesSent, shufflesSent, views)), network);
+        messagesSent = 0;
+        shufflesSent = 0;
+    }
+
+    private void schedulePeriodicShuffle() {
+        if (shuffleCycleId != null) {
+            log.warn("{} double starting periodic shuffle", logPrefix);
+            return;
+        }
+        SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(croupierConfig.shufflePeriod, croupierConfig.shufflePeriod);
+        ShuffleCycle sc = new ShuffleCycle(spt);
+        spt.setTimeoutEvent(sc);
+        shuffleCycleId = sc.getTimeoutId();
+        trigger(spt, timer);
+    }
+
+    private void cancelPeriodicShuffle() {
+        if (shuffleCycleId == null) {
+            log.warn("{} double stopping periodic shuffle", logPrefix);
+            return;
+        }
+        CancelPeriodicTimeout cpt = new CancelPeriodicTimeout(shuffleCycleId);
+        shuffleCycleId = null;
+        trigger(cpt, timer);
+    }
+
+    private void scheduleShuffleTimeout(UUID batchId, NatedAddress dest, List<Integer> overlayIds) {
+        ScheduleTimeout spt = new ScheduleTimeout(croupierConfig.shuffleTimeout);
+        ShuffleTimeout sc = new ShuffleTimeout(spt, batchId, dest, overlayIds);
+        spt.setTimeoutEvent(sc);
+        pendingBatches.put(batchId, sc);
+        trigger(spt, timer);
+    }
+
+    public static class MultiCroupierInit extends Init<MultiCroupierComp> {
+
+        public final NatedAddress self;
+        public final List<NatedAddress> bootstrapNodes;
+        public final long seed;
+        public final CroupierConfig croupierConfig;
+        public final List<Integer> overlayIds;
+        //Where to send a CroupierStatus every cycle, null for no reports
+        public final NatedAddress statusAddress;
+
+        public MultiCroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig, List<Integer> overlayIds) {
+            this(self, bootstrapNodes, seed, croupierConfig, overlayIds, null);
+        }
+
+        public MultiCroupierInit(NatedAddress self, List<NatedAddress> bootstrapNodes, long seed, CroupierConfig croupierConfig, List<Integer> overlayIds,
+                NatedAddress statusAddress) {
+            this.self = self;
+            this.bootstrapNodes = bootstrapNodes;
+            this.seed = seed;
+            this.croupierConfig = croupierConfig;
+            this.overlayIds = overlayIds;
+            this.statusAddress = statusAddress;
+        }
+    }
+
+    public class ShuffleCycle extends Timeout {
+
+        public ShuffleCycle(SchedulePeriodicTimeout request) {
+            super(request);
+        }
+
+        @Override
+        public String toString() {
+            return "SHUFFLE_CYCLE";
+        }
+    }
+
+    public class ShuffleTimeout extends Timeout {
+
+        public final UUID batchId;
+        public final NatedAddress dest;
+        public final List<Integer> overlayIds;
+
+        public ShuffleTimeout(ScheduleTimeout request, UUID batchId, NatedAddress dest, List<Integer> overlayIds) {
+            super(request);
+            this.batchId = batchId;
+            this.dest = dest;
+            this.overlayIds = overlayIds;
+        }
+
+        @Override
+        public String toString() {
+            return "SHUFFLE_TIMEOUT";
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package se.kth.swim.croupier.internal;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import se.sics.p2ptoolbox.util.identifiable.UUIDIdentifiable;
@@ -129,4 +130,25 @@ public class CroupierShuffle {
             return true;
         }
     }
+    
+    //The shuffles of several overlays with the same peer, by overlay id, sent as one message
+    public static class Batch<S extends Basic> implements UUIDIdentifiable {
+        private final UUID id;
+        public final Map<Integer, S> shuffles;
+        
+        public Batch(UUID id, Map<Integer, S> shuffles) {
+            this.id = id;
+            this.shuffles = shuffles;
+        }
+        
+        @Override
+        public UUID getId() {
+            return id;
+        }
+        
+        @Override
+        public String toString() {
+            return "ShuffleBatch" + shuffles.keySet();
+        }
+    }
 }
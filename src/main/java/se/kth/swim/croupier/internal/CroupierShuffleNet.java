@@ -57,4 +57,32 @@ public class CroupierShuffleNet {
             return new Response(newHeader, getContent());
         }
     }
+    
+    public static class BatchRequest extends NetMsg<CroupierShuffle.Batch<CroupierShuffle.Request>> {
+        public BatchRequest(NatedAddress src, NatedAddress dst, CroupierShuffle.Batch<CroupierShuffle.Request> content) {
+            super(src, dst, content);
+        }
+        public BatchRequest(Header<NatedAddress> header, CroupierShuffle.Batch<CroupierShuffle.Request> content) {
+            super(header, content);
+        }
+        
+        @Override
+        public NetMsg copyMessage(Header<NatedAddress> newHeader) {
+            return new BatchRequest(newHeader, getContent());
+        }
+    }
+    
+    public static class BatchResponse extends NetMsg<CroupierShuffle.Batch<CroupierShuffle.Response>> {
+        public BatchResponse(NatedAddress src, NatedAddress dst, CroupierShuffle.Batch<CroupierShuffle.Response> content) {
+            super(src, dst, content);
+        }
+        public BatchResponse(Header<NatedAddress> header, CroupierShuffle.Batch<CroupierShuffle.Response> content) {
+            super(header, content);
+        }
+        
+        @Override
+        public NetMsg copyMessage(Header<NatedAddress> newHeader) {
+            return new BatchResponse(newHeader, getContent());
+        }
+    }
 }
\ No newline at end of file
@@ -20,12 +20,10 @@
  */
 package se.kth.swim.croupier.internal;
 
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import se.kth.swim.croupier.CroupierSelectionPolicy;
@@ -33,6 +31,14 @@ import se.sics.p2ptoolbox.util.network.NatedAddress;
 import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
 
 /**
+ * The entries live in a fixed-capacity array (size entries packed at the front) and d2e maps a peer to its
+ * entry, which knows its slot, so adding and removing are O(1) swaps with the last slot. Random samples are
+ * drawn with a partial Fisher-Yates shuffle of the array in place: the sample is the first n slots, and
+ * drawing it allocates nothing. The entries sent to a peer are listed under that peer until the shuffle with it
+ * is merged or times out, so merging costs the shuffle size, not the view size; the lists are arrays kept from
+ * shuffle to shuffle, so a shuffle allocates the outgoing descriptor set and nothing else. The age-based policies (TAIL,
+ * HEALER, softmax over age ranks) read a second array kept ordered by age, instead of sorting per call.
+ *
  * @author Alex Ormenisan <aaor@sics.se>
  */
 public class CroupierView<C extends Object> {
@@ -40,99 +46,102 @@ public class CroupierView<C extends Object> {
     private final int viewSize;
     private final BasicAddress selfAddress;
     private final HashMap<BasicAddress, CroupierViewEntry<C>> d2e;
+    private final CroupierViewEntry<C>[] entries;
+    //the same entries, youngest first; all ages grow together, so only adds and refreshes move an entry
+    private final CroupierViewEntry<C>[] byAge;
+    private int size = 0;
+    private final boolean healer;
+    //Shuffles not merged yet, a handful at a time: pendingPeers[0..pending) and the entries sent to each one, in
+    //arrays reused once the shuffle is over
+    private BasicAddress[] pendingPeers = new BasicAddress[4];
+    private CroupierViewEntry<C>[][] pendingSent = new CroupierViewEntry[4][];
+    private int[] pendingCount = new int[4];
+    private int pending = 0;
     private final Random rand;
 
-    private Comparator<CroupierViewEntry> comparatorByAge = new Comparator<CroupierViewEntry>() {
-        @Override
-        public int compare(CroupierViewEntry o1, CroupierViewEntry o2) {
-            if (o1.getDescriptor().getAge() > o2.getDescriptor().getAge()) {
-                return 1;
-            } else if (o1.getDescriptor().getAge() < o2.getDescriptor().getAge()) {
-                return -1;
-            } else {
-                return 0;
-            }
-        }
-    };
-
     public CroupierView(BasicAddress selfAddress, int viewSize, Random rand) {
+        this(selfAddress, viewSize, rand, false);
+    }
+
+    //healer: a full view makes room for younger descriptors by dropping its oldest entries, instead of the
+    //ones sent to the shuffle peer (swapper)
+    public CroupierView(BasicAddress selfAddress, int viewSize, Random rand, boolean healer) {
         super();
         this.selfAddress = selfAddress;
         this.viewSize = viewSize;
+        this.healer = healer;
         this.d2e = new HashMap<BasicAddress, CroupierViewEntry<C>>();
+        this.entries = new CroupierViewEntry[viewSize];
+        this.byAge = new CroupierViewEntry[viewSize];
         this.rand = rand;
     }
 
     public void incrementDescriptorAges() {
-        for (CroupierViewEntry entry : d2e.values()) {
-            entry.getDescriptor().incrementAge();
+        for (int i = 0; i < size; i++) {
+            entries[i].getDescriptor().incrementAge();
         }
     }
 
     public NatedAddress selectPeerToShuffleWith(CroupierSelectionPolicy policy,
             boolean softmax, double temperature) {
-        if (d2e.isEmpty()) {
+        return selectPeerToShuffleWith(policy, softmax, temperature, Collections.<BasicAddress>emptySet());
+    }
+
+    //The policy applied to the entries not in exclude (peers already picked, shuffles in flight); null if none
+    public NatedAddress selectPeerToShuffleWith(CroupierSelectionPolicy policy,
+            boolean softmax, double temperature, Set<BasicAddress> exclude) {
+        int candidates = size;
+        if (!exclude.isEmpty()) {
+            for (int i = 0; i < size; i++) {
+                if (exclude.contains(entries[i].getDescriptor().getSource().getBaseAdr())) {
+                    candidates--;
+                }
+            }
+        }
+        if (candidates == 0) {
             return null;
         }
 
-        CroupierViewEntry selectedEntry = null;
-
-        selectedEntry = generateRandomSample(1).get(0);
-//        if (!softmax || policy == CroupierSelectionPolicy.RANDOM) {
-//            if (policy == CroupierSelectionPolicy.TAIL) {
-//                selectedEntry = Collections.max(d2e.values(), comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.HEALER) {
-//                selectedEntry = Collections.max(d2e.values(), comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.RANDOM) {
-//                selectedEntry = generateRandomSample(1).get(0);
-//            } else {
-//                throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
-//            }
-//
-//        } else {
-//            ArrayList<CroupierViewEntry> entries = new ArrayList<CroupierViewEntry>(d2e.values());
-//            if (policy == CroupierSelectionPolicy.TAIL) {
-//                Collections.sort(entries, comparatorByAge);
-//            } else if (policy == CroupierSelectionPolicy.HEALER) {
-//                Collections.sort(entries, comparatorByAge);
-//            } else {
-//                throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
-//            }
-//
-//            int index = softMaxIndex(entries, temperature);
-//            if (index == -1) {
-//                selectedEntry = entries.get(entries.size() - 1);
-//            } else {
-//                selectedEntry = entries.get(index);
-//            }
-//        }
-//
-//        // TODO - by not removing a reference to the node I am shuffling with, we
-//        // break the 'batched random walk' (Cyclon) behaviour. But it's more important
-//        // to keep the graph connected.
-//        if (d2e.size() >= viewSize) {
-//            removeEntry(selectedEntry.getDescriptor().getSource().getBase());
-//        }
+        CroupierViewEntry selectedEntry;
+        if (policy == CroupierSelectionPolicy.RANDOM) {
+            selectedEntry = nthCandidate(entries, 0, 1, rand.nextInt(candidates), exclude);
+        } else if (policy == CroupierSelectionPolicy.TAIL || policy == CroupierSelectionPolicy.HEALER) {
+            int rank = (softmax && temperature > 0) ? softMaxRank(temperature, candidates) : 0;
+            selectedEntry = nthCandidate(byAge, size - 1, -1, rank, exclude);
+        } else {
+            throw new IllegalArgumentException("Invalid Croupier policy selected:" + policy);
+        }
+
+        // TODO - by not removing a reference to the node I am shuffling with, we
+        // break the 'batched random walk' (Cyclon) behaviour. But it's more important
+        // to keep the graph connected.
 
         return selectedEntry.getDescriptor().getSource();
     }
 
     public Set<CroupierContainer<C>> initiatorCopySet(int count, NatedAddress destinationPeer) {
-        List<CroupierViewEntry> randomEntries = generateRandomSample(count);
-        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : randomEntries) {
-            cacheEntry.sentTo((BasicAddress)destinationPeer.getBaseAdr());
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
-        }
-        return descriptors;
+        return copySet(count, destinationPeer);
     }
 
     public Set<CroupierContainer<C>> receiverCopySet(int count, NatedAddress destinationPeer) {
-        List<CroupierViewEntry> randomEntries = generateRandomSample(count);
-        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : randomEntries) {
-            cacheEntry.sentTo((BasicAddress)destinationPeer.getBaseAdr());
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
+        return copySet(count, destinationPeer);
+    }
+
+    //Copies of count random entries (all of them if the view is smaller), recorded as sent to the peer until
+    //its descriptors are merged or the shuffle times out. One extra slot for the caller's own descriptor
+    private Set<CroupierContainer<C>> copySet(int count, NatedAddress destinationPeer) {
+        int n = shuffleSample(count);
+        int p = pendingSlot((BasicAddress)destinationPeer.getBaseAdr());
+        CroupierViewEntry<C>[] sent = pendingSent[p];
+        if (sent == null || sent.length < pendingCount[p] + n) {
+            sent = sent == null ? new CroupierViewEntry[Math.max(n, 1)] : Arrays.copyOf(sent, Math.max(sent.length * 2, pendingCount[p] + n));
+            pendingSent[p] = sent;
+        }
+        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>(capacity(n + 1));
+        for (int i = 0; i < n; i++) {
+            entries[i].markSent();
+            sent[pendingCount[p]++] = entries[i];
+            descriptors.add(entries[i].getDescriptor().getCopy());
         }
         return descriptors;
     }
@@ -143,129 +152,250 @@ public class CroupierView<C extends Object> {
             return;
         }
 
-        LinkedList<CroupierViewEntry> entriesSentToThisPeer = new LinkedList<CroupierViewEntry>();
-        for (CroupierViewEntry cacheEntry : d2e.values()) {
-            if (cacheEntry.wasSentTo(baseFrom)) {
-                entriesSentToThisPeer.add(cacheEntry);
-            }
-        }
+        //entries sent to this peer, then the peer's own entry, are the ones its descriptors may replace
+        int p = findPending(baseFrom);
+        CroupierViewEntry<C>[] entriesSentToThisPeer = p < 0 ? null : pendingSent[p];
+        int sentCount = p < 0 ? 0 : pendingCount[p];
+        int nextSent = 0;
         //TODO Alex policy for removing the descriptor of the shuffle target - should it be the first i remove or last?
-        if (d2e.containsKey(baseFrom)) {
-            entriesSentToThisPeer.add(d2e.get(baseFrom));
-        }
+        CroupierViewEntry<C> fromEntry = d2e.get(baseFrom);
 
         for (CroupierContainer<C> descriptor : descriptors) {
             BasicAddress baseSrc = (BasicAddress)descriptor.getSource().getBaseAdr();
             if (selfAddress.equals(baseSrc)) {
                 continue; // do not keep descriptor of self
             }
-            if (d2e.containsKey(baseSrc)) {
+            CroupierViewEntry<C> entry = d2e.get(baseSrc);
+            if (entry != null) {
                 // we already have an entry for this peer. keep the youngest one
-
-                CroupierViewEntry entry = d2e.get(baseSrc);
                 if (entry.getDescriptor().getAge() > descriptor.getAge()) {
-                    // we keep the lowest age descriptor
-                    CroupierViewEntry newCVE = new CroupierViewEntry(descriptor);
-
+                    // we keep the lowest age descriptor, in the same entry, so it stays where it was sent
                     //TODO Alex what is the policy about descriptors I sent and received from src
-                    int index = entriesSentToThisPeer.indexOf(entry);
-                    if (index != -1) {
-                        entriesSentToThisPeer.set(index, newCVE);
-                    }
-
-                    removeEntry(baseSrc);
-                    addEntry(newCVE);
+                    unlinkByAge(entry, size);
+                    entry.setDescriptor(descriptor);
+                    linkByAge(entry, size - 1);
                 }
-            } else if (d2e.size() < viewSize) {
+            } else if (size < viewSize) {
                 // fill an empty slot
-                addEntry(new CroupierViewEntry(descriptor));
+                addEntry(new CroupierViewEntry<C>(descriptor));
+            } else if (healer) {
+                // replace the oldest entry, if the descriptor is younger
+                CroupierViewEntry<C> oldest = byAge[size - 1];
+                if (oldest.getDescriptor().getAge() > descriptor.getAge()) {
+                    removeEntry((BasicAddress)oldest.getDescriptor().getSource().getBaseAdr());
+                    addEntry(new CroupierViewEntry<C>(descriptor));
+                }
             } else {
-                // replace one slot out of those sent to this peer
-                CroupierViewEntry sentEntry = entriesSentToThisPeer.poll();
+                // replace one slot out of those sent to this peer (skipping the ones no longer in the view)
+                CroupierViewEntry<C> sentEntry = null;
+                while (sentEntry == null && nextSent < sentCount) {
+                    CroupierViewEntry<C> e = entriesSentToThisPeer[nextSent++];
+                    if (e.slot >= 0) {
+                        sentEntry = e;
+                    }
+                }
+                if (sentEntry == null && fromEntry != null && fromEntry.slot >= 0) {
+                    sentEntry = fromEntry;
+                    fromEntry = null;
+                }
                 if (sentEntry != null) {
                     removeEntry((BasicAddress)sentEntry.getDescriptor().getSource().getBaseAdr());
-                    addEntry(new CroupierViewEntry(descriptor));
+                    addEntry(new CroupierViewEntry<C>(descriptor));
                 }
             }
         }
+        if (p >= 0) {
+            releasePending(p);
+        }
+    }
+
+    //The shuffle with this peer is over without a merge (timed out): the entries sent to it are no longer pending
+    public void forgetSentTo(NatedAddress peer) {
+        int p = findPending((BasicAddress)peer.getBaseAdr());
+        if (p >= 0) {
+            releasePending(p);
+        }
+    }
+
+    private int findPending(BasicAddress peer) {
+        for (int p = 0; p < pending; p++) {
+            if (pendingPeers[p].equals(peer)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    //The pending shuffle with this peer, a new one if there is none
+    private int pendingSlot(BasicAddress peer) {
+        int p = findPending(peer);
+        if (p >= 0) {
+            return p;
+        }
+        if (pending == pendingPeers.length) {
+            pendingPeers = Arrays.copyOf(pendingPeers, pending * 2);
+            pendingSent = Arrays.copyOf(pendingSent, pending * 2);
+            pendingCount = Arrays.copyOf(pendingCount, pending * 2);
+        }
+        pendingPeers[pending] = peer;
+        pendingCount[pending] = 0;
+        return pending++;
+    }
+
+    //The last pending shuffle takes the freed slot, the freed array is kept for the next one
+    private void releasePending(int p) {
+        CroupierViewEntry<C>[] sent = pendingSent[p];
+        Arrays.fill(sent, 0, pendingCount[p], null);
+        int last = --pending;
+        pendingPeers[p] = pendingPeers[last];
+        pendingSent[p] = pendingSent[last];
+        pendingCount[p] = pendingCount[last];
+        pendingPeers[last] = null;
+        pendingSent[last] = sent;
+        pendingCount[last] = 0;
     }
 
 //-------------------------------------------------------------------	
+    //The copies leave the component with the sample, so they cannot be shared with the view, whose ages change
     public final Set<CroupierContainer<C>> getAllCopy() {
-        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>();
-        for (CroupierViewEntry cacheEntry : d2e.values()) {
-            descriptors.add(cacheEntry.getDescriptor().getCopy());
+        Set<CroupierContainer<C>> descriptors = new HashSet<CroupierContainer<C>>(capacity(size));
+        for (int i = 0; i < size; i++) {
+            descriptors.add(entries[i].getDescriptor().getCopy());
         }
         return descriptors;
     }
 
-    private List<CroupierViewEntry> generateRandomSample(int n) {
-        List<CroupierViewEntry> randomEntries = new ArrayList<CroupierViewEntry>();
-        if (n >= d2e.size()) {
-            //return a copy of all entries
-            randomEntries.addAll(d2e.values());
-            return randomEntries;
+    //Node ids of the entries, without copying them
+    public int[] ids() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = entries[i].getDescriptor().getSource().getId();
         }
-        ArrayList<CroupierViewEntry> entries = new ArrayList<CroupierViewEntry>(d2e.values());
-        // Don Knuth, The Art of Computer Programming, Algorithm S(3.4.2)
-        int t = 0, m = 0, N = d2e.size();
-        while (m < n) {
-            int x = rand.nextInt(N - t);
-            if (x < n - m) {
-                randomEntries.add(entries.get(t));
-                m += 1;
-                t += 1;
+        return ids;
+    }
+
+    //Partial Fisher-Yates: moves n uniformly drawn entries to slots 0..n-1 and returns n (capped at the size)
+    private int shuffleSample(int n) {
+        if (n >= size) {
+            return size;
+        }
+        for (int i = 0; i < n; i++) {
+            swap(i, i + rand.nextInt(size - i));
+        }
+        return n;
+    }
+
+    private void swap(int i, int j) {
+        CroupierViewEntry<C> e = entries[i];
+        entries[i] = entries[j];
+        entries[j] = e;
+        entries[i].slot = i;
+        entries[j].slot = j;
+    }
+
+    private static int capacity(int elements) {
+        return elements * 4 / 3 + 1;
+    }
+
+    private void addEntry(CroupierViewEntry<C> entry) {
+        d2e.put((BasicAddress)entry.getDescriptor().getSource().getBaseAdr(), entry);
+        linkByAge(entry, size);
+        entry.slot = size;
+        entries[size++] = entry;
+    }
+
+    //Inserts into byAge[0..n) after the entries of the same age
+    private void linkByAge(CroupierViewEntry<C> entry, int n) {
+        int age = entry.getDescriptor().getAge();
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byAge[mid].getDescriptor().getAge() <= age) {
+                lo = mid + 1;
             } else {
-                t += 1;
+                hi = mid;
             }
         }
-        return randomEntries;
+        System.arraycopy(byAge, lo, byAge, lo + 1, n - lo);
+        byAge[lo] = entry;
     }
 
-    private void addEntry(CroupierViewEntry entry) {
-        d2e.put((BasicAddress)entry.getDescriptor().getSource().getBaseAdr(), entry);
+    //Removes from byAge[0..n), shifting the older entries down
+    private void unlinkByAge(CroupierViewEntry<C> entry, int n) {
+        int age = entry.getDescriptor().getAge();
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byAge[mid].getDescriptor().getAge() < age) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        while (byAge[lo] != entry) {
+            lo++;
+        }
+        System.arraycopy(byAge, lo + 1, byAge, lo, n - lo - 1);
+        byAge[n - 1] = null;
     }
 
+    //The last entry takes the freed slot
     private boolean removeEntry(BasicAddress src) {
-        return d2e.remove(src) != null;
+        CroupierViewEntry<C> entry = d2e.remove(src);
+        if (entry == null) {
+            return false;
+        }
+        unlinkByAge(entry, size);
+        size--;
+        if (entry.slot != size) {
+            entries[entry.slot] = entries[size];
+            entries[entry.slot].slot = entry.slot;
+        }
+        entries[size] = null;
+        entry.slot = -1;
+        return true;
     }
 
     public void timedOut(NatedAddress src) {
         removeEntry((BasicAddress)src.getBaseAdr());
     }
 
+    public boolean contains(NatedAddress node) {
+        return d2e.containsKey((BasicAddress)node.getBaseAdr());
+    }
+
     public boolean isEmpty() {
-        return d2e.isEmpty();
+        return size == 0;
     }
 
     public int size() {
-        return d2e.size();
+        return size;
     }
 
-    //TODO Alex check if it matched to Abhi's soft max and replace
-    private int softMaxIndex(ArrayList<CroupierViewEntry> entries, double temperature) {
-        double rnd = rand.nextDouble();
-        double total = 0.0d;
-        double[] values = new double[entries.size()];
-        int j = entries.size() + 1;
-        for (int i = 0; i < entries.size(); i++) {
-            // get inverse of values - lowest have highest value.
-            double val = j;
-            j--;
-            values[i] = Math.exp(val / temperature);
-            total += values[i];
+    //The n-th entry not in exclude, walking array from start by step
+    private CroupierViewEntry<C> nthCandidate(CroupierViewEntry<C>[] array, int start, int step, int n, Set<BasicAddress> exclude) {
+        for (int i = start; ; i += step) {
+            if (!exclude.contains(array[i].getDescriptor().getSource().getBaseAdr()) && n-- == 0) {
+                return array[i];
+            }
         }
+    }
 
-        for (int i = 0; i < values.length; i++) {
-            if (i != 0) {
-                values[i] += values[i - 1];
-            }
-            // normalise the probability
-            double normalisedReward = values[i] / total;
-            if (normalisedReward >= rnd) {
-                return i;
+    //Rank out of count drawn with probability proportional to exp(-rank/temperature), rank 0 being the oldest
+    //entry: the lower the temperature, the closer to always picking the oldest (TAIL)
+    private int softMaxRank(double temperature, int count) {
+        double total = 0.0d;
+        for (int rank = 0; rank < count; rank++) {
+            total += Math.exp(-rank / temperature);
+        }
+        double rnd = rand.nextDouble() * total;
+        double cumulative = 0.0d;
+        for (int rank = 0; rank < count; rank++) {
+            cumulative += Math.exp(-rank / temperature);
+            if (cumulative >= rnd) {
+                return rank;
             }
         }
-        return -1;
+        return 0;
     }
 }
@@ -21,9 +21,6 @@
 package se.kth.swim.croupier.internal;
 
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
-import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
 
 /**
  * The <code>RandomViewEntry</code> class represents an entry in a node's
@@ -53,10 +50,10 @@ public class CroupierViewEntry<C extends Object> {
         };
     }
 
-    private final CroupierContainer<C> cc;
-    private final long addedAt;
+    private CroupierContainer<C> cc;
+    private long addedAt;
     private long sentAt;
-    private final Set<BasicAddress> sentTo = new HashSet<BasicAddress>();
+    int slot = -1; //position in the view array, kept by CroupierView
 
     public CroupierViewEntry(CroupierContainer<C> cc) {
         this.cc = cc;
@@ -65,11 +62,17 @@ public class CroupierViewEntry<C extends Object> {
     }
 
 
-    public void sentTo(BasicAddress peer) {
-        sentTo.add(peer);
+    //The peers it was sent to are tracked by the view, per pending shuffle
+    public void markSent() {
         sentAt = System.currentTimeMillis();
     }
 
+    //A younger descriptor of the same node
+    public void setDescriptor(CroupierContainer<C> cc) {
+        this.cc = cc;
+        this.addedAt = System.currentTimeMillis();
+    }
+
     public CroupierContainer<C> getDescriptor() {
         return cc;
     }
@@ -82,10 +85,6 @@ public class CroupierViewEntry<C extends Object> {
         return sentAt;
     }
 
-    public boolean wasSentTo(BasicAddress peer) {
-        return sentTo == null ? false : sentTo.contains(peer);
-    }
-    
     @Override
     public String toString() {
         return cc.toString() + ": addedAt(" + addedAt + "): sentAt:(" + sentAt +")";
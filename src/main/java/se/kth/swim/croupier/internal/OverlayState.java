@@ -0,0 +1,129 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.internal;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.kth.swim.croupier.msg.CroupierSample;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+
+/**
+ * One croupier overlay of a node: its public and private views and the shuffle steps on them, shared by
+ * CroupierComp (one overlay) and MultiCroupierComp (several, batched). The components keep the messages, the
+ * timers and the choice of peers across a cycle.
+ */
+public class OverlayState {
+
+    public final int id;
+    private final CroupierConfig croupierConfig;
+    private final CroupierView publicView;
+    private final CroupierView privateView;
+
+    public OverlayState(int id, BasicAddress self, CroupierConfig croupierConfig, Random rand) {
+        this.id = id;
+        this.croupierConfig = croupierConfig;
+        boolean healer = croupierConfig.policy == CroupierSelectionPolicy.HEALER;
+        this.publicView = new CroupierView(self, croupierConfig.viewSize, rand, healer);
+        this.privateView = new CroupierView(self, croupierConfig.viewSize, rand, healer);
+    }
+
+    public boolean isEmpty() {
+        return publicView.isEmpty() && privateView.isEmpty();
+    }
+
+    public boolean contains(NatedAddress node) {
+        return publicView.contains(node) || privateView.contains(node);
+    }
+
+    public int publicSize() {
+        return publicView.size();
+    }
+
+    public int privateSize() {
+        return privateView.size();
+    }
+
+    public CroupierSample sample() {
+        return new CroupierSample(id, publicView.getAllCopy(), privateView.getAllCopy());
+    }
+
+    //Node ids in the public view, then the private one, for the status report
+    public int[] viewIds() {
+        int[] publicIds = publicView.ids();
+        int[] privateIds = privateView.ids();
+        int[] ids = Arrays.copyOf(publicIds, publicIds.length + privateIds.length);
+        System.arraycopy(privateIds, 0, ids, publicIds.length, privateIds.length);
+        return ids;
+    }
+
+    //Public view first, then the private one, with the configured policy; never a peer in exclude
+    public NatedAddress selectPeerToShuffleWith(Set<BasicAddress> exclude) {
+        NatedAddress peer = publicView.selectPeerToShuffleWith(croupierConfig.policy, true, croupierConfig.softMaxTemperature, exclude);
+        if (peer == null) {
+            peer = privateView.selectPeerToShuffleWith(croupierConfig.policy, true, croupierConfig.softMaxTemperature, exclude);
+        }
+        return peer;
+    }
+
+    //Once per cycle, before the first request of the cycle
+    public void incrementDescriptorAges() {
+        publicView.incrementDescriptorAges();
+        privateView.incrementDescriptorAges();
+    }
+
+    //The entries sent are remembered per peer, for the response to replace
+    public CroupierShuffle.Request request(NatedAddress self, Object selfView, NatedAddress peer) {
+        Set<CroupierContainer> publicDescCopy = publicView.initiatorCopySet(croupierConfig.shuffleSize, peer);
+        Set<CroupierContainer> privateDescCopy = privateView.initiatorCopySet(croupierConfig.shuffleSize, peer);
+        addSelf(self, selfView, publicDescCopy, privateDescCopy);
+        return new CroupierShuffle.Request(UUID.randomUUID(), publicDescCopy, privateDescCopy);
+    }
+
+    //Ages the views, answers with entries picked before the requester's are merged in, then merges them
+    public CroupierShuffle.Response respond(NatedAddress self, Object selfView, NatedAddress reqSrc, CroupierShuffle.Request request) {
+        incrementDescriptorAges();
+        Set<CroupierContainer> publicDescCopy = publicView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
+        Set<CroupierContainer> privateDescCopy = privateView.receiverCopySet(croupierConfig.shuffleSize, reqSrc);
+        addSelf(self, selfView, publicDescCopy, privateDescCopy);
+        CroupierShuffle.Response response = new CroupierShuffle.Response(request.getId(), publicDescCopy, privateDescCopy);
+        keep(reqSrc, request);
+        return response;
+    }
+
+    public void keep(NatedAddress src, CroupierShuffle.Basic shuffle) {
+        publicView.selectToKeep(src, shuffle.publicNodes);
+        privateView.selectToKeep(src, shuffle.privateNodes);
+    }
+
+    //No shuffle with the peer to merge: what was sent to it can be replaced by nobody
+    public void forgetSentTo(NatedAddress peer) {
+        publicView.forgetSentTo(peer);
+        privateView.forgetSentTo(peer);
+    }
+
+    public void timedOut(NatedAddress peer) {
+        if (peer.isOpen()) {
+            publicView.timedOut(peer);
+        } else {
+            privateView.timedOut(peer);
+        }
+        forgetSentTo(peer);
+    }
+
+    private void addSelf(NatedAddress self, Object selfView, Set<CroupierContainer> publicDescCopy, Set<CroupierContainer> privateDescCopy) {
+        if (self.isOpen()) {
+            publicDescCopy.add(new CroupierContainer(self, selfView));
+        } else {
+            privateDescCopy.add(new CroupierContainer(self, selfView));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.msg;
+
+import java.util.HashMap;
+
+/**
+ * What a croupier component reports to its status address (the aggregator) once per shuffle cycle: the shuffle
+ * messages (requests and responses) it sent since its previous report, the overlay shuffles they carried, and
+ * the node ids in the views of each of its overlays.
+ */
+public class CroupierStatus {
+
+    public final int messagesSent;
+    public final int shufflesSent;
+    //overlay id -> ids in its public and private views
+    public final HashMap<Integer, int[]> views;
+
+    public CroupierStatus(int messagesSent, int shufflesSent, HashMap<Integer, int[]> views) {
+        this.messagesSent = messagesSent;
+        this.shufflesSent = shufflesSent;
+        this.views = views;
+    }
+
+    @Override
+    public String toString() {
+        return "CROUPIER_STATUS";
+    }
+}
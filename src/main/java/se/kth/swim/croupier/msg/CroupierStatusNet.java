@@ -0,0 +1,27 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.msg;
+
+import se.kth.swim.msg.net.NetMsg;
+import se.sics.kompics.network.Header;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+public class CroupierStatusNet extends NetMsg<CroupierStatus> {
+
+    public CroupierStatusNet(NatedAddress src, NatedAddress dst, CroupierStatus content) {
+        super(src, dst, content);
+    }
+
+    private CroupierStatusNet(Header<NatedAddress> header, CroupierStatus content) {
+        super(header, content);
+    }
+
+    @Override
+    public NetMsg copyMessage(Header<NatedAddress> newHeader) {
+        return new CroupierStatusNet(newHeader, getContent());
+    }
+}
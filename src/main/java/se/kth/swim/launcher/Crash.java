@@ -0,0 +1,27 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import se.sics.kompics.KompicsEvent;
+
+/**
+ * Crash-stop of one member, as seen by the rest of the cluster: its network component stops sending and
+ * delivering its messages.
+ */
+public class Crash implements KompicsEvent {
+
+    public final int nodeId;
+
+    public Crash(int nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String toString() {
+        return "CRASH " + nodeId;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import se.sics.kompics.ChannelFilter;
+import se.sics.kompics.network.Msg;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Delivers a message from a shared network component only on the channel of the host it is addressed to.
+ * Kompics keeps filters by value, so picking the channel is a lookup, not a scan of the hosts.
+ */
+public class DestinationFilter extends ChannelFilter<Msg, Integer> {
+
+    public DestinationFilter(int nodeId) {
+        super(Msg.class, nodeId, true);
+    }
+
+    @Override
+    public Integer getValue(Msg event) {
+        return ((NatedAddress) event.getHeader().getDestination()).getId();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import se.sics.kompics.Component;
+import se.sics.kompics.Scheduler;
+
+/**
+ * Kompics scheduler that runs every ready component on an ExecutorService: a fixed pool of platform threads,
+ * or one virtual thread per dispatch (JDK 21 and later). Kompics schedules a component only when it goes from
+ * idle to having events, and again only after it ran, so a component is never queued twice and its handlers
+ * still run one at a time, whatever the executor. Counts dispatches and the time from schedule to run, so the
+ * launcher can compare executors.
+ */
+public class ExecutorScheduler extends Scheduler {
+
+    private final String name;
+    private final ExecutorService executor;
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong latencyNs = new AtomicLong();
+    private final AtomicLong maxLatencyNs = new AtomicLong();
+
+    private ExecutorScheduler(String name, ExecutorService executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    public static ExecutorScheduler platform(int threads) {
+        return new ExecutorScheduler("pool", Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kompics-worker-" + (n++));
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    //Looked up by reflection, so the project still builds for older JDKs; fails on a JDK without virtual threads
+    public static ExecutorScheduler virtual() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new ExecutorScheduler("virtual", executor);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"), ex);
+        } catch (Exception ex) {
+            throw new IllegalStateException("cannot create the virtual thread executor", ex);
+        }
+    }
+
+    @Override
+    public void schedule(final Component c, final int w) {
+        final long queued = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    record(System.nanoTime() - queued);
+                    executeComponent(c, w);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            //shutting down
+        }
+    }
+
+    @Override
+    public void proceed() {
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void asyncShutdown() {
+        executor.shutdownNow();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getLatencyNs() {
+        return latencyNs.get();
+    }
+
+    //Largest schedule-to-run delay since the last call
+    public long takeMaxLatencyNs() {
+        return maxLatencyNs.getAndSet(0);
+    }
+
+    private void record(long latency) {
+        dispatched.incrementAndGet();
+        latencyNs.addAndGet(latency);
+        long max = maxLatencyNs.get();
+        while(latency > max && !maxLatencyNs.compareAndSet(max, latency)){
+            max = maxLatencyNs.get();
+        }
+    }
+}
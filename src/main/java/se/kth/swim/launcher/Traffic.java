@@ -0,0 +1,24 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Datagram counters, shared by the network components of one JVM and read by the launcher once per report.
+ */
+public final class Traffic {
+
+    public final AtomicLong sent = new AtomicLong();
+    public final AtomicLong sentBytes = new AtomicLong();
+    public final AtomicLong received = new AtomicLong();
+    public final AtomicLong receivedBytes = new AtomicLong();
+    //send buffer full, socket closed or message larger than a datagram
+    public final AtomicLong dropped = new AtomicLong();
+    //messages with no wire format and datagrams that did not decode
+    public final AtomicLong noWire = new AtomicLong();
+}
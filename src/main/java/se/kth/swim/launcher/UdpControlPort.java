@@ -0,0 +1,18 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import se.sics.kompics.PortType;
+
+/**
+ * Lets the launcher crash a member: its network component drops everything it sends or is sent from then on.
+ */
+public class UdpControlPort extends PortType {
+    {
+        request(Crash.class);
+    }
+}
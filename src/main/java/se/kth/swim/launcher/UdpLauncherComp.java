@@ -0,0 +1,307 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.AggregatorComp;
+import se.kth.swim.ChurnLog;
+import se.kth.swim.HostComp;
+import se.kth.swim.croupier.CroupierConfig;
+import se.kth.swim.simulation.SwimMain;
+import se.sics.kompics.Component;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Positive;
+import se.sics.kompics.Start;
+import se.sics.kompics.Stop;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+import se.sics.kompics.timer.Timer;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Root component outside the simulator: runs the given members (and, optionally, the aggregator) of a cluster
+ * in this JVM, every one of them a HostComp with its own WallClockTimerComp. Each has its own UdpNetworkComp
+ * (a socket and a selector thread per member) or, with sharedSocket, all of them share one UdpNetworkComp on
+ * one port, which hands every message to its destination through a DestinationFilter; the JVM then runs
+ * hundreds of members on one selector thread, the timer threads and the Kompics worker pool. The members of
+ * one JVM talk over loopback like any other; several JVMs form one cluster by sharing seeds and aggregator.
+ * Every second it logs the CPU used by the JVM, the live members per busy core, the JVM threads and the
+ * datagrams sent and received. It can also crash some of
+ * its members, one every killInterval ms after killAfter ms. The start and kill times go to a ChurnLog of the
+ * launcher's own, which a local aggregator reads to report detection latencies (DETECTIONSTATS) and convergence
+ * exactly as in the simulations. Croupier runs with the settings and SwimMain flags of the scenarios.
+ */
+public class UdpLauncherComp extends ComponentDefinition {
+
+    private static final Logger log = LoggerFactory.getLogger(UdpLauncherComp.class);
+
+    private static final long REPORT_PERIOD = 1000;
+
+    private final Traffic traffic = new Traffic();
+    private final ChurnLog churn = new ChurnLog();
+    private final ScheduledExecutorService timerExecutor;
+    private final Positive<Timer> timer;
+    private final Map<Integer, Component> networks = new LinkedHashMap<Integer, Component>();
+    private final Component sharedNetwork;
+    private final int memberCount;
+    private final List<Integer> toKill = new ArrayList<Integer>();
+    private int killed = 0;
+    private final long killAfter;
+    private final long killInterval;
+    private final ExecutorScheduler scheduler;
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private long lastReport;
+    private long lastCpu;
+    private long lastSent = 0;
+    private long lastReceived = 0;
+    private long lastSentBytes = 0;
+    private long lastDropped = 0;
+    private long lastNoWire = 0;
+    private long lastDispatched = 0;
+    private long lastLatencyNs = 0;
+
+    public UdpLauncherComp(UdpLauncherInit init) {
+        this.memberCount = init.members.size();
+        this.killAfter = init.killAfter;
+        this.killInterval = init.killInterval;
+        this.scheduler = init.scheduler;
+        this.timerExecutor = Executors.newScheduledThreadPool(init.timerThreads, new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "wallclock-" + (n++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        subscribe(handleStart, control);
+        subscribe(handleStop, control);
+
+        Component clock = create(WallClockTimerComp.class, new WallClockTimerComp.WallClockTimerInit(timerExecutor));
+        timer = clock.getPositive(Timer.class);
+        subscribe(handleReport, timer);
+        subscribe(handleKill, timer);
+
+        if(init.sharedSocket){
+            Set<Integer> nodeIds = new HashSet<Integer>();
+            for(NatedAddress member : init.members){
+                nodeIds.add(member.getId());
+            }
+            NatedAddress bind = init.members.isEmpty() ? init.aggregatorAddress : init.members.get(0);
+            if(init.runAggregator){
+                nodeIds.add(init.aggregatorAddress.getId());
+                bind = init.aggregatorAddress;
+            }
+            sharedNetwork = create(UdpNetworkComp.class, new UdpNetworkComp.UdpNetworkInit(bind, nodeIds, traffic));
+        } else {
+            sharedNetwork = null;
+        }
+        if(init.runAggregator){
+            Component aggregator = create(AggregatorComp.class, new AggregatorComp.AggregatorInit(init.aggregatorAddress, churn));
+            wire(aggregator, init.aggregatorAddress);
+        }
+        //Same croupier settings as the scenarios
+        CroupierConfig croupierConfig = new CroupierConfig(20, 5, 2000, 1000, SwimMain.croupierPolicy, SwimMain.croupierTemperature, SwimMain.croupierFanout);
+        for(NatedAddress member : init.members){
+            Set<NatedAddress> bootstrap = new HashSet<NatedAddress>(init.seeds);
+            bootstrap.remove(member);
+            Component host = create(HostComp.class, new HostComp.HostInit(member, bootstrap, init.aggregatorAddress,
+                    init.seed + member.getId(), croupierConfig, SwimMain.croupierOverlays, SwimMain.batchedOverlays, null, null));
+            wire(host, member);
+        }
+        //the last members started are the ones crashed, so the seeds stay up
+        for(int i = init.members.size()-1; i >= 0 && toKill.size() < init.killCount; i--){
+            toKill.add(init.members.get(i).getId());
+        }
+        churn.started(System.currentTimeMillis());
+        log.info("LAUNCHER members {} seeds {} aggregator {} kills {} socket {} store {}", new Object[]{memberCount, init.seeds.size(),
+            init.runAggregator ? "local" : init.aggregatorAddress, toKill.size(), init.sharedSocket ? "shared" : "per member",
+            SwimMain.objectMemberStore ? "object" : "packed"});
+    }
+
+    private void wire(Component node, NatedAddress address) {
+        Component net;
+        if(sharedNetwork!=null){
+            net = sharedNetwork;
+            connect(node.getNegative(Network.class), net.getPositive(Network.class), new DestinationFilter(address.getId()));
+        } else {
+            net = create(UdpNetworkComp.class, new UdpNetworkComp.UdpNetworkInit(address, traffic));
+            connect(node.getNegative(Network.class), net.getPositive(Network.class));
+        }
+        Component nodeTimer = create(WallClockTimerComp.class, new WallClockTimerComp.WallClockTimerInit(timerExecutor));
+        connect(node.getNegative(Timer.class), nodeTimer.getPositive(Timer.class));
+        networks.put(address.getId(), net);
+    }
+
+    private Handler<Start> handleStart = new Handler<Start>() {
+
+        @Override
+        public void handle(Start event) {
+            lastReport = System.currentTimeMillis();
+            lastCpu = cpuTime();
+            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(REPORT_PERIOD, REPORT_PERIOD);
+            spt.setTimeoutEvent(new ReportTimeout(spt));
+            trigger(spt, timer);
+            if(!toKill.isEmpty()){
+                scheduleKill(killAfter);
+            }
+        }
+
+    };
+
+    private Handler<Stop> handleStop = new Handler<Stop>() {
+
+        @Override
+        public void handle(Stop event) {
+            timerExecutor.shutdownNow();
+        }
+
+    };
+
+    private Handler<KillTimeout> handleKill = new Handler<KillTimeout>() {
+
+        @Override
+        public void handle(KillTimeout event) {
+            Integer id = toKill.remove(0);
+            churn.killed(id, System.currentTimeMillis());
+            killed++;
+            trigger(new Crash(id), networks.get(id).getPositive(UdpControlPort.class));
+            if(!toKill.isEmpty()){
+                scheduleKill(killInterval);
+            }
+        }
+
+    };
+
+    private Handler<ReportTimeout> handleReport = new Handler<ReportTimeout>() {
+
+        @Override
+        public void handle(ReportTimeout event) {
+            long now = System.currentTimeMillis();
+            long cpu = cpuTime();
+            double seconds = Math.max(1, now - lastReport) / 1000.0;
+            //cpu time is in ns, summed over the cores: 100% is one core busy
+            double coresBusy = (cpu - lastCpu) / (seconds * 1e9);
+            int alive = memberCount - killed;
+            String cpuLoad = cpu < 0 ? "n/a" : String.format("%.1f", coresBusy * 100);
+            String membersPerCore = cpu < 0 || coresBusy <= 0 ? "n/a" : String.format("%.0f", alive / coresBusy);
+            long sent = traffic.sent.get();
+            long received = traffic.received.get();
+            long sentBytes = traffic.sentBytes.get();
+            long dropped = traffic.dropped.get();
+            long noWire = traffic.noWire.get();
+            log.info("LOAD members {} alive {} cpu {}% cores {} members/core {} threads {} packets/s out {} in {} KB/s out {} dropped/s {} nowire/s {}",
+                    new Object[]{memberCount, alive, cpuLoad, os.getAvailableProcessors(), membersPerCore, ManagementFactory.getThreadMXBean().getThreadCount(),
+                        Math.round((sent - lastSent) / seconds), Math.round((received - lastReceived) / seconds),
+                        Math.round((sentBytes - lastSentBytes) / seconds / 1024), Math.round((dropped - lastDropped) / seconds),
+                        Math.round((noWire - lastNoWire) / seconds)});
+            lastReport = now;
+            lastCpu = cpu;
+            lastSent = sent;
+            lastReceived = received;
+            lastSentBytes = sentBytes;
+            lastDropped = dropped;
+            lastNoWire = noWire;
+            if(scheduler!=null){
+                printDispatch(seconds);
+            }
+        }
+
+    };
+
+    //Handlers run per second and schedule-to-run delay of the executor scheduler
+    private void printDispatch(double seconds) {
+        long dispatched = scheduler.getDispatched();
+        long latencyNs = scheduler.getLatencyNs();
+        long n = dispatched - lastDispatched;
+        log.info("DISPATCH scheduler {} handlers/s {} latency avg {} us max {} us", new Object[]{scheduler.getName(), Math.round(n / seconds),
+            n == 0 ? 0 : (latencyNs - lastLatencyNs) / n / 1000, scheduler.takeMaxLatencyNs() / 1000});
+        lastDispatched = dispatched;
+        lastLatencyNs = latencyNs;
+    }
+
+    private void scheduleKill(long delay) {
+        ScheduleTimeout st = new ScheduleTimeout(delay);
+        st.setTimeoutEvent(new KillTimeout(st));
+        trigger(st, timer);
+    }
+
+    //Process cpu time in ns, -1 when the JVM does not expose it
+    private long cpuTime() {
+        if(os instanceof com.sun.management.OperatingSystemMXBean){
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+
+
+    public static class UdpLauncherInit extends Init<UdpLauncherComp> {
+
+        public final List<NatedAddress> members;
+        public final Set<NatedAddress> seeds;
+        public final NatedAddress aggregatorAddress;
+        public final boolean runAggregator;
+        public final long seed;
+        public final int killCount;
+        public final long killAfter;
+        public final long killInterval;
+        public final int timerThreads;
+        public final boolean sharedSocket;
+        public final ExecutorScheduler scheduler;
+
+        //With sharedSocket every local node (members and aggregator) must have the same ip and port.
+        //scheduler is the one Kompics runs on when it is an ExecutorScheduler (for its stats), null otherwise
+        public UdpLauncherInit(List<NatedAddress> members, Set<NatedAddress> seeds, NatedAddress aggregatorAddress, boolean runAggregator,
+                long seed, int killCount, long killAfter, long killInterval, int timerThreads, boolean sharedSocket, ExecutorScheduler scheduler) {
+            this.members = members;
+            this.seeds = seeds;
+            this.aggregatorAddress = aggregatorAddress;
+            this.runAggregator = runAggregator;
+            this.seed = seed;
+            this.killCount = killCount;
+            this.killAfter = killAfter;
+            this.killInterval = killInterval;
+            this.timerThreads = timerThreads;
+            this.sharedSocket = sharedSocket;
+            this.scheduler = scheduler;
+        }
+    }
+
+    private static class ReportTimeout extends Timeout {
+
+        public ReportTimeout(SchedulePeriodicTimeout request) {
+            super(request);
+        }
+    }
+
+    private static class KillTimeout extends Timeout {
+
+        public KillTimeout(ScheduleTimeout request) {
+            super(request);
+        }
+    }
+}
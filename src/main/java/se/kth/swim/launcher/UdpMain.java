@@ -0,0 +1,163 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import se.kth.swim.simulation.SwimMain;
+import se.sics.kompics.Kompics;
+import se.sics.p2ptoolbox.util.network.NatType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
+
+/**
+ * Runs SWIM on real UDP sockets and the wall clock instead of the simulator, the whole HostComp: membership,
+ * croupier and the NAT layer. Three modes:
+ *
+ *   cluster N [port P] [seeds S] [nated] [kill K AFTER] [shared] [workers W] [duration D]
+ *       N members on loopback, ids 1..N on ports P+1..P+N (default 40000), the aggregator (id 0, port P)
+ *       in the same JVM; members 1..S (default 5) are the seeds. With "nated" the other members with an odd
+ *       id are NATed behind the seeds, as in the scenarios. K members are crashed, one per second,
+ *       starting AFTER seconds in. With "shared" all of them are on port P and share one socket and one
+ *       selector thread. Handlers run on W Kompics workers (default: one per core).
+ *       "scheduler pool" runs them on a pool of W platform threads instead, "scheduler virtual" on one
+ *       JDK 21 virtual thread per dispatch; both log DISPATCH stats every second.
+ *       Stops after D seconds (default: runs until killed).
+ *   member ID PORT AGGREGATOR [SEED...] [nated] [duration D]
+ *       one member in this JVM; AGGREGATOR and SEEDs are id@host:port. With "nated" it is NATed behind its
+ *       SEEDs, which then have to be open members
+ *   aggregator PORT [duration D]
+ *       the aggregator alone, id 0
+ *
+ * Any of the SwimMain flags (lifeguard, budget, objectstore, overlays, batched, ...) can follow. Addresses are on
+ * 127.0.0.1 unless "host IP" is given. NATed members are reached through their parents by the NAT layer, as in the
+ * simulator; their own socket is still reachable, nothing emulates the NAT box itself.
+ */
+public class UdpMain {
+
+    public static void main(String[] args) throws Exception {
+        //Same protocol settings as the kill scenarios
+        SwimMain.pbSize = 100;
+        SwimMain.kValue = 5;
+        SwimMain.disseminationValue = 50;
+        SwimMain.parseFlags(args, 1);
+
+        InetAddress host = InetAddress.getByName(option(args, "host", "127.0.0.1"));
+        long duration = Long.parseLong(option(args, "duration", "0"))*1000;
+        List<NatedAddress> members = new ArrayList<NatedAddress>();
+        Set<NatedAddress> seeds = new HashSet<NatedAddress>();
+        NatedAddress aggregator;
+        boolean runAggregator = false;
+        boolean shared = indexOf(args, "shared") > 0;
+        boolean nated = indexOf(args, "nated") > 0;
+        int workers = Integer.parseInt(option(args, "workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int killCount = 0;
+        long killAfter = 0;
+
+        if(args[0].equals("cluster")){
+            int n = Integer.parseInt(args[1]);
+            int basePort = Integer.parseInt(option(args, "port", "40000"));
+            int seedCount = Integer.parseInt(option(args, "seeds", "5"));
+            aggregator = address(0, host, basePort);
+            runAggregator = true;
+            for(int id = 1; id <= n && id <= seedCount; id++){
+                NatedAddress seed = address(id, host, shared ? basePort : basePort + id);
+                members.add(seed);
+                seeds.add(seed);
+            }
+            if(nated && seeds.isEmpty()){
+                throw new IllegalArgumentException("nated members need seeds to be their parents");
+            }
+            for(int id = seedCount + 1; id <= n; id++){
+                int port = shared ? basePort : basePort + id;
+                members.add(nated && id % 2 == 1 ? natedAddress(id, host, port, seeds) : address(id, host, port));
+            }
+            int k = indexOf(args, "kill");
+            if(k > 0){
+                killCount = Integer.parseInt(args[k+1]);
+                killAfter = Long.parseLong(args[k+2])*1000;
+            }
+        } else if(args[0].equals("member")){
+            aggregator = parse(args[3]);
+            for(int i = 4; i < args.length; i++){
+                if(args[i].contains("@")) seeds.add(parse(args[i]));
+            }
+            int id = Integer.parseInt(args[1]);
+            int port = Integer.parseInt(args[2]);
+            if(nated && seeds.isEmpty()){
+                throw new IllegalArgumentException("nated members need seeds to be their parents");
+            }
+            members.add(nated ? natedAddress(id, host, port, seeds) : address(id, host, port));
+        } else if(args[0].equals("aggregator")){
+            aggregator = address(0, host, Integer.parseInt(args[1]));
+            runAggregator = true;
+        } else {
+            throw new IllegalArgumentException("unknown mode " + args[0] + ", expected cluster, member or aggregator");
+        }
+
+        ExecutorScheduler scheduler = null;
+        String schedulerName = option(args, "scheduler", "kompics");
+        if(schedulerName.equals("pool")){
+            scheduler = ExecutorScheduler.platform(workers);
+        } else if(schedulerName.equals("virtual")){
+            scheduler = ExecutorScheduler.virtual();
+        }
+        if(scheduler!=null){
+            Kompics.setScheduler(scheduler);
+        }
+
+        int timerThreads = Math.max(1, Runtime.getRuntime().availableProcessors()/4);
+        Kompics.createAndStart(UdpLauncherComp.class, new UdpLauncherComp.UdpLauncherInit(members, seeds, aggregator, runAggregator,
+                1234L, killCount, killAfter, 1000, timerThreads, shared, scheduler), workers);
+        if(duration > 0){
+            Thread.sleep(duration);
+            Kompics.shutdown();
+            System.exit(0);
+        }
+        try {
+            Kompics.waitForTermination();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static NatedAddress address(int id, InetAddress ip, int port) {
+        return new BasicNatedAddress(new BasicAddress(ip, port, id));
+    }
+
+    private static NatedAddress natedAddress(int id, InetAddress ip, int port, Set<NatedAddress> parents) {
+        return new BasicNatedAddress(new BasicAddress(ip, port, id), NatType.NAT, new HashSet<NatedAddress>(parents));
+    }
+
+    //id@host:port
+    private static NatedAddress parse(String s) {
+        int at = s.indexOf('@');
+        int colon = s.lastIndexOf(':');
+        try {
+            return address(Integer.parseInt(s.substring(0, at)), InetAddress.getByName(s.substring(at+1, colon)), Integer.parseInt(s.substring(colon+1)));
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("cannot resolve " + s, ex);
+        }
+    }
+
+    private static int indexOf(String[] args, String name) {
+        for(int i = 1; i < args.length; i++){
+            if(args[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        int i = indexOf(args, name);
+        return i > 0 && i+1 < args.length ? args[i+1] : defaultValue;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.msg.net.NetMsg;
+import se.kth.swim.msg.net.SwimCodec;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Start;
+import se.sics.kompics.Stop;
+import se.sics.kompics.network.Network;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Network port on a real UDP socket: one non-blocking DatagramChannel bound to the ip and port of the host
+ * address, messages in the SwimCodec wire format, one message per datagram. Sends happen on the handler
+ * thread and never block: a datagram the socket has no room for is dropped, as the network would. A selector
+ * thread reads the socket and triggers every datagram addressed to one of the node ids served on the port.
+ * One instance can serve many hosts of a JVM that share its ip and port and differ by node id: the hosts are
+ * then connected through a DestinationFilter each, so a message only reaches the host it is addressed to, and
+ * the whole JVM has one socket and one selector thread.
+ * A message goes to the socket of its header destination: for a NATed member that is the parent the NAT layer
+ * relays through (SourceHeader), which forwards it in a RelayHeader. A message SwimCodec has no format for is
+ * counted and dropped; only the NAT layer's local events are, and they never reach the network.
+ */
+public class UdpNetworkComp extends ComponentDefinition {
+
+    private static final Logger log = LoggerFactory.getLogger(UdpNetworkComp.class);
+    private Negative<Network> network = provides(Network.class);
+    private Negative<UdpControlPort> udpControl = provides(UdpControlPort.class);
+
+    //Largest UDP payload over IPv4
+    static final int MAX_DATAGRAM = 65507;
+
+    private final NatedAddress selfAddress;
+    private final Set<Integer> nodeIds;
+    private final Set<Integer> crashed = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final Traffic traffic;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+    private DatagramChannel channel;
+    private Selector selector;
+
+    public UdpNetworkComp(UdpNetworkInit init) {
+        this.selfAddress = init.selfAddress;
+        this.nodeIds = init.nodeIds;
+        this.traffic = init.traffic;
+
+        subscribe(handleStart, control);
+        subscribe(handleStop, control);
+        subscribe(handleOutgoingMsg, network);
+        subscribe(handleCrash, udpControl);
+    }
+
+    private Handler<Start> handleStart = new Handler<Start>() {
+
+        @Override
+        public void handle(Start event) {
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().bind(new InetSocketAddress(selfAddress.getIp(), selfAddress.getPort()));
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException ex) {
+                throw new RuntimeException("cannot bind " + selfAddress, ex);
+            }
+            Thread reader = new Thread(new Reader(), "udp-" + selfAddress.getPort());
+            reader.setDaemon(true);
+            reader.start();
+            log.info("{}:{} listening for {} nodes", new Object[]{selfAddress.getIp().getHostAddress(), selfAddress.getPort(), nodeIds.size()});
+        }
+
+    };
+
+    private Handler<Stop> handleStop = new Handler<Stop>() {
+
+        @Override
+        public void handle(Stop event) {
+            close();
+        }
+
+    };
+
+    private Handler<Crash> handleCrash = new Handler<Crash>() {
+
+        @Override
+        public void handle(Crash event) {
+            log.info("{} crashed", new Object[]{event.nodeId});
+            crashed.add(event.nodeId);
+            if(crashed.containsAll(nodeIds)){
+                close();
+            }
+        }
+
+    };
+
+    private Handler<NetMsg<Object>> handleOutgoingMsg = new Handler<NetMsg<Object>>() {
+
+        @Override
+        public void handle(NetMsg<Object> msg) {
+            if(crashed.contains(msg.getHeader().getSource().getId())) return;
+            if(!SwimCodec.canEncode(msg)){
+                traffic.noWire.incrementAndGet();
+                return;
+            }
+            sendBuffer.clear();
+            try {
+                SwimCodec.encode(msg, sendBuffer);
+            } catch (BufferOverflowException ex) {
+                traffic.dropped.incrementAndGet();
+                return;
+            }
+            sendBuffer.flip();
+            int bytes = sendBuffer.remaining();
+            try {
+                if(channel.send(sendBuffer, msg.getHeader().getDestination().asSocket())==0){
+                    traffic.dropped.incrementAndGet();
+                    return;
+                }
+            } catch (IOException ex) {
+                //ICMP unreachable from a crashed peer and the like: UDP gives no guarantees anyway
+                traffic.dropped.incrementAndGet();
+                return;
+            }
+            traffic.sent.incrementAndGet();
+            traffic.sentBytes.addAndGet(bytes);
+        }
+
+    };
+
+    private void close() {
+        try {
+            if(selector!=null) selector.close();
+            if(channel!=null) channel.close();
+        } catch (IOException ex) {
+            log.warn("{} closing socket: {}", new Object[]{selfAddress.getPort(), ex.getMessage()});
+        }
+    }
+
+
+
+    public static class UdpNetworkInit extends Init<UdpNetworkComp> {
+
+        public final NatedAddress selfAddress;
+        public final Set<Integer> nodeIds;
+        public final Traffic traffic;
+
+        public UdpNetworkInit(NatedAddress selfAddress, Traffic traffic) {
+            this(selfAddress, Collections.singleton(selfAddress.getId()), traffic);
+        }
+
+        //The socket is bound to the ip and port of selfAddress and serves every node id in nodeIds
+        public UdpNetworkInit(NatedAddress selfAddress, Set<Integer> nodeIds, Traffic traffic) {
+            this.selfAddress = selfAddress;
+            this.nodeIds = Collections.unmodifiableSet(new HashSet<Integer>(nodeIds));
+            this.traffic = traffic;
+        }
+    }
+
+    //Selector loop: drains the socket on every wakeup, until the selector is closed
+    private class Reader implements Runnable {
+
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+
+        @Override
+        public void run() {
+            try {
+                while(selector.isOpen()){
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    while(channel.receive(receiveBuffer)!=null){
+                        receiveBuffer.flip();
+                        deliver(receiveBuffer);
+                        receiveBuffer.clear();
+                    }
+                }
+            } catch (ClosedSelectorException ex) {
+                //stopped or crashed
+            } catch (IOException ex) {
+                if(channel.isOpen()){
+                    log.warn("{} socket failed: {}", new Object[]{selfAddress.getPort(), ex.getMessage()});
+                }
+            }
+        }
+
+        private void deliver(ByteBuffer datagram) {
+            int bytes = datagram.remaining();
+            NetMsg msg;
+            try {
+                msg = SwimCodec.decode(datagram);
+            } catch (IllegalArgumentException ex) {
+                traffic.noWire.incrementAndGet();
+                return;
+            }
+            traffic.received.incrementAndGet();
+            traffic.receivedBytes.addAndGet(bytes);
+            Integer dst = ((NatedAddress) msg.getHeader().getDestination()).getId();
+            //a datagram for a node that is not served here (the previous owner of the port, a stale address)
+            if(!nodeIds.contains(dst)){
+                traffic.dropped.incrementAndGet();
+                return;
+            }
+            if(crashed.contains(dst)) return;
+            trigger(msg, network);
+        }
+    }
+}
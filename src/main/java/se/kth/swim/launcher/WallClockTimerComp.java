@@ -0,0 +1,141 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.launcher;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Stop;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.CancelTimeout;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+import se.sics.kompics.timer.Timer;
+
+/**
+ * Timer port on the wall clock, for running hosts outside the simulator. Every host gets its own instance (a
+ * timeout is delivered to everything connected to the port, so hosts cannot share one), but the instances share
+ * the executor they are given, so a JVM with hundreds of hosts still has a handful of timer threads.
+ */
+public class WallClockTimerComp extends ComponentDefinition {
+
+    private static final Logger log = LoggerFactory.getLogger(WallClockTimerComp.class);
+    private Negative<Timer> timer = provides(Timer.class);
+
+    private final ScheduledExecutorService executor;
+    private final ConcurrentHashMap<UUID, Pending> pending = new ConcurrentHashMap<UUID, Pending>();
+
+    public WallClockTimerComp(WallClockTimerInit init) {
+        this.executor = init.executor;
+
+        subscribe(handleSchedule, timer);
+        subscribe(handleSchedulePeriodic, timer);
+        subscribe(handleCancel, timer);
+        subscribe(handleCancelPeriodic, timer);
+        subscribe(handleStop, control);
+    }
+
+    private Handler<ScheduleTimeout> handleSchedule = new Handler<ScheduleTimeout>() {
+
+        @Override
+        public void handle(ScheduleTimeout event) {
+            Pending p = new Pending(event.getTimeoutEvent(), false);
+            pending.put(p.timeout.getTimeoutId(), p);
+            p.future = executor.schedule(p, event.getDelay(), TimeUnit.MILLISECONDS);
+        }
+
+    };
+
+    private Handler<SchedulePeriodicTimeout> handleSchedulePeriodic = new Handler<SchedulePeriodicTimeout>() {
+
+        @Override
+        public void handle(SchedulePeriodicTimeout event) {
+            Pending p = new Pending(event.getTimeoutEvent(), true);
+            pending.put(p.timeout.getTimeoutId(), p);
+            p.future = executor.scheduleAtFixedRate(p, event.getDelay(), event.getPeriod(), TimeUnit.MILLISECONDS);
+        }
+
+    };
+
+    private Handler<CancelTimeout> handleCancel = new Handler<CancelTimeout>() {
+
+        @Override
+        public void handle(CancelTimeout event) {
+            cancel(event.getTimeoutId());
+        }
+
+    };
+
+    private Handler<CancelPeriodicTimeout> handleCancelPeriodic = new Handler<CancelPeriodicTimeout>() {
+
+        @Override
+        public void handle(CancelPeriodicTimeout event) {
+            cancel(event.getTimeoutId());
+        }
+
+    };
+
+    private Handler<Stop> handleStop = new Handler<Stop>() {
+
+        @Override
+        public void handle(Stop event) {
+            log.debug("stopping with {} timeouts pending", pending.size());
+            for(UUID id : pending.keySet()){
+                cancel(id);
+            }
+        }
+
+    };
+
+    //Cancelling a timeout that already fired (or was never set) is not an error, as with the Kompics timer
+    private void cancel(UUID id) {
+        Pending p = pending.remove(id);
+        if(p!=null && p.future!=null){
+            p.future.cancel(false);
+        }
+    }
+
+
+
+    public static class WallClockTimerInit extends Init<WallClockTimerComp> {
+
+        public final ScheduledExecutorService executor;
+
+        public WallClockTimerInit(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+    }
+
+    //A timeout fires only while it is still in the pending table, so a cancel that races the executor wins
+    private class Pending implements Runnable {
+        private final Timeout timeout;
+        private final boolean periodic;
+        private volatile ScheduledFuture<?> future;
+
+        private Pending(Timeout timeout, boolean periodic) {
+            this.timeout = timeout;
+            this.periodic = periodic;
+        }
+
+        @Override
+        public void run() {
+            UUID id = timeout.getTimeoutId();
+            if(periodic ? pending.get(id)==this : pending.remove(id, this)){
+                trigger(timeout, timer);
+            }
+        }
+    }
+}
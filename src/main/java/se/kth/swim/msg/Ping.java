@@ -35,15 +35,22 @@ public class Ping {
     public Integer incarnationValue;
     public NatedAddress toPing;
     public HashSet<NatedAddress> parentsList = new HashSet<NatedAddress>();
+    public int seq; //probe sequence number (direct probes) or session (indirect ones), chosen by the prober and echoed back
     
     public Ping(){
     }
     
+        //The list is kept, not copied: senders hand over lists they no longer change (see PiggybackList.getList)
         public Ping(ArrayList<InfoPiggyback> a, Integer i){        
-          infoList = new ArrayList<InfoPiggyback>(a);
+          infoList = a;
           incarnationValue = i;
         }
         
+        public Ping(ArrayList<InfoPiggyback> a, Integer i, int seq){
+          this(a, i);
+          this.seq = seq;
+        }
+        
         public Ping(ArrayList<InfoPiggyback> a, Integer i, HashSet<NatedAddress> parents){
             infoList = new ArrayList<InfoPiggyback>(a);
             incarnationValue = i;
@@ -53,8 +60,23 @@ public class Ping {
         public Ping(Integer i){
             incarnationValue = i;
         }
+        
+        public Ping(Integer i, int seq){
+            incarnationValue = i;
+            this.seq = seq;
+        }
        
         public Ping(NatedAddress na){
             toPing=na;
         }
+        
+        public Ping(NatedAddress na, int seq){
+            toPing=na;
+            this.seq=seq;
+        }
+        
+        public Ping(NatedAddress na, int seq, ArrayList<InfoPiggyback> a){
+            this(na, seq);
+            infoList = a;
+        }
 }
@@ -19,6 +19,8 @@
 
 package se.kth.swim.msg;
 
+import java.util.HashMap;
+
 /**
  * @author Alex Ormenisan <aaor@sics.se>
  */
@@ -33,6 +35,18 @@ public class Status {
     public Integer newParentPB;
     public Integer deadParentPB;
     public Integer parentsSize;
+    //Optional stats, set field by field by the nodes that report them (null: not reported)
+    public HashMap<Integer,Long> detections; //node id -> time this node declared it dead
+    public Integer tombstones;
+    public Integer localHealth;
+    public int[] rttBuckets; //RTTs of this node's probes so far, power-of-two ms buckets
+    public Integer latePongs;
+    public Integer duplicatePongs;
+    public Integer timerEvents; //timer port requests and timeouts since last status
+    public Integer wheelEvents; //timer wheel schedules, cancels and expiries since last status
+    public Integer pbMessages; //PINGs, PING-REQs, PING-RESPs and PONGs that carried piggyback since last status (PONGs only with pongonly), with their entries and estimated bytes
+    public Integer pbEntries;
+    public Integer pbBytes;
     
     public Status(int receivedPings) {
         this.receivedPings = receivedPings;
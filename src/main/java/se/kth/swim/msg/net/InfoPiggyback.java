@@ -96,6 +96,45 @@ public class InfoPiggyback implements Serializable {
         this.infoParent = newParent;
     }
     
+    //Membership rumours (NEWNODE, ALIVENODE, SUSPECTEDNODE, DEADNODE) of a node compete with each other,
+    //parent rumours compete per (node, parent) link
+    public boolean isParentInfo() {
+        return infoType==InfoType.NEWPARENT || infoType==InfoType.DEADPARENT;
+    }
+    
+    /*
+    SWIM precedence between two rumours on the same subject: the higher incarnation wins, at equal incarnation
+    DEADNODE beats SUSPECTEDNODE beats ALIVENODE/NEWNODE. For parent links a rumour of the other kind wins.
+    */
+    public boolean supersedes(InfoPiggyback older) {
+        if(isParentInfo()) return infoType!=older.infoType;
+        if(!incarnationValue.equals(older.incarnationValue)) return incarnationValue>older.incarnationValue;
+        return strength()>older.strength();
+    }
+    
+    private int strength() {
+        switch(infoType){
+            case DEADNODE: return 2;
+            case SUSPECTEDNODE: return 1;
+            default: return 0;
+        }
+    }
+    
+    //Equal rumours are about the same subject (see isParentInfo), whatever their type and incarnation
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof InfoPiggyback)) return false;
+        InfoPiggyback other = (InfoPiggyback) o;
+        if(isParentInfo()!=other.isParentInfo() || !infoTarget.getId().equals(other.infoTarget.getId())) return false;
+        return !isParentInfo() || infoParent.getId().equals(other.infoParent.getId());
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = infoTarget.getId()*2 + (isParentInfo() ? 1 : 0);
+        return isParentInfo() ? h*31 + infoParent.getId() : h;
+    }
+    
     
     
 }
@@ -18,6 +18,7 @@
  */
 package se.kth.swim.msg.net;
 
+import java.util.ArrayList;
 import se.kth.swim.msg.Ping;
 import se.sics.kompics.network.Header;
 import se.sics.p2ptoolbox.util.network.NatedAddress;
@@ -31,6 +32,19 @@ public class NetPing extends NetMsg<Ping> {
         super(src, dst, new Ping(incVal));
     }
 
+    public NetPing(NatedAddress src, NatedAddress dst, Integer incVal, int seq) {
+        super(src, dst, new Ping(incVal, seq));
+    }
+
+    public NetPing(NatedAddress src, NatedAddress dst, ArrayList<InfoPiggyback> updates, Integer incVal, int seq) {
+        super(src, dst, new Ping(updates, incVal, seq));
+    }
+
+
+    //Decoded from the wire (SwimCodec)
+    NetPing(NatedAddress src, NatedAddress dst, Ping content) {
+        super(src, dst, content);
+    }
 
     private NetPing(Header<NatedAddress> header, Ping content) {
         super(header, content);
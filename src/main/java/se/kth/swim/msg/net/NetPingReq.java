@@ -5,6 +5,7 @@
  */
 package se.kth.swim.msg.net;
 
+import java.util.ArrayList;
 import se.kth.swim.msg.Ping;
 import se.sics.kompics.network.Header;
 import se.sics.p2ptoolbox.util.network.NatedAddress;
@@ -12,8 +13,17 @@ import se.sics.p2ptoolbox.util.network.NatedAddress;
 public class NetPingReq extends NetMsg<Ping> {
     
 
-    public NetPingReq(NatedAddress src, NatedAddress dst, NatedAddress toPing) {
-        super(src, dst, new Ping(toPing));
+    public NetPingReq(NatedAddress src, NatedAddress dst, NatedAddress toPing, int seq) {
+        super(src, dst, new Ping(toPing, seq));
+    }
+
+    public NetPingReq(NatedAddress src, NatedAddress dst, NatedAddress toPing, int seq, ArrayList<InfoPiggyback> updates) {
+        super(src, dst, new Ping(toPing, seq, updates));
+    }
+
+    //Decoded from the wire (SwimCodec)
+    NetPingReq(NatedAddress src, NatedAddress dst, Ping content) {
+        super(src, dst, content);
     }
 
     private NetPingReq(Header<NatedAddress> header, Ping content) {
@@ -6,6 +6,7 @@
 
 package se.kth.swim.msg.net;
 
+import java.util.ArrayList;
 import se.kth.swim.msg.Ping;
 import se.sics.kompics.network.Header;
 import se.sics.p2ptoolbox.util.network.NatedAddress;
@@ -17,11 +18,20 @@ import se.sics.p2ptoolbox.util.network.NatedAddress;
 public class NetPingResp extends NetMsg<Ping> {
 
      
-    public NetPingResp(NatedAddress src, NatedAddress dst, NatedAddress address) {
-        super(src, dst, new Ping(address));
+    public NetPingResp(NatedAddress src, NatedAddress dst, NatedAddress address, int seq) {
+        super(src, dst, new Ping(address, seq));
+    }
+
+    public NetPingResp(NatedAddress src, NatedAddress dst, NatedAddress address, int seq, ArrayList<InfoPiggyback> updates) {
+        super(src, dst, new Ping(address, seq, updates));
     }
     
 
+    //Decoded from the wire (SwimCodec)
+    NetPingResp(NatedAddress src, NatedAddress dst, Ping content) {
+        super(src, dst, content);
+    }
+
     private NetPingResp(Header<NatedAddress> header, Ping content) {
         super(header, content);
     }
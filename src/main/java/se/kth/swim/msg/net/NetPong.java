@@ -32,6 +32,11 @@ public class NetPong extends NetMsg<Ping> {
         super(src, dst, new Ping());
     }
 
+    //Decoded from the wire (SwimCodec)
+    NetPong(NatedAddress src, NatedAddress dst, Ping content) {
+        super(src, dst, content);
+    }
+
     private NetPong(Header<NatedAddress> header, Ping content) {
         super(header, content);
     }
@@ -39,6 +44,11 @@ public class NetPong extends NetMsg<Ping> {
     public NetPong(NatedAddress src, NatedAddress dst, ArrayList<InfoPiggyback> updates, Integer incVal) {
         super(src, dst, new Ping(updates, incVal));
     }
+
+    //Echoes the sequence number of the ping it answers
+    public NetPong(NatedAddress src, NatedAddress dst, ArrayList<InfoPiggyback> updates, Integer incVal, int seq) {
+        super(src, dst, new Ping(updates, incVal, seq));
+    }
    
     
     @Override
@@ -0,0 +1,726 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.msg.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import se.kth.swim.croupier.internal.CroupierContainer;
+import se.kth.swim.croupier.internal.CroupierShuffle;
+import se.kth.swim.croupier.internal.CroupierShuffleNet;
+import se.kth.swim.croupier.msg.CroupierStatus;
+import se.kth.swim.croupier.msg.CroupierStatusNet;
+import se.kth.swim.croupier.util.OverlayHeaderImpl;
+import se.kth.swim.msg.Ping;
+import se.kth.swim.msg.Status;
+import se.sics.kompics.network.Header;
+import se.sics.kompics.network.Transport;
+import se.sics.p2ptoolbox.util.network.NatType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicHeader;
+import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.RelayHeader;
+import se.sics.p2ptoolbox.util.network.impl.SourceHeader;
+
+/**
+ * Binary wire format of the messages a host sends: the SWIM messages (NetPing, NetPong, NetPingReq, NetPingResp,
+ * NetStatus), the croupier shuffles (CroupierShuffleNet, single and batched) and CroupierStatusNet, and the
+ * NetParentPing of the NAT layer. The other NAT messages (NetNewParent, NetDeadParent, NetDeadNotification) are
+ * only ever triggered locally.
+ *
+ * A message is: type byte, address table, framing byte, source and destination, content. Every address the
+ * message mentions (header, relay, ping target, rumour targets and parents, croupier descriptors, and their own
+ * parents) is written once in the table as id, ip, port, nat type and parent references; everywhere else,
+ * parents included, an address is a reference, its varint index in the table. Parents come before the addresses
+ * that list them, so a parent reference always points backwards. The same node may appear several times with different parent sets (a NEWPARENT rumour
+ * and the older address in the header, say): each distinct address gets its own entry, nothing is merged by id.
+ * Ids, incarnations and counters are zigzag varints. Rumours keep the order of the list: their targets are
+ * table references, already one byte each below 128 addresses, so sorting them for delta encoding saves nothing.
+ * The framing byte says what header the message travels in: a plain one, the OverlayHeaderImpl of a croupier
+ * shuffle (its overlay id follows the destination), and around either of them the SourceHeader a NATed
+ * destination is reached through or the RelayHeader its parent forwards it in (the relay reference follows).
+ * Croupier descriptors go as source reference and age: their content is a local marker no receiver reads, and
+ * decodes as null.
+ */
+public final class SwimCodec {
+
+    private static final byte PING = 1;
+    private static final byte PONG = 2;
+    private static final byte PING_REQ = 3;
+    private static final byte PING_RESP = 4;
+    private static final byte STATUS = 5;
+    private static final byte CROUPIER_REQUEST = 6;
+    private static final byte CROUPIER_RESPONSE = 7;
+    private static final byte CROUPIER_BATCH_REQUEST = 8;
+    private static final byte CROUPIER_BATCH_RESPONSE = 9;
+    private static final byte CROUPIER_STATUS = 10;
+    private static final byte PARENT_PING = 11;
+
+    //Framing bits
+    private static final int OVERLAY = 1;
+    private static final int SOURCE = 2;
+    private static final int RELAYED = 4;
+
+    //CroupierShuffle.Basic refuses more descriptors per view
+    private static final int MAX_DESCRIPTORS = 128;
+
+    private static final InfoType[] INFO_TYPES = InfoType.values();
+    private static final NatType[] NAT_TYPES = NatType.values();
+
+    //Encoding scratch, reused message after message by each sending thread
+    private static final ThreadLocal<AddressTable> TABLES = new ThreadLocal<AddressTable>() {
+        @Override
+        protected AddressTable initialValue() {
+            return new AddressTable();
+        }
+    };
+
+    private SwimCodec() {
+    }
+
+    public static boolean canEncode(NetMsg msg) {
+        return typeOf(msg)!=0;
+    }
+
+    private static byte typeOf(NetMsg msg) {
+        if(msg instanceof NetPing) return PING;
+        if(msg instanceof NetPong) return PONG;
+        if(msg instanceof NetPingReq) return PING_REQ;
+        if(msg instanceof NetPingResp) return PING_RESP;
+        if(msg instanceof NetStatus) return STATUS;
+        if(msg instanceof CroupierShuffleNet.Request) return CROUPIER_REQUEST;
+        if(msg instanceof CroupierShuffleNet.Response) return CROUPIER_RESPONSE;
+        if(msg instanceof CroupierShuffleNet.BatchRequest) return CROUPIER_BATCH_REQUEST;
+        if(msg instanceof CroupierShuffleNet.BatchResponse) return CROUPIER_BATCH_RESPONSE;
+        if(msg instanceof CroupierStatusNet) return CROUPIER_STATUS;
+        if(msg instanceof NetParentPing) return PARENT_PING;
+        return 0;
+    }
+
+    //Writes the message at the buffer position, BufferOverflowException if it does not fit
+    public static void encode(NetMsg msg, ByteBuffer buf) {
+        byte type = typeOf(msg);
+        if(type==0) throw new IllegalArgumentException("no wire format for " + msg.getClass().getSimpleName());
+
+        //the relay headers wrap the header the message was sent in
+        Header<NatedAddress> header = msg.getHeader();
+        NatedAddress relay = null;
+        int framing = 0;
+        if(header instanceof SourceHeader){
+            relay = header.getDestination();
+            header = ((SourceHeader<NatedAddress>) header).getRelayHeader().getActualHeader();
+            framing |= SOURCE;
+        } else if(header instanceof RelayHeader){
+            relay = header.getSource();
+            header = ((RelayHeader<NatedAddress>) header).getActualHeader();
+            framing |= RELAYED;
+        }
+        if(header instanceof OverlayHeaderImpl) framing |= OVERLAY;
+
+        NatedAddress src = header.getSource();
+        NatedAddress dst = header.getDestination();
+        AddressTable table = TABLES.get();
+        try {
+            table.ref(src);
+            table.ref(dst);
+            if(relay!=null) table.ref(relay);
+            Ping ping = null;
+            if(type<=PING_RESP){
+                ping = (Ping) msg.getContent();
+                if(ping.toPing!=null) table.ref(ping.toPing);
+                for(NatedAddress na : ping.parentsList){
+                    table.ref(na);
+                }
+                if(ping.infoList!=null){
+                    for(int i = 0; i < ping.infoList.size(); i++){
+                        InfoPiggyback ipb = ping.infoList.get(i);
+                        table.ref(ipb.getInfoTarget());
+                        if(ipb.isParentInfo()) table.ref(ipb.getInfoParent());
+                    }
+                }
+            } else if(type==CROUPIER_REQUEST || type==CROUPIER_RESPONSE){
+                refShuffle(table, (CroupierShuffle.Basic) msg.getContent());
+            } else if(type==CROUPIER_BATCH_REQUEST || type==CROUPIER_BATCH_RESPONSE){
+                for(Object shuffle : ((CroupierShuffle.Batch) msg.getContent()).shuffles.values()){
+                    refShuffle(table, (CroupierShuffle.Basic) shuffle);
+                }
+            }
+
+            buf.put(type);
+            writeVarint(buf, table.size);
+            for(int i = 0; i < table.size; i++){
+                table.write(buf, i);
+            }
+            buf.put((byte) framing);
+            writeVarint(buf, table.ref(src));
+            writeVarint(buf, table.ref(dst));
+            if((framing & OVERLAY)!=0) writeZigzag(buf, ((OverlayHeaderImpl) header).getOverlayId());
+            if(relay!=null) writeVarint(buf, table.ref(relay));
+            switch(type){
+                case STATUS: writeStatus(buf, ((NetStatus) msg).getContent()); break;
+                case CROUPIER_REQUEST:
+                case CROUPIER_RESPONSE: writeShuffle(buf, (CroupierShuffle.Basic) msg.getContent(), table); break;
+                case CROUPIER_BATCH_REQUEST:
+                case CROUPIER_BATCH_RESPONSE: writeBatch(buf, (CroupierShuffle.Batch) msg.getContent(), table); break;
+                case CROUPIER_STATUS: writeCroupierStatus(buf, ((CroupierStatusNet) msg).getContent()); break;
+                case PARENT_PING: break;
+                default: writePing(buf, ping, table);
+            }
+        } finally {
+            table.clear();
+        }
+    }
+
+    public static int encodedSize(NetMsg msg, ByteBuffer scratch) {
+        scratch.clear();
+        encode(msg, scratch);
+        return scratch.position();
+    }
+
+    //Reads one message from the buffer position, IllegalArgumentException if the bytes are not a valid message
+    public static NetMsg decode(ByteBuffer buf) {
+        try {
+            byte type = buf.get();
+            NatedAddress[] table = new NatedAddress[readLength(buf)];
+            for(int i = 0; i < table.length; i++){
+                table[i] = readAddress(buf, table, i);
+            }
+            int framing = buf.get();
+            if((framing & ~(OVERLAY | SOURCE | RELAYED))!=0 || (framing & (SOURCE | RELAYED))==(SOURCE | RELAYED)){
+                throw new IllegalArgumentException("bad framing " + framing);
+            }
+            NatedAddress src = lookup(table, readVarint(buf));
+            NatedAddress dst = lookup(table, readVarint(buf));
+            //only built when the message does not travel in the plain header its constructor gives it
+            Header<NatedAddress> header = null;
+            if((framing & OVERLAY)!=0){
+                header = new OverlayHeaderImpl<NatedAddress>(new BasicHeader<NatedAddress>(src, dst, Transport.UDP), readZigzag(buf));
+            }
+            if((framing & (SOURCE | RELAYED))!=0){
+                NatedAddress relay = lookup(table, readVarint(buf));
+                SourceHeader<NatedAddress> sourceHeader = new SourceHeader(header!=null ? header : new BasicHeader<NatedAddress>(src, dst, Transport.UDP), relay);
+                header = (framing & RELAYED)!=0 ? sourceHeader.getRelayHeader() : sourceHeader;
+            }
+            NetMsg msg = readContent(type, buf, table, src, dst);
+            return header==null ? msg : msg.copyMessage(header);
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("truncated message", ex);
+        }
+    }
+
+    private static NetMsg readContent(byte type, ByteBuffer buf, NatedAddress[] table, NatedAddress src, NatedAddress dst) {
+        switch(type){
+            case PING: return new NetPing(src, dst, readPing(buf, table));
+            case PONG: return new NetPong(src, dst, readPing(buf, table));
+            case PING_REQ: return new NetPingReq(src, dst, readPing(buf, table));
+            case PING_RESP: return new NetPingResp(src, dst, readPing(buf, table));
+            case STATUS: return new NetStatus(src, dst, readStatus(buf));
+            case CROUPIER_REQUEST: {
+                UUID id = readUUID(buf);
+                return new CroupierShuffleNet.Request(new BasicHeader<NatedAddress>(src, dst, Transport.UDP),
+                        new CroupierShuffle.Request(id, readDescriptors(buf, table), readDescriptors(buf, table)));
+            }
+            case CROUPIER_RESPONSE: {
+                UUID id = readUUID(buf);
+                return new CroupierShuffleNet.Response(new BasicHeader<NatedAddress>(src, dst, Transport.UDP),
+                        new CroupierShuffle.Response(id, readDescriptors(buf, table), readDescriptors(buf, table)));
+            }
+            case CROUPIER_BATCH_REQUEST: {
+                UUID id = readUUID(buf);
+                int n = readLength(buf);
+                Map<Integer, CroupierShuffle.Request> shuffles = new HashMap<Integer, CroupierShuffle.Request>();
+                for(int i = 0; i < n; i++){
+                    int overlayId = readZigzag(buf);
+                    UUID shuffleId = readUUID(buf);
+                    shuffles.put(overlayId, new CroupierShuffle.Request(shuffleId, readDescriptors(buf, table), readDescriptors(buf, table)));
+                }
+                return new CroupierShuffleNet.BatchRequest(src, dst, new CroupierShuffle.Batch<CroupierShuffle.Request>(id, shuffles));
+            }
+            case CROUPIER_BATCH_RESPONSE: {
+                UUID id = readUUID(buf);
+                int n = readLength(buf);
+                Map<Integer, CroupierShuffle.Response> shuffles = new HashMap<Integer, CroupierShuffle.Response>();
+                for(int i = 0; i < n; i++){
+                    int overlayId = readZigzag(buf);
+                    UUID shuffleId = readUUID(buf);
+                    shuffles.put(overlayId, new CroupierShuffle.Response(shuffleId, readDescriptors(buf, table), readDescriptors(buf, table)));
+                }
+                return new CroupierShuffleNet.BatchResponse(src, dst, new CroupierShuffle.Batch<CroupierShuffle.Response>(id, shuffles));
+            }
+            case CROUPIER_STATUS: return new CroupierStatusNet(src, dst, readCroupierStatus(buf));
+            case PARENT_PING: return new NetParentPing(src, dst);
+            default: throw new IllegalArgumentException("unknown message type " + type);
+        }
+    }
+
+
+
+    //Entry i of the table: its parents can only be entries before it, which also rules out parent cycles
+    private static NatedAddress readAddress(ByteBuffer buf, NatedAddress[] table, int i) {
+        int id = readZigzag(buf);
+        int length = buf.get();
+        if(length!=4 && length!=16) throw new IllegalArgumentException("bad ip length " + length);
+        byte[] ip = new byte[length];
+        buf.get(ip);
+        InetAddress inet;
+        try {
+            inet = InetAddress.getByAddress(ip);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("bad ip of " + id, ex);
+        }
+        int port = readVarint(buf);
+        NatType natType = NAT_TYPES[checkIndex(buf.get(), NAT_TYPES.length)];
+        int n = readLength(buf);
+        BasicAddress base = new BasicAddress(inet, port, id);
+        if(natType==NatType.OPEN && n==0){
+            return new BasicNatedAddress(base);
+        }
+        Set<NatedAddress> parents = new HashSet<NatedAddress>();
+        for(int j = 0; j < n; j++){
+            int parent = readVarint(buf);
+            if(parent<0 || parent>=i) throw new IllegalArgumentException("parent reference " + parent + " of entry " + i);
+            parents.add(table[parent]);
+        }
+        return new BasicNatedAddress(base, natType, parents);
+    }
+
+    private static NatedAddress lookup(NatedAddress[] table, int ref) {
+        if(ref<0 || ref>=table.length) throw new IllegalArgumentException("address " + ref + " missing from the address table");
+        return table[ref];
+    }
+
+    //flags: 1 rumours, 2 incarnation, 4 target, 8 parents
+    private static void writePing(ByteBuffer buf, Ping ping, AddressTable table) {
+        int flags = (ping.infoList!=null ? 1 : 0) | (ping.incarnationValue!=null ? 2 : 0) | (ping.toPing!=null ? 4 : 0)
+                | (!ping.parentsList.isEmpty() ? 8 : 0);
+        buf.put((byte) flags);
+        writeZigzag(buf, ping.seq);
+        if(ping.incarnationValue!=null) writeZigzag(buf, ping.incarnationValue);
+        if(ping.toPing!=null) writeVarint(buf, table.ref(ping.toPing));
+        if(!ping.parentsList.isEmpty()){
+            writeVarint(buf, ping.parentsList.size());
+            for(NatedAddress na : ping.parentsList){
+                writeVarint(buf, table.ref(na));
+            }
+        }
+        if(ping.infoList!=null){
+            writeVarint(buf, ping.infoList.size());
+            for(int i = 0; i < ping.infoList.size(); i++){
+                InfoPiggyback ipb = ping.infoList.get(i);
+                writeVarint(buf, table.ref(ipb.getInfoTarget()));
+                buf.put((byte) ipb.getInfoType().ordinal());
+                if(ipb.isParentInfo()){
+                    writeVarint(buf, table.ref(ipb.getInfoParent()));
+                } else {
+                    writeZigzag(buf, ipb.getIncarnationValue());
+                }
+            }
+        }
+    }
+
+    private static Ping readPing(ByteBuffer buf, NatedAddress[] table) {
+        Ping ping = new Ping();
+        int flags = buf.get();
+        ping.seq = readZigzag(buf);
+        if((flags & 2)!=0) ping.incarnationValue = readZigzag(buf);
+        if((flags & 4)!=0) ping.toPing = lookup(table, readVarint(buf));
+        if((flags & 8)!=0){
+            int n = readLength(buf);
+            for(int i = 0; i < n; i++){
+                ping.parentsList.add(lookup(table, readVarint(buf)));
+            }
+        }
+        if((flags & 1)!=0){
+            int n = readLength(buf);
+            ping.infoList = new ArrayList<InfoPiggyback>(n);
+            for(int i = 0; i < n; i++){
+                NatedAddress target = lookup(table, readVarint(buf));
+                InfoType type = INFO_TYPES[checkIndex(buf.get(), INFO_TYPES.length)];
+                if(type==InfoType.NEWPARENT || type==InfoType.DEADPARENT){
+                    ping.infoList.add(new InfoPiggyback(type, target, lookup(table, readVarint(buf))));
+                } else {
+                    ping.infoList.add(new InfoPiggyback(type, target, readZigzag(buf)));
+                }
+            }
+        }
+        return ping;
+    }
+
+    //Presence mask of the optional fields, in declaration order of Status, then detections and rttBuckets
+    private static void writeStatus(ByteBuffer buf, Status s) {
+        Integer[] fields = optionalFields(s);
+        int mask = 0;
+        for(int i = 0; i < fields.length; i++){
+            if(fields[i]!=null) mask |= 1<<i;
+        }
+        if(s.detections!=null) mask |= 1<<fields.length;
+        if(s.rttBuckets!=null) mask |= 1<<(fields.length+1);
+        writeVarint(buf, mask);
+        writeZigzag(buf, s.receivedPings);
+        writeZigzag(buf, s.memberSize);
+        for(Integer f : fields){
+            if(f!=null) writeZigzag(buf, f);
+        }
+        if(s.detections!=null){
+            ArrayList<Integer> ids = new ArrayList<Integer>(s.detections.keySet());
+            Collections.sort(ids);
+            writeVarint(buf, ids.size());
+            int last = 0;
+            for(Integer id : ids){
+                writeZigzag(buf, id - last);
+                last = id;
+                writeVarlong(buf, s.detections.get(id));
+            }
+        }
+        if(s.rttBuckets!=null){
+            writeVarint(buf, s.rttBuckets.length);
+            for(int count : s.rttBuckets){
+                writeVarint(buf, count);
+            }
+        }
+    }
+
+    private static Status readStatus(ByteBuffer buf) {
+        int mask = readVarint(buf);
+        Status s = new Status(readZigzag(buf));
+        s.memberSize = readZigzag(buf);
+        Integer[] fields = new Integer[optionalFields(s).length];
+        for(int i = 0; i < fields.length; i++){
+            if((mask & (1<<i))!=0) fields[i] = readZigzag(buf);
+        }
+        s.alivePB = fields[0];
+        s.deadPB = fields[1];
+        s.suspectedPB = fields[2];
+        s.newPB = fields[3];
+        s.incarnationValue = fields[4];
+        s.newParentPB = fields[5];
+        s.deadParentPB = fields[6];
+        s.parentsSize = fields[7];
+        s.tombstones = fields[8];
+        s.localHealth = fields[9];
+        s.latePongs = fields[10];
+        s.duplicatePongs = fields[11];
+        s.timerEvents = fields[12];
+        s.wheelEvents = fields[13];
+        s.pbMessages = fields[14];
+        s.pbEntries = fields[15];
+        s.pbBytes = fields[16];
+        if((mask & (1<<fields.length))!=0){
+            int n = readLength(buf);
+            s.detections = new HashMap<Integer,Long>();
+            int id = 0;
+            for(int i = 0; i < n; i++){
+                id += readZigzag(buf);
+                s.detections.put(id, readVarlong(buf));
+            }
+        }
+        if((mask & (1<<(fields.length+1)))!=0){
+            s.rttBuckets = new int[readLength(buf)];
+            for(int i = 0; i < s.rttBuckets.length; i++){
+                s.rttBuckets[i] = readVarint(buf);
+            }
+        }
+        return s;
+    }
+
+    private static Integer[] optionalFields(Status s) {
+        return new Integer[]{s.alivePB, s.deadPB, s.suspectedPB, s.newPB, s.incarnationValue, s.newParentPB, s.deadParentPB,
+            s.parentsSize, s.tombstones, s.localHealth, s.latePongs, s.duplicatePongs, s.timerEvents, s.wheelEvents,
+            s.pbMessages, s.pbEntries, s.pbBytes};
+    }
+
+
+
+    private static void refShuffle(AddressTable table, CroupierShuffle.Basic shuffle) {
+        for(CroupierContainer c : shuffle.publicNodes){
+            table.ref(c.getSource());
+        }
+        for(CroupierContainer c : shuffle.privateNodes){
+            table.ref(c.getSource());
+        }
+    }
+
+    private static void writeShuffle(ByteBuffer buf, CroupierShuffle.Basic shuffle, AddressTable table) {
+        writeUUID(buf, shuffle.getId());
+        writeDescriptors(buf, shuffle.publicNodes, table);
+        writeDescriptors(buf, shuffle.privateNodes, table);
+    }
+
+    //Batch id, then overlay id and shuffle of every overlay
+    private static void writeBatch(ByteBuffer buf, CroupierShuffle.Batch<?> batch, AddressTable table) {
+        writeUUID(buf, batch.getId());
+        writeVarint(buf, batch.shuffles.size());
+        for(Map.Entry<Integer, ? extends CroupierShuffle.Basic> e : batch.shuffles.entrySet()){
+            writeZigzag(buf, e.getKey());
+            writeShuffle(buf, e.getValue(), table);
+        }
+    }
+
+    private static void writeDescriptors(ByteBuffer buf, Set<CroupierContainer> descriptors, AddressTable table) {
+        writeVarint(buf, descriptors.size());
+        for(CroupierContainer c : descriptors){
+            writeVarint(buf, table.ref(c.getSource()));
+            writeVarint(buf, c.getAge());
+        }
+    }
+
+    private static Set<CroupierContainer> readDescriptors(ByteBuffer buf, NatedAddress[] table) {
+        int n = readLength(buf);
+        if(n>MAX_DESCRIPTORS) throw new IllegalArgumentException("too many descriptors " + n);
+        Set<CroupierContainer> descriptors = new HashSet<CroupierContainer>();
+        for(int i = 0; i < n; i++){
+            descriptors.add(new CroupierContainer<Object>(lookup(table, readVarint(buf)), null, readVarint(buf)));
+        }
+        return descriptors;
+    }
+
+    //Counts, then overlay id and view ids of every overlay
+    private static void writeCroupierStatus(ByteBuffer buf, CroupierStatus s) {
+        writeZigzag(buf, s.messagesSent);
+        writeZigzag(buf, s.shufflesSent);
+        writeVarint(buf, s.views.size());
+        for(Map.Entry<Integer, int[]> e : s.views.entrySet()){
+            writeZigzag(buf, e.getKey());
+            writeVarint(buf, e.getValue().length);
+            for(int id : e.getValue()){
+                writeZigzag(buf, id);
+            }
+        }
+    }
+
+    private static CroupierStatus readCroupierStatus(ByteBuffer buf) {
+        int messagesSent = readZigzag(buf);
+        int shufflesSent = readZigzag(buf);
+        int n = readLength(buf);
+        HashMap<Integer, int[]> views = new HashMap<Integer, int[]>();
+        for(int i = 0; i < n; i++){
+            int overlayId = readZigzag(buf);
+            int[] ids = new int[readLength(buf)];
+            for(int j = 0; j < ids.length; j++){
+                ids[j] = readZigzag(buf);
+            }
+            views.put(overlayId, ids);
+        }
+        return new CroupierStatus(messagesSent, shufflesSent, views);
+    }
+
+    private static void writeUUID(ByteBuffer buf, UUID id) {
+        buf.putLong(id.getMostSignificantBits());
+        buf.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(ByteBuffer buf) {
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+
+
+
+    //Unsigned LEB128
+    static void writeVarint(ByteBuffer buf, int v) {
+        while((v & ~0x7F)!=0){
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    static int readVarint(ByteBuffer buf) {
+        int v = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            byte b = buf.get();
+            v |= (b & 0x7F) << shift;
+            if(b>=0) return v;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    static void writeZigzag(ByteBuffer buf, int v) {
+        writeVarint(buf, (v << 1) ^ (v >> 31));
+    }
+
+    static int readZigzag(ByteBuffer buf) {
+        int v = readVarint(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void writeVarlong(ByteBuffer buf, long v) {
+        while((v & ~0x7FL)!=0){
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    static long readVarlong(ByteBuffer buf) {
+        long v = 0;
+        for(int shift = 0; shift < 70; shift += 7){
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if(b>=0) return v;
+        }
+        throw new IllegalArgumentException("varlong too long");
+    }
+
+    //A count read from the wire: never more than the bytes left, so a corrupt count cannot allocate much
+    private static int readLength(ByteBuffer buf) {
+        int n = readVarint(buf);
+        if(n<0 || n>buf.remaining()) throw new IllegalArgumentException("bad length " + n);
+        return n;
+    }
+
+    private static int checkIndex(int i, int size) {
+        if(i<0 || i>=size) throw new IllegalArgumentException("bad enum index " + i);
+        return i;
+    }
+
+    /*
+    Addresses of one message in table order, parents first, with the parent references of each entry sorted in
+    one shared pool. Entries are found through an open-addressed table keyed by node id, several entries per id
+    allowed: the same instance is matched first (interned addresses are shared, so that is the common case), any
+    other instance is compared field by field, its parent references included, so two different parent sets of one
+    node get two entries. Nothing is allocated once the arrays have grown to the largest message seen
+    */
+    private static final class AddressTable {
+        //Deeper parent chains than this can only be a cycle
+        private static final int MAX_DEPTH = 32;
+
+        private NatedAddress[] addresses = new NatedAddress[16];
+        private int[] parentStart = new int[16];
+        private int[] parentCount = new int[16];
+        private int size = 0;
+        private int[] pool = new int[32];
+        private int poolSize = 0;
+        //Parent references of the addresses being added, one frame per level of the recursion
+        private int[] stack = new int[32];
+        private int stackSize = 0;
+        //entry index + 1, 0 is a free slot
+        private int[] slots = new int[32];
+
+        //Zeroes only the slots of the entries used, so a small message does not pay for the largest table ever grown
+        private void clear() {
+            int mask = slots.length - 1;
+            for(int entry = 0; entry < size; entry++){
+                //earlier entries may already be cleared out of the probe run: look for the entry, not for a free slot
+                int s = mix(addresses[entry].getId()) & mask;
+                while(slots[s]!=entry + 1){
+                    s = (s + 1) & mask;
+                }
+                slots[s] = 0;
+            }
+            Arrays.fill(addresses, 0, size, null);
+            size = 0;
+            poolSize = 0;
+            stackSize = 0;
+        }
+
+        private int ref(NatedAddress na) {
+            return ref(na, 0);
+        }
+
+        private int ref(NatedAddress na, int depth) {
+            if(depth>MAX_DEPTH) throw new IllegalArgumentException("parent cycle at " + na.getId());
+            int id = na.getId();
+            int mask = slots.length - 1;
+            for(int s = mix(id) & mask; slots[s]!=0; s = (s + 1) & mask){
+                if(addresses[slots[s] - 1]==na) return slots[s] - 1;
+            }
+
+            int frame = stackSize;
+            if(!na.getParents().isEmpty()){
+                for(NatedAddress parent : na.getParents()){
+                    int parentRef = ref(parent, depth + 1);
+                    if(stackSize==stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+                    stack[stackSize++] = parentRef;
+                }
+            }
+            int n = stackSize - frame;
+            Arrays.sort(stack, frame, stackSize);
+            try {
+                mask = slots.length - 1;
+                int s = mix(id) & mask;
+                for(; slots[s]!=0; s = (s + 1) & mask){
+                    if(sameAddress(slots[s] - 1, na, frame, n)) return slots[s] - 1;
+                }
+                return add(na, frame, n, s);
+            } finally {
+                stackSize = frame;
+            }
+        }
+
+        private boolean sameAddress(int entry, NatedAddress na, int frame, int n) {
+            NatedAddress e = addresses[entry];
+            if(e.getId().intValue()!=na.getId().intValue() || e.getPort()!=na.getPort() || e.getNatType()!=na.getNatType()
+                    || parentCount[entry]!=n || !e.getIp().equals(na.getIp())){
+                return false;
+            }
+            for(int i = 0; i < n; i++){
+                if(pool[parentStart[entry] + i]!=stack[frame + i]) return false;
+            }
+            return true;
+        }
+
+        private int add(NatedAddress na, int frame, int n, int slot) {
+            if(size==addresses.length){
+                addresses = Arrays.copyOf(addresses, size * 2);
+                parentStart = Arrays.copyOf(parentStart, size * 2);
+                parentCount = Arrays.copyOf(parentCount, size * 2);
+            }
+            if(poolSize + n > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + n));
+            System.arraycopy(stack, frame, pool, poolSize, n);
+            int entry = size++;
+            addresses[entry] = na;
+            parentStart[entry] = poolSize;
+            parentCount[entry] = n;
+            poolSize += n;
+            slots[slot] = entry + 1;
+            //at most half full
+            if(size * 2 > slots.length) rehash();
+            return entry;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for(int entry = 0; entry < size; entry++){
+                int s = mix(addresses[entry].getId()) & mask;
+                while(slots[s]!=0){
+                    s = (s + 1) & mask;
+                }
+                slots[s] = entry + 1;
+            }
+        }
+
+        private void write(ByteBuffer buf, int entry) {
+            NatedAddress na = addresses[entry];
+            writeZigzag(buf, na.getId());
+            byte[] ip = na.getIp().getAddress();
+            buf.put((byte) ip.length);
+            buf.put(ip);
+            writeVarint(buf, na.getPort());
+            buf.put((byte) na.getNatType().ordinal());
+            writeVarint(buf, parentCount[entry]);
+            for(int i = 0; i < parentCount[entry]; i++){
+                writeVarint(buf, pool[parentStart[entry] + i]);
+            }
+        }
+
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009 Swedish Institute of Computer Science (SICS) Copyright (C)
+ * 2009 Royal Institute of Technology (KTH)
+ *
+ * GVoD is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package se.kth.swim.simulation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.swim.msg.net.NetPing;
+import se.kth.swim.msg.net.NetPong;
+import se.sics.kompics.ComponentDefinition;
+import se.sics.kompics.Handler;
+import se.sics.kompics.Init;
+import se.sics.kompics.Negative;
+import se.sics.kompics.Positive;
+import se.sics.kompics.network.Msg;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+import se.sics.kompics.timer.Timer;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Simulated slow node (SwimMain.slowNodes): sits between the network and SwimComp of the node and hands it every
+ * ping and pong SLOW_NODE_DELAY ms late. Everything else goes through untouched.
+ */
+public class SlowNodeComp extends ComponentDefinition {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowNodeComp.class);
+    public static final int SLOW_NODE_DELAY = 15000;
+
+    private Negative<Network> local = provides(Network.class);
+    private Positive<Network> network = requires(Network.class);
+    private Positive<Timer> timer = requires(Timer.class);
+
+    private final NatedAddress selfAddress;
+
+    public SlowNodeComp(SlowNodeInit init) {
+        this.selfAddress = init.selfAddress;
+        log.info("{} slow node, pings and pongs handled {} ms late", new Object[]{selfAddress.getId(), SLOW_NODE_DELAY});
+
+        subscribe(handleIncomingMsg, network);
+        subscribe(handleOutgoingMsg, local);
+        subscribe(handleSlowTimeout, timer);
+    }
+
+    private Handler<Msg> handleIncomingMsg = new Handler<Msg>() {
+
+        @Override
+        public void handle(Msg msg) {
+            if (msg instanceof NetPing || msg instanceof NetPong) {
+                ScheduleTimeout st = new ScheduleTimeout(SLOW_NODE_DELAY);
+                st.setTimeoutEvent(new SlowTimeout(st, msg));
+                trigger(st, timer);
+                return;
+            }
+            trigger(msg, local);
+        }
+
+    };
+
+    private Handler<Msg> handleOutgoingMsg = new Handler<Msg>() {
+
+        @Override
+        public void handle(Msg msg) {
+            trigger(msg, network);
+        }
+    };
+
+    private Handler<SlowTimeout> handleSlowTimeout = new Handler<SlowTimeout>() {
+
+        @Override
+        public void handle(SlowTimeout event) {
+            trigger(event.msg, local);
+        }
+    };
+
+    public static class SlowNodeInit extends Init<SlowNodeComp> {
+
+        public final NatedAddress selfAddress;
+
+        public SlowNodeInit(NatedAddress selfAddress) {
+            this.selfAddress = selfAddress;
+        }
+    }
+
+    private static class SlowTimeout extends Timeout {
+
+        private final Msg msg;
+
+        public SlowTimeout(ScheduleTimeout request, Msg msg) {
+            super(request);
+            this.msg = msg;
+        }
+    }
+}
@@ -20,7 +20,10 @@ package se.kth.swim.simulation;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
 import org.junit.Assert;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
 import se.sics.kompics.Kompics;
 import se.sics.kompics.simulation.SimulatorScheduler;
 import se.sics.p2ptoolbox.simulator.run.LauncherComp;
@@ -36,6 +39,20 @@ public class SwimMain {
     public static Integer pbSize;
     public static Integer kValue;
     public static Integer disseminationValue;
+    public static Boolean roundRobinProbe = false;
+    public static Boolean lifeguard = false;
+    public static Boolean kompicsTimers = false;
+    public static Boolean piggybackBudget = false;
+    public static Boolean noSupersession = false;
+    public static Boolean objectMemberStore = false;
+    public static Boolean pongOnlyPiggyback = false;
+    public static CroupierSelectionPolicy croupierPolicy = CroupierSelectionPolicy.RANDOM;
+    public static double croupierTemperature = 0;
+    public static int croupierOverlays = 1;
+    public static int croupierFanout = 1;
+    public static Boolean batchedOverlays = false;
+    //Nodes the scenario wants to lag behind (simulation only, see SlowNodeComp)
+    public static final Set<Integer> slowNodes = new HashSet<Integer>();
     
     
     public static void main(String[] args) throws Exception {
@@ -197,6 +214,78 @@ public class SwimMain {
         }
         
         
+        if(args[0].equals("churn")){
+            
+            LauncherComp.scenario = SwimScenario.churn(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        if(args[0].equals("slowNodes100")){
+            
+            LauncherComp.scenario = SwimScenario.slowNodes100(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        if(args[0].equals("slowNodesKill100")){
+            
+            LauncherComp.scenario = SwimScenario.slowNodesKill100(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        if(args[0].equals("massKill500")){
+            
+            LauncherComp.scenario = SwimScenario.massKill500(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        if(args[0].equals("dissemination300")){
+            
+            LauncherComp.scenario = SwimScenario.dissemination300(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        if(args[0].equals("overlays100")){
+            
+            LauncherComp.scenario = SwimScenario.overlays100(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        if(args[0].equals("staleViews100")){
+            
+            LauncherComp.scenario = SwimScenario.staleViews100(1234L);
+            pbSize=100;
+            kValue=5;
+            disseminationValue=50;
+            
+        }
+        
+        
+        parseFlags(args, 1);
+        
+        
         //  LauncherComp.scenario = SwimScenario.simpleBoot(1234L);
         try {
             LauncherComp.simulatorClientAddress = new BasicNatedAddress(new BasicAddress(InetAddress.getByName("127.0.0.1"), 30000, -1));
@@ -215,4 +304,57 @@ public class SwimMain {
         
         Assert.assertEquals(null, SwimSimulationResult.failureCause);
     }
+    
+    //Optional flags, from args[from] on (after the scenario name for the simulator): "roundrobin" probe order
+    //(default random), "lifeguard" timers, "kompicstimers" to give every probe its own Kompics timer instead of
+    //the timer wheel, "budget" to cap piggybacked updates per message and retire them after lambda*log(N) sends,
+    //"nosupersede" to keep every rumour in the piggyback list instead of one per member,
+    //"pongonly" to piggyback updates on PONGs only, "tail" or "healer" croupier shuffle peer selection (default
+    //random), "softmax" to draw the tail/healer peer with a bias towards old entries instead of the oldest,
+    //"overlays N" to run N croupier overlays per node, "batched" to run them in one MultiCroupierComp,
+    //"fanout N" to start N croupier shuffles per cycle (default 1; per overlay when batched),
+    //"objectstore" to keep one object per member instead of the packed primitive arrays (MembershipList store)
+    public static void parseFlags(String[] args, int from) {
+        for(int i = from; i < args.length; i++){
+            if(args[i].equals("roundrobin")){
+                roundRobinProbe=true;
+            }
+            if(args[i].equals("lifeguard")){
+                lifeguard=true;
+            }
+            if(args[i].equals("kompicstimers")){
+                kompicsTimers=true;
+            }
+            if(args[i].equals("budget")){
+                piggybackBudget=true;
+            }
+            if(args[i].equals("nosupersede")){
+                noSupersession=true;
+            }
+            if(args[i].equals("objectstore")){
+                objectMemberStore=true;
+            }
+            if(args[i].equals("pongonly")){
+                pongOnlyPiggyback=true;
+            }
+            if(args[i].equals("tail")){
+                croupierPolicy=CroupierSelectionPolicy.TAIL;
+            }
+            if(args[i].equals("healer")){
+                croupierPolicy=CroupierSelectionPolicy.HEALER;
+            }
+            if(args[i].equals("softmax")){
+                croupierTemperature=2.0;
+            }
+            if(args[i].equals("overlays") && i+1 < args.length){
+                croupierOverlays=Integer.parseInt(args[i+1]);
+            }
+            if(args[i].equals("batched")){
+                batchedOverlays=true;
+            }
+            if(args[i].equals("fanout") && i+1 < args.length){
+                croupierFanout=Integer.parseInt(args[i+1]);
+            }
+        }
+    }
 }
@@ -54,7 +54,6 @@ public class SwimScenario {
     
     private static long seed;
     private static InetAddress localHost;
-    private static CroupierConfig croupierConfig = new CroupierConfig(20, 5, 2000, 1000);
     
     
     static {
@@ -65,6 +64,11 @@ public class SwimScenario {
         }
     }
     
+    //Built when the nodes start, after SwimMain has parsed the croupier flags
+    private static CroupierConfig croupierConfig() {
+        return new CroupierConfig(20, 5, 2000, 1000, SwimMain.croupierPolicy, SwimMain.croupierTemperature, SwimMain.croupierFanout);
+    }
+    
     //Make sure that your dead link set reflect the nodes in your system
     private static final Map<Integer, Set<Pair<Integer, Integer>>> deadLinksSets = new HashMap<Integer, Set<Pair<Integer, Integer>>>();
     
@@ -114,7 +118,7 @@ public class SwimScenario {
                 @Override
                 public AggregatorComp.AggregatorInit getNodeComponentInit() {
                     aggregatorAddress = new BasicNatedAddress(new BasicAddress(localHost, 23456, nodeId));
-                    return new AggregatorComp.AggregatorInit(aggregatorAddress);
+                    return new AggregatorComp.AggregatorInit(aggregatorAddress, SwimSimulationResult.kills);
                 }
                 
                 @Override
@@ -154,7 +158,12 @@ public class SwimScenario {
                      */
                     long nodeSeed = seed + nodeId;
                     System.err.println("Starting node " + nodeId);
-                    return new HostComp.HostInit(nodeAddress, bootstrapNodes, aggregatorServer, nodeSeed, croupierConfig);
+                    SwimSimulationResult.kills.started(System.currentTimeMillis());
+                    //slow nodes get their pings and pongs late
+                    boolean slow = SwimMain.slowNodes.contains(nodeId);
+                    return new HostComp.HostInit(nodeAddress, bootstrapNodes, aggregatorServer, nodeSeed, croupierConfig(),
+                            SwimMain.croupierOverlays, SwimMain.batchedOverlays, slow ? SlowNodeComp.class : null,
+                            slow ? new SlowNodeComp.SlowNodeInit(nodeAddress) : null);
                 }
                 
                 @Override
@@ -181,6 +190,7 @@ public class SwimScenario {
         public KillNodeCmd generate(final Integer nodeId) {
             
             System.err.println("Killing node " + nodeId);
+            SwimSimulationResult.kills.killed(nodeId, System.currentTimeMillis());
             return new KillNodeCmd() {
                 public Integer getNodeId() {
                     return nodeId;
@@ -1599,5 +1609,434 @@ public class SwimScenario {
     
     
     
+    /*
+    Long-running churn: every cycle kills the oldest nodes and starts the same number of nodes with ids never
+    used before. With tombstone expiry the membership tables (and the HEAP line logged by the aggregator) have
+    to stay flat instead of growing with every node that ever joined.
+    */
+    public static SimulationScenario churn(final long seed) throws Exception {
+        SwimScenario.seed = seed;
+        
+        
+        //Change here your scenario parameters
+        final int starting = 100;
+        final int churnSize = 10; //nodes killed and started per cycle
+        final int cycles = 100;
+        final int cycleTime = 20000;
+        
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(1000));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                
+                SimulationScenario.StochasticProcess previous = startPeers;
+                for(int c = 0; c < cycles; c++){
+                    final int cycle = c;
+                    
+                    SimulationScenario.StochasticProcess killPeers = new SimulationScenario.StochasticProcess()  {
+                        {
+                            int N = churnSize;
+                            eventInterArrivalTime(constant(100));
+                            Integer[] lista = new Integer[N];
+                            for(int i = 0; i < N; i++){
+                                lista[i] = (cycle*churnSize + i + 1)*2;
+                            }
+                            raise(N, killNodeOp, new GenIntSequentialDistribution(lista));
+                        }
+                    };
+                    
+                    SimulationScenario.StochasticProcess startNewPeers = new SimulationScenario.StochasticProcess() {
+                        {
+                            int N = churnSize;
+                            eventInterArrivalTime(constant(100));
+                            Integer[] lista = new Integer[N];
+                            for(int i = 0; i < N; i++){
+                                lista[i] = (starting + cycle*churnSize + i + 1)*2;
+                            }
+                            raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                        }
+                    };
+                    
+                    killPeers.startAfterTerminationOf(cycleTime, previous);
+                    startNewPeers.startAfterTerminationOf(1000, killPeers);
+                    previous = startNewPeers;
+                }
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                fetchSimulationResult.startAfterTerminationOf(100000, previous);
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
+    //Slow nodes only: every member declared dead is a false positive
+    public static SimulationScenario slowNodes100(final long seed) throws Exception {
+        return slowNodes(seed, 100, 5, 0);
+    }
+    
+    //Slow nodes plus real failures, to compare false positives and detection latency together
+    public static SimulationScenario slowNodesKill100(final long seed) throws Exception {
+        return slowNodes(seed, 100, 5, 10);
+    }
+    
+    /*
+    The first "slow" nodes handle pings and pongs SlowNodeComp.SLOW_NODE_DELAY late for the whole run, the last "killing"
+    nodes are killed once the membership has settled. Run with and without the "lifeguard" flag and compare the
+    FALSEPOSITIVES and DETECTIONSTATS lines.
+    */
+    private static SimulationScenario slowNodes(final long seed, final int starting, final int slow, final int killing) throws Exception {
+        SwimScenario.seed = seed;
+        
+        for(int i = 1; i <= slow; i++){
+            SwimMain.slowNodes.add(i*2);
+        }
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(1000));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                
+                if(killing>0){
+                    SimulationScenario.StochasticProcess killPeers = new SimulationScenario.StochasticProcess()  {
+                        {
+                            int N = killing;
+                            eventInterArrivalTime(constant(1000));
+                            Integer[] lista = new Integer[N];
+                            for(int i = 0; i < N; i++){
+                                lista[i] = (starting - i)*2;
+                            }
+                            raise(N, killNodeOp, new GenIntSequentialDistribution(lista));
+                        }
+                    };
+                    killPeers.startAfterTerminationOf(60000, startPeers);
+                    fetchSimulationResult.startAfterTerminationOf(600000, killPeers);
+                } else {
+                    fetchSimulationResult.startAfterTerminationOf(600000, startPeers);
+                }
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
+    //Correlated failure: 10% of a 500 node system dies at the same moment, compare DETECTIONSTATS across versions
+    public static SimulationScenario massKill500(final long seed) throws Exception {
+        SwimScenario.seed = seed;
+        
+        //Change here your scenario parameters
+        final int starting = 500;
+        final int killing = 50;
+        
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(100));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess killPeers = new SimulationScenario.StochasticProcess()  {
+                    {
+                        int N = killing;
+                        eventInterArrivalTime(constant(0));
+                        Integer[] lista = new Integer[N];
+                        for(int i = 0; i < N; i++){
+                            lista[i] = (i*(starting/killing) + 1)*2;
+                        }
+                        raise(N, killNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                killPeers.startAfterTerminationOf(60000, startPeers);
+                fetchSimulationResult.startAfterTerminationOf(300000, killPeers);
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
+    //Dissemination cost: 300 nodes join, then 30 are killed 5 s apart. Run it with and without the "budget" flag
+    //and compare PIGGYBACK (bytes per message) and CONVERGENCE (kill -> every member agrees) lines
+    public static SimulationScenario dissemination300(final long seed) throws Exception {
+        SwimScenario.seed = seed;
+        
+        //Change here your scenario parameters
+        final int starting = 300;
+        final int killing = 30;
+        
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(100));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess killPeers = new SimulationScenario.StochasticProcess()  {
+                    {
+                        int N = killing;
+                        eventInterArrivalTime(constant(5000));
+                        Integer[] lista = new Integer[N];
+                        for(int i = 0; i < N; i++){
+                            lista[i] = (i*(starting/killing) + 1)*2;
+                        }
+                        raise(N, killNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                killPeers.startAfterTerminationOf(60000, startPeers);
+                fetchSimulationResult.startAfterTerminationOf(300000, killPeers);
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
+    //Croupier view healing: 100 nodes join, then 20 die at once. Run it with no flag, "tail", "healer" (each also
+    //with "softmax", or with "fanout 2") and compare how fast STALEVIEWS drops to 0 (STALECLEARED)
+    public static SimulationScenario staleViews100(final long seed) throws Exception {
+        SwimScenario.seed = seed;
+        
+        //Change here your scenario parameters
+        final int starting = 100;
+        final int killing = 20;
+        
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(100));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess killPeers = new SimulationScenario.StochasticProcess()  {
+                    {
+                        int N = killing;
+                        eventInterArrivalTime(constant(0));
+                        Integer[] lista = new Integer[N];
+                        for(int i = 0; i < N; i++){
+                            lista[i] = (i*(starting/killing) + 1)*2;
+                        }
+                        raise(N, killNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                killPeers.startAfterTerminationOf(60000, startPeers);
+                fetchSimulationResult.startAfterTerminationOf(120000, killPeers);
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
+    //Croupier traffic: 100 nodes join and shuffle for 2 minutes. Run it with "overlays 4" and with "overlays 4
+    //batched" and compare CROUPIERTRAFFIC (messages/s against overlay shuffles/s)
+    public static SimulationScenario overlays100(final long seed) throws Exception {
+        SwimScenario.seed = seed;
+        
+        //Change here your scenario parameters
+        final int starting = 100;
+        
+        
+        SimulationScenario scen = new SimulationScenario(){
+            {
+                SimulationScenario.StochasticProcess startAggregator = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, startAggregatorOp, new ConstantDistribution(Integer.class, 0));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess startPeers = new SimulationScenario.StochasticProcess() {
+                    {
+                        int N = starting;
+                        eventInterArrivalTime(constant(100));
+                        Integer[] lista = new Integer[N];
+                        int t = 0;
+                        for(int i = 1; i < N*2+1; i++){
+                            if(i%2==0)
+                                lista[t++] = i;
+                        }
+                        
+                        
+                        raise(N, startNodeOp, new GenIntSequentialDistribution(lista));
+                    }
+                };
+                
+                SimulationScenario.StochasticProcess fetchSimulationResult = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(1, simulationResult);
+                    }
+                };
+                
+                startAggregator.start();
+                startPeers.startAfterTerminationOf(1000, startAggregator);
+                fetchSimulationResult.startAfterTerminationOf(120000, startPeers);
+                terminateAfterTerminationOf(30*1000, fetchSimulationResult);
+            }
+        };
+        scen.setSeed(seed);
+        return scen;
+    }
+    
+    
+    
 }
-
@@ -19,6 +19,7 @@
 
 package se.kth.swim.simulation;
 
+import se.kth.swim.ChurnLog;
 import se.sics.p2ptoolbox.simulator.cmd.OperationCmd;
 
 /**
@@ -26,4 +27,7 @@ import se.sics.p2ptoolbox.simulator.cmd.OperationCmd;
  */
 public class SwimSimulationResult {
     public static OperationCmd.ValidationException failureCause;
+    //every time the scenario started or killed a node, passed to the aggregator to compute detection latencies and
+    //convergence times
+    public static final ChurnLog kills = new ChurnLog();
 }
@@ -0,0 +1,63 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Starts and kills recorded in the ChurnLog: a detection is matched to the kill it came after, also for nodes
+ * killed twice.
+ */
+public class ChurnLogTest {
+
+    @Test
+    public void neverKilled() {
+        ChurnLog log = new ChurnLog();
+        assertFalse(log.wasKilled(3));
+        assertNull(log.lastKill(3));
+        assertNull(log.killBefore(3, 1000));
+        assertEquals(0, log.killedNodes());
+        assertEquals(0, log.lastKill());
+        assertEquals(0, log.lastStart());
+    }
+
+    @Test
+    public void lastStartIsTheLatest() {
+        ChurnLog log = new ChurnLog();
+        log.started(200);
+        log.started(150);
+        assertEquals(200, log.lastStart());
+        assertEquals(0, log.lastKill());
+    }
+
+    @Test
+    public void detectionBeforeTheKillMatchesNoKill() {
+        ChurnLog log = new ChurnLog();
+        log.killed(3, 100);
+        assertNull(log.killBefore(3, 99));
+        assertEquals(Long.valueOf(100), log.killBefore(3, 100));
+    }
+
+    //A late detection of the first kill still belongs to it once the node was killed again
+    @Test
+    public void killedTwice() {
+        ChurnLog log = new ChurnLog();
+        log.killed(3, 100);
+        log.killed(5, 150);
+        log.killed(3, 300);
+        assertEquals(Long.valueOf(300), log.lastKill(3));
+        assertEquals(Long.valueOf(100), log.killBefore(3, 250));
+        assertEquals(Long.valueOf(300), log.killBefore(3, 320));
+        assertTrue(log.wasKilled(5));
+        assertEquals(2, log.killedNodes());
+        assertEquals(300, log.lastKill());
+    }
+}
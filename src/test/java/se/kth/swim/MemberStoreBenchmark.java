@@ -0,0 +1,130 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+import static se.kth.swim.TestAddresses.node;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Both member stores at 100k members: reading and updating the state of one member, and a leave followed by a
+ * join. The slots are visited in a scrambled order, as probes and rumours do.
+ * Run with Executable/Benchmark.sh MemberStore
+ * The main() reports the heap footprint of the stores and of a whole MembershipList over each, the member
+ * addresses excluded: Executable/Benchmark.sh report se.kth.swim.MemberStoreBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberStoreBenchmark {
+
+    private static final int MEMBERS = 100000;
+
+    @Param({"packed", "object"})
+    public String store;
+
+    private MemberStore members;
+    private NatedAddress[] addresses;
+    private int[] order;
+    private int next = 0;
+    private long now = 0;
+
+    private static MemberStore newStore(String kind, int capacity) {
+        return kind.equals("packed") ? new PackedMemberStore(capacity) : new ObjectMemberStore();
+    }
+
+    private static NatedAddress[] addresses(int count) {
+        NatedAddress[] addresses = new NatedAddress[count];
+        for(int i = 0; i < count; i++){
+            addresses[i] = node(i + 1);
+        }
+        return addresses;
+    }
+
+    @Setup
+    public void setUp() {
+        members = newStore(store, MEMBERS);
+        addresses = addresses(MEMBERS);
+        order = new int[MEMBERS];
+        for(int i = 0; i < MEMBERS; i++){
+            members.allocate(addresses[i], 0, 0);
+            //a stride coprime with the member count scrambles the order
+            order[i] = (int) ((i * 7919L) % MEMBERS);
+        }
+    }
+
+    private int nextSlot() {
+        int slot = order[next++];
+        if(next == MEMBERS) next = 0;
+        return slot;
+    }
+
+    //What a rumour about a known member reads before it decides anything
+    @Benchmark
+    public void read(Blackhole bh) {
+        int slot = nextSlot();
+        bh.consume(members.getIncarnation(slot));
+        bh.consume(members.isSuspected(slot));
+        bh.consume(members.getGeneration(slot));
+    }
+
+    @Benchmark
+    public void setState() {
+        int slot = nextSlot();
+        members.setState(slot, !members.isSuspected(slot), members.getIncarnation(slot) + 1, ++now);
+    }
+
+    //A member leaves and another one takes its slot
+    @Benchmark
+    public int churn() {
+        int slot = nextSlot();
+        NatedAddress na = members.getAddress(slot);
+        members.free(slot);
+        return members.allocate(na, 0, ++now);
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Footprint at " + MEMBERS + " members, member addresses excluded:");
+        for(String kind : new String[]{"packed", "object"}){
+            NatedAddress[] addresses = addresses(MEMBERS);
+            MemberStore store = newStore(kind, 16);
+            MembershipList list = new MembershipList(new HashSet<NatedAddress>(), node(0), 60000, 1000,
+                    newStore(kind, 16), new AddressRegistry(), true);
+            for(NatedAddress na : addresses){
+                store.allocate(na, 0, 0);
+                list.add(na, 0);
+            }
+            /*
+            Totals, not GraphLayout.subtract(): that matches objects by their current address, which a GC between
+            the two walks invalidates. Both graphs hold every member address, the array holding them is ours
+            */
+            long shared = GraphLayout.parseInstance((Object[]) addresses).totalSize() - VM.current().sizeOf(addresses);
+            long storeBytes = GraphLayout.parseInstance(store).totalSize() - shared;
+            long listBytes = GraphLayout.parseInstance(list).totalSize() - shared;
+            System.out.println(String.format("  %-6s store %6.1f MB (%3d B/member)   MembershipList %6.1f MB (%3d B/member)",
+                    kind, storeBytes / 1e6, storeBytes / MEMBERS, listBytes / 1e6, listBytes / MEMBERS));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * The MemberStore contract, run against both implementations: dense slots, generations bumped on free, recycled
+ * slots starting clean, and growth of the packed arrays.
+ */
+public class MemberStoreTest {
+
+    private static MemberStore[] stores() {
+        return new MemberStore[]{new ObjectMemberStore(), new PackedMemberStore(2)};
+    }
+
+    @Test
+    public void allocatedSlotsAreDenseAndKeepTheirState() throws Exception {
+        for(MemberStore store : stores()){
+            NatedAddress a = node(1);
+            NatedAddress b = node(2);
+            assertEquals(0, store.allocate(a, 3, 100));
+            assertEquals(1, store.allocate(b, 0, 200));
+            assertSame(a, store.getAddress(0));
+            assertEquals(3, store.getIncarnation(0));
+            assertFalse(store.isSuspected(0));
+            assertEquals(100, store.getStateChangedAt(0));
+            assertEquals(200, store.getStateChangedAt(1));
+
+            store.setState(1, true, 4, 250);
+            store.setAliveIndex(1, 7);
+            NatedAddress moved = node(2);
+            store.setAddress(1, moved);
+            assertTrue(store.isSuspected(1));
+            assertEquals(4, store.getIncarnation(1));
+            assertEquals(250, store.getStateChangedAt(1));
+            assertEquals(7, store.getAliveIndex(1));
+            assertSame(moved, store.getAddress(1));
+            assertFalse(store.isSuspected(0));
+        }
+    }
+
+    @Test
+    public void freedSlotIsRecycledCleanWithANewGeneration() throws Exception {
+        for(MemberStore store : stores()){
+            store.allocate(node(1), 0, 0);
+            int slot = store.allocate(node(2), 5, 0);
+            store.setState(slot, true, 6, 10);
+            int generation = store.getGeneration(slot);
+            store.free(slot);
+            assertNull(store.getAddress(slot));
+            assertEquals(generation + 1, store.getGeneration(slot));
+
+            NatedAddress c = node(3);
+            assertEquals(slot, store.allocate(c, 1, 20));
+            assertSame(c, store.getAddress(slot));
+            assertFalse(store.isSuspected(slot));
+            assertEquals(1, store.getIncarnation(slot));
+            assertEquals(20, store.getStateChangedAt(slot));
+            assertEquals(generation + 1, store.getGeneration(slot));
+        }
+    }
+
+    //The packed store starts at 16 slots and doubles: the same random history gives the same reads in both stores
+    @Test
+    public void storesAgreeThroughGrowthAndChurn() throws Exception {
+        MemberStore[] stores = stores();
+        Random rand = new Random(5);
+        List<Integer> live = new ArrayList<Integer>();
+        for(int step = 0; step < 5000; step++){
+            int op = rand.nextInt(4);
+            if(op < 2 || live.isEmpty()){
+                NatedAddress na = node(step);
+                int slot = stores[0].allocate(na, step % 7, step);
+                assertEquals(slot, stores[1].allocate(na, step % 7, step));
+                live.add(slot);
+            } else if(op == 2){
+                int slot = live.remove(rand.nextInt(live.size()));
+                stores[0].free(slot);
+                stores[1].free(slot);
+            } else {
+                int slot = live.get(rand.nextInt(live.size()));
+                boolean suspected = rand.nextBoolean();
+                for(MemberStore store : stores){
+                    store.setState(slot, suspected, step, step);
+                    store.setAliveIndex(slot, step);
+                }
+            }
+        }
+        assertTrue(live.size() > 16);
+        for(int slot : live){
+            assertSame(stores[0].getAddress(slot), stores[1].getAddress(slot));
+            assertEquals(stores[0].getGeneration(slot), stores[1].getGeneration(slot));
+            assertEquals(stores[0].getIncarnation(slot), stores[1].getIncarnation(slot));
+            assertEquals(stores[0].isSuspected(slot), stores[1].isSuspected(slot));
+            assertEquals(stores[0].getStateChangedAt(slot), stores[1].getStateChangedAt(slot));
+            assertEquals(stores[0].getAliveIndex(slot), stores[1].getAliveIndex(slot));
+        }
+    }
+}
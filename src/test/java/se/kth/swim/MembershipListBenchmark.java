@@ -0,0 +1,85 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import static se.kth.swim.TestAddresses.node;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Cost of one piggybacked update against MembershipList at 1k, 10k and 100k members. The rumours name members
+ * through their own address instances, as decoded messages do, and walk the members in a scrambled order so the
+ * lookups do not stay in cache.
+ * Run with Executable/Benchmark.sh MembershipList
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipListBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int members;
+
+    private MembershipList list;
+    //equal to the members, other instances
+    private NatedAddress[] rumours;
+    private int[] incarnations;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        list = new MembershipList(new HashSet<NatedAddress>(), node(0), 60000, 1000, new PackedMemberStore(members),
+                new AddressRegistry(), false);
+        rumours = new NatedAddress[members];
+        incarnations = new int[members];
+        for(int i = 0; i < members; i++){
+            list.add(node(i + 1), 0);
+            //a stride coprime with the member count scrambles the order
+            rumours[i] = node((int) ((i * 7919L) % members) + 1);
+        }
+    }
+
+    private int nextMember() {
+        int i = next++;
+        if(next == members) next = 0;
+        return i;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return list.contains(rumours[nextMember()]);
+    }
+
+    @Benchmark
+    public Integer getIncarnation() {
+        return list.getIncarnationForMember(rumours[nextMember()]);
+    }
+
+    //Two updates: SUSPECTED, then the ALIVE that refutes it
+    @Benchmark
+    public boolean suspectAndRefute() {
+        int i = nextMember();
+        NatedAddress member = rumours[i];
+        boolean suspected = list.suspectNode(member, ++incarnations[i]);
+        return list.unsuspectNode(member, ++incarnations[i]) && suspected;
+    }
+}
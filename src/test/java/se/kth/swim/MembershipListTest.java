@@ -0,0 +1,229 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static se.kth.swim.TestAddresses.nated;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * MembershipList over both member stores: members are found by id whatever the address instance, removals and
+ * rumours obey incarnations and tombstones, round-robin probing visits each member once per round, and the
+ * address registry keeps one instance per parent set and forgets the members that leave.
+ */
+public class MembershipListTest {
+
+    private static MembershipList list(MemberStore store, AddressRegistry registry, boolean roundRobin, NatedAddress self) {
+        return new MembershipList(new HashSet<NatedAddress>(), self, 60000, 100, store, registry, roundRobin);
+    }
+
+    private static MembershipList[] lists(boolean roundRobin) throws Exception {
+        return new MembershipList[]{
+            list(new ObjectMemberStore(), new AddressRegistry(), roundRobin, node(0)),
+            list(new PackedMemberStore(4), new AddressRegistry(), roundRobin, node(0))
+        };
+    }
+
+    @Test
+    public void membersAreFoundById() throws Exception {
+        for(MembershipList ml : lists(false)){
+            assertTrue(ml.add(node(1), 0));
+            assertTrue(ml.contains(node(1)));
+            assertFalse(ml.add(node(1), 5));
+            assertFalse(ml.add(node(0), 0));
+            assertFalse(ml.contains(node(2)));
+            assertEquals(1, ml.size());
+            assertEquals(0, (int) ml.getIncarnationForMember(node(1)));
+            assertEquals(-1, (int) ml.getIncarnationForMember(node(2)));
+        }
+    }
+
+    @Test
+    public void removalNeedsACurrentIncarnation() throws Exception {
+        for(MembershipList ml : lists(false)){
+            ml.add(node(1), 3);
+            assertFalse(ml.remove(node(1), 2));
+            assertTrue(ml.contains(node(1)));
+            assertTrue(ml.remove(node(1), 3));
+            assertFalse(ml.contains(node(1)));
+            assertTrue(ml.isEmpty());
+            assertFalse(ml.remove(node(1), 9));
+        }
+    }
+
+    //A dead member comes back only with a newer incarnation than the one it died with
+    @Test
+    public void tombstonesRejectStaleRumours() throws Exception {
+        for(MembershipList ml : lists(false)){
+            ml.add(node(1), 0);
+            ml.remove(node(1), 2);
+            assertEquals(1, ml.tombstoneCount());
+            assertEquals(2, (int) ml.getIncarnationForMember(node(1)));
+            assertFalse(ml.add(node(1), 2));
+            assertTrue(ml.add(node(1), 3));
+            assertEquals(0, ml.tombstoneCount());
+            assertEquals(3, (int) ml.getIncarnationForMember(node(1)));
+        }
+    }
+
+    @Test
+    public void suspicionFollowsIncarnations() throws Exception {
+        for(MembershipList ml : lists(false)){
+            ml.add(node(1), 1);
+            assertFalse(ml.suspectNode(node(1), 1));
+            assertTrue(ml.suspectNode(node(1), 2));
+            assertTrue(ml.isSuspected(node(1)));
+            assertFalse(ml.suspectNode(node(1), 3));
+            assertFalse(ml.unsuspectNode(node(1), 2));
+            assertTrue(ml.unsuspectNode(node(1), 3));
+            assertFalse(ml.isSuspected(node(1)));
+        }
+    }
+
+    @Test
+    public void neighboursSnapshotIsSharedUntilAChange() throws Exception {
+        for(MembershipList ml : lists(false)){
+            ml.add(node(1), 0);
+            ml.add(node(2), 0);
+            List<NatedAddress> first = ml.getNeighboursList();
+            assertEquals(2, first.size());
+            assertSame(first, ml.getNeighboursList());
+            ml.remove(node(1), 0);
+            assertEquals(1, ml.getNeighboursList().size());
+            assertEquals(2, first.size());
+        }
+    }
+
+    //Each round is a permutation of the members; a joiner is probed in the round it joins, a leaver never again
+    @Test
+    public void roundRobinProbesEveryMemberOncePerRound() throws Exception {
+        for(MembershipList ml : lists(true)){
+            for(int i = 1; i <= 20; i++){
+                ml.add(node(i), 0);
+            }
+            for(int round = 0; round < 5; round++){
+                Set<Integer> seen = new HashSet<Integer>();
+                for(int i = 0; i < 20; i++){
+                    assertTrue(seen.add(ml.nextProbeNode().getId()));
+                }
+                assertEquals(20, seen.size());
+            }
+            Set<Integer> seen = new HashSet<Integer>();
+            for(int i = 0; i < 10; i++){
+                seen.add(ml.nextProbeNode().getId());
+            }
+            ml.add(node(21), 0);
+            Integer gone = null;
+            for(int id = 1; id <= 20 && gone == null; id++){
+                if(!seen.contains(id)) gone = id;
+            }
+            ml.remove(node(gone), 0);
+            for(int i = 0; i < 10; i++){
+                assertTrue(seen.add(ml.nextProbeNode().getId()));
+            }
+            assertTrue(seen.contains(21));
+            assertFalse(seen.contains(gone));
+            assertEquals(20, seen.size());
+        }
+    }
+
+    //Parents are indexed both ways: a dead parent is dropped from the members relaying through it
+    @Test
+    public void deadParentIsFailedOver() throws Exception {
+        for(MembershipList ml : lists(false)){
+            NatedAddress p1 = node(1);
+            NatedAddress p2 = node(2);
+            ml.add(p1, 0);
+            ml.add(p2, 0);
+            ml.add(nated(5, p1), 0);
+            assertTrue(ml.updateNewParents(node(5), p2));
+            assertFalse(ml.updateNewParents(node(5), p2));
+            ml.remove(p1, 0);
+            for(NatedAddress na : ml.getNeighboursList()){
+                if(na.getId() == 5){
+                    assertEquals(1, na.getParents().size());
+                    assertEquals(2, (int) na.getParents().iterator().next().getId());
+                }
+            }
+            assertTrue(ml.updateDeadParents(node(5), p2));
+            assertFalse(ml.updateDeadParents(node(5), p2));
+        }
+    }
+
+    //Departed members are forgotten by the registry; self, its parents and live parents are kept
+    @Test
+    public void registryForgetsDepartedMembers() throws Exception {
+        AddressRegistry registry = new AddressRegistry();
+        NatedAddress selfParent = node(100);
+        NatedAddress self = registry.intern(nated(0, selfParent));
+        MembershipList ml = list(new ObjectMemberStore(), registry, false, self);
+        NatedAddress relay = node(50);
+        ml.add(node(1), 0);
+        ml.add(nated(2, relay), 0);
+        ml.add(nated(3, relay), 0);
+        ml.add(selfParent, 0);
+        NatedAddress one = registry.intern(node(1));
+        NatedAddress relayBefore = registry.intern(node(50));
+        NatedAddress selfParentBefore = registry.intern(node(100));
+
+        ml.remove(node(1), 0);
+        assertNotSame(one, registry.intern(node(1)));
+
+        ml.remove(nated(2, relay), 0);
+        assertSame(relayBefore, registry.intern(node(50)));
+        ml.remove(nated(3, relay), 0);
+        assertNotSame(relayBefore, registry.intern(node(50)));
+
+        ml.remove(selfParent, 0);
+        assertSame(selfParentBefore, registry.intern(node(100)));
+        assertSame(self, registry.intern(nated(0, node(100))));
+    }
+
+    //A header carrying another parent set than the stored member gets its own canonical instance: interning either
+    //again returns the instance already held, neither displaces the other
+    @Test
+    public void parentSetVersionsAreInternedSideBySide() throws Exception {
+        AddressRegistry registry = new AddressRegistry();
+        MembershipList ml = list(new ObjectMemberStore(), registry, false, node(0));
+        ml.add(nated(5, node(1)), 0);
+        NatedAddress stored = ml.getNeighboursList().get(0);
+        NatedAddress header = registry.intern(nated(5, node(1), node(2)));
+        assertNotSame(stored, header);
+        for(int i = 0; i < 3; i++){
+            assertSame(stored, registry.intern(stored));
+            assertSame(header, registry.intern(nated(5, node(1), node(2))));
+            assertSame(stored, registry.intern(nated(5, node(1))));
+        }
+        assertSame(header, registry.withParent(stored, node(2)));
+        assertSame(stored, registry.withoutParent(header, node(2)));
+        assertSame(stored, ml.getNeighboursList().get(0));
+    }
+
+    //At most four versions per node: the least recently used one makes room
+    @Test
+    public void leastRecentlyUsedVersionIsDropped() throws Exception {
+        AddressRegistry registry = new AddressRegistry();
+        NatedAddress[] versions = new NatedAddress[4];
+        for(int i = 0; i < versions.length; i++){
+            versions[i] = registry.intern(nated(5, node(10 + i)));
+        }
+        assertSame(versions[0], registry.intern(nated(5, node(10))));
+        registry.intern(nated(5, node(20)));
+        assertSame(versions[0], registry.intern(nated(5, node(10))));
+        assertSame(versions[2], registry.intern(nated(5, node(12))));
+        assertNotSame(versions[1], registry.intern(nated(5, node(11))));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import static se.kth.swim.TestAddresses.node;
+import se.kth.swim.msg.net.InfoPiggyback;
+import se.kth.swim.msg.net.InfoType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * PiggybackList at buffer sizes 50 to 10k, in a steady state: add() to a full list (one update evicted),
+ * a round of decreaseCounters() (one bucket expires, one update comes in), and getList() both shared and
+ * rebuilt after such a round.
+ * Run with Executable/Benchmark.sh PiggybackList
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PiggybackListBenchmark {
+
+    @Param({"50", "500", "10000"})
+    public int size;
+
+    //size updates, no room left
+    private PiggybackList full;
+    //size updates with 1..size transmissions left: every round retires one
+    private PiggybackList rounds;
+    private NatedAddress[] targets;
+    //rising incarnations, so a target met again supersedes its older rumour
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        targets = new NatedAddress[size * 2];
+        for(int i = 0; i < targets.length; i++){
+            targets[i] = node(i + 1);
+        }
+        full = new PiggybackList(size);
+        rounds = new PiggybackList(size + 1);
+        for(int i = 0; i < size; i++){
+            full.add(update(), 1 + i % 50);
+            rounds.add(update(), i + 1);
+        }
+    }
+
+    private InfoPiggyback update() {
+        int i = next++;
+        return new InfoPiggyback(InfoType.ALIVENODE, targets[i % targets.length], i);
+    }
+
+    @Benchmark
+    public int addToFullList() {
+        full.add(update(), 1 + next % 50);
+        return full.listSize();
+    }
+
+    @Benchmark
+    public int decreaseCounters() {
+        rounds.decreaseCounters();
+        rounds.add(update(), size);
+        return rounds.listSize();
+    }
+
+    @Benchmark
+    public ArrayList<InfoPiggyback> getListShared() {
+        return full.getList();
+    }
+
+    //minus decreaseCounters(): the cost of rebuilding the list after a change
+    @Benchmark
+    public ArrayList<InfoPiggyback> getListAfterRound() {
+        rounds.decreaseCounters();
+        rounds.add(update(), size);
+        return rounds.getList();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static se.kth.swim.TestAddresses.nated;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.kth.swim.msg.net.InfoPiggyback;
+import se.kth.swim.msg.net.InfoType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * Bucket queue of PiggybackList: order, eviction, counter decrement, growth past the initial buckets and
+ * budgeted take().
+ */
+public class PiggybackListTest {
+
+    private static InfoPiggyback alive(int id, int incarnation) throws Exception {
+        return new InfoPiggyback(InfoType.ALIVENODE, node(id), incarnation);
+    }
+
+    private static List<Integer> targets(List<InfoPiggyback> list) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for(InfoPiggyback info : list){
+            ids.add(info.getInfoTarget().getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void mostTransmissionsLeftFirstThenOldest() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        pb.add(alive(1, 0), 3);
+        pb.add(alive(2, 0), 5);
+        pb.add(alive(3, 0), 3);
+        pb.add(alive(4, 0), 1);
+        assertEquals(Arrays.asList(2, 1, 3, 4), targets(pb.getList()));
+        assertEquals(Arrays.asList(2, 1), targets(pb.getList(2)));
+        assertEquals(4, pb.listSize());
+    }
+
+    @Test
+    public void nonPositiveCountersAreIgnored() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        pb.add(alive(1, 0), 0);
+        pb.add(alive(2, 0), -4);
+        assertEquals(0, pb.listSize());
+    }
+
+    @Test
+    public void decreaseCountersRetiresExpiredUpdates() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        InfoPiggyback a = alive(1, 0);
+        InfoPiggyback b = alive(2, 0);
+        pb.add(a, 1);
+        pb.add(b, 3);
+        pb.decreaseCounters();
+        assertNull(pb.getDissemination(a));
+        assertEquals(2, (int) pb.getDissemination(b));
+        assertEquals(Arrays.asList(2), targets(pb.getList()));
+        pb.decreaseCounters();
+        pb.decreaseCounters();
+        assertEquals(0, pb.listSize());
+        assertTrue(pb.getList().isEmpty());
+    }
+
+    @Test
+    public void fullListEvictsFewestTransmissionsLeftOldestFirst() throws Exception {
+        PiggybackList pb = new PiggybackList(3);
+        pb.add(alive(1, 0), 5);
+        pb.add(alive(2, 0), 2);
+        pb.add(alive(3, 0), 2);
+        pb.add(alive(4, 0), 4);
+        assertEquals(Arrays.asList(1, 4, 3), targets(pb.getList()));
+        pb.add(alive(5, 0), 9);
+        assertEquals(Arrays.asList(5, 1, 4), targets(pb.getList()));
+    }
+
+    @Test
+    public void newerRumourReplacesOlderOne() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        pb.add(alive(1, 2), 3);
+        pb.add(alive(1, 1), 7);
+        assertEquals(1, pb.listSize());
+        assertEquals(3, (int) pb.getDissemination(alive(1, 0)));
+
+        InfoPiggyback suspect = new InfoPiggyback(InfoType.SUSPECTEDNODE, node(1), 2);
+        pb.add(suspect, 6);
+        assertEquals(1, pb.listSize());
+        assertSame(suspect, pb.getList().get(0));
+        assertEquals(6, (int) pb.getDissemination(suspect));
+    }
+
+    @Test
+    public void withoutSupersessionEveryRumourIsKept() throws Exception {
+        PiggybackList pb = new PiggybackList(10, false);
+        pb.add(alive(1, 2), 3);
+        pb.add(alive(1, 1), 7);
+        assertEquals(2, pb.listSize());
+    }
+
+    //The first counter past the initial 64 buckets rehashes the live updates, whatever round they were added at
+    @Test
+    public void growKeepsCountersAndOrder() throws Exception {
+        PiggybackList pb = new PiggybackList(100);
+        for(int i = 1; i <= 10; i++){
+            pb.add(alive(i, 0), 60);
+            pb.decreaseCounters();
+        }
+        pb.add(alive(100, 0), 200);
+        for(int i = 1; i <= 10; i++){
+            assertEquals(49 + i, (int) pb.getDissemination(alive(i, 0)));
+        }
+        assertEquals(Arrays.asList(100, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1), targets(pb.getList()));
+        for(int r = 0; r < 51; r++){
+            pb.decreaseCounters();
+        }
+        assertEquals(Arrays.asList(100, 10, 9, 8, 7, 6, 5, 4, 3), targets(pb.getList()));
+        for(int r = 0; r < 9; r++){
+            pb.decreaseCounters();
+        }
+        assertEquals(Arrays.asList(100), targets(pb.getList()));
+        assertEquals(140, (int) pb.getDissemination(alive(100, 0)));
+    }
+
+    @Test
+    public void takeCountsEachUpdateOnceAndRetiresTheLastTransmission() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        pb.add(alive(1, 0), 1);
+        pb.add(alive(2, 0), 2);
+        pb.add(alive(3, 0), 3);
+        assertEquals(Arrays.asList(3, 2), targets(pb.take(2, Integer.MAX_VALUE)));
+        assertEquals(2, (int) pb.getDissemination(alive(3, 0)));
+        assertEquals(1, (int) pb.getDissemination(alive(2, 0)));
+
+        //2 moved to the back of the one-transmission-left bucket when it was taken
+        assertEquals(Arrays.asList(3, 1, 2), targets(pb.take(10, Integer.MAX_VALUE)));
+        assertEquals(1, pb.listSize());
+        assertEquals(1, (int) pb.getDissemination(alive(3, 0)));
+        assertEquals(Arrays.asList(3), targets(pb.getList()));
+    }
+
+    //An update over the byte budget is skipped, smaller ones after it still go
+    @Test
+    public void takeStaysWithinTheByteBudget() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        InfoPiggyback big = new InfoPiggyback(InfoType.ALIVENODE, nated(9, node(7), node(8)), 0);
+        InfoPiggyback small = alive(1, 0);
+        pb.add(big, 5);
+        pb.add(small, 4);
+        int budget = PiggybackList.sizeOf(small) + 1;
+        assertTrue(PiggybackList.sizeOf(big) > budget);
+        assertEquals(Arrays.asList(1), targets(pb.take(10, budget)));
+        assertEquals(5, (int) pb.getDissemination(big));
+        assertEquals(3, (int) pb.getDissemination(small));
+    }
+
+    //Behind enough oversized updates the small ones are not looked for: take() does not scan the whole list
+    @Test
+    public void takeStopsAfterSkippingOversizedUpdates() throws Exception {
+        PiggybackList pb = new PiggybackList(100);
+        for(int i = 0; i < 20; i++){
+            pb.add(new InfoPiggyback(InfoType.ALIVENODE, nated(100 + i, node(7), node(8)), 0), 5);
+        }
+        InfoPiggyback small = alive(1, 0);
+        pb.add(small, 4);
+        assertTrue(pb.take(10, PiggybackList.sizeOf(small) + 1).isEmpty());
+        assertEquals(4, (int) pb.getDissemination(small));
+        assertEquals(21, pb.take(30, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void snapshotIsSharedUntilTheListChanges() throws Exception {
+        PiggybackList pb = new PiggybackList(10);
+        pb.add(alive(1, 0), 2);
+        ArrayList<InfoPiggyback> first = pb.getList();
+        assertSame(first, pb.getList());
+        assertEquals(PiggybackList.sizeOf(alive(1, 0)), pb.getListBytes());
+        pb.decreaseCounters();
+        assertSame(first, pb.getList());
+        pb.decreaseCounters();
+        assertTrue(pb.getList().isEmpty());
+    }
+}
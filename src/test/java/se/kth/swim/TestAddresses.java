@@ -0,0 +1,44 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import se.sics.p2ptoolbox.util.network.NatType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicNatedAddress;
+
+/**
+ * Address fixtures of the tests and benchmarks. The ip and port follow from the node id, so two calls with the
+ * same id give equal, but distinct, addresses.
+ */
+public final class TestAddresses {
+
+    private TestAddresses() {
+    }
+
+    public static NatedAddress node(int id) {
+        return new BasicNatedAddress(base(id));
+    }
+
+    public static NatedAddress nated(int id, NatedAddress... parents) {
+        return new BasicNatedAddress(base(id), NatType.NAT, new HashSet<NatedAddress>(Arrays.asList(parents)));
+    }
+
+    //10.x.y.z from the low three bytes of the id, no name resolution
+    private static BasicAddress base(int id) {
+        byte[] ip = {10, (byte) (id >>> 16), (byte) (id >>> 8), (byte) id};
+        try {
+            return new BasicAddress(InetAddress.getByAddress(ip), 30000 + (id & 0x3FFF), id);
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
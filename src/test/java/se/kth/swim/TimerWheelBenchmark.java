@@ -0,0 +1,150 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Timer events per second: the TimerWheel against one Kompics timeout per deadline, the "kompicstimers" mode of
+ * SwimComp. That mode is emulated here without a running Kompics system: a random UUID per timeout, the
+ * component's entry to id map, and the timer component's id to task map in front of a java.util.Timer, which is
+ * how the Kompics Java timer keeps its timeouts. Delivery of the requests and timeouts through the ports is not
+ * counted, so the emulated figures are an upper bound on the throughput of that mode.
+ * A probe schedules an ack deadline and cancels it when the ack comes; pending is the number of other deadlines
+ * (suspects waiting to be declared dead) on the timer meanwhile.
+ * Run with Executable/Benchmark.sh TimerWheel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+
+    //As in SwimComp
+    private static final long ACK_TIMER = 10000;
+    private static final long WHEEL_TICK = 250;
+    private static final int WHEEL_SLOTS = 512;
+    //Far enough that the pending deadlines never expire during a run
+    private static final long PENDING_DELAY = 1000000000L;
+    //More than the ack deadlines in flight when the clock moves a millisecond per probe
+    private static final int IN_FLIGHT = 1 << 14;
+
+    @Param({"0", "10000"})
+    public int pending;
+
+    private static final class Deadline extends TimerWheel.Entry {
+    }
+
+    private TimerWheel wheel;
+    private Deadline[] probes;
+    private int next = 0;
+    private long now = 0;
+    private final List<TimerWheel.Entry> out = new ArrayList<TimerWheel.Entry>();
+
+    private Timer timer;
+    private final HashMap<TimerWheel.Entry, UUID> timeoutIds = new HashMap<TimerWheel.Entry, UUID>();
+    private final HashMap<UUID, TimerTask> activeTimers = new HashMap<UUID, TimerTask>();
+
+    @Setup
+    public void setUp() {
+        wheel = new TimerWheel(WHEEL_TICK, WHEEL_SLOTS, now);
+        timer = new Timer(true);
+        probes = new Deadline[IN_FLIGHT];
+        for(int i = 0; i < IN_FLIGHT; i++){
+            probes[i] = new Deadline();
+        }
+        for(int i = 0; i < pending; i++){
+            Deadline d = new Deadline();
+            wheel.schedule(d, PENDING_DELAY, now);
+            kompicsSchedule(d, PENDING_DELAY);
+        }
+    }
+
+    //java.util.Timer keeps cancelled tasks queued until their time, far beyond an iteration here
+    @TearDown(Level.Iteration)
+    public void purge() {
+        timer.purge();
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.cancel();
+    }
+
+    private Deadline nextProbe() {
+        Deadline d = probes[next];
+        next = (next + 1) & (IN_FLIGHT - 1);
+        return d;
+    }
+
+    private void kompicsSchedule(TimerWheel.Entry e, long delay) {
+        UUID id = UUID.randomUUID();
+        timeoutIds.put(e, id);
+        TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+            }
+        };
+        activeTimers.put(id, task);
+        timer.schedule(task, delay);
+    }
+
+    private void kompicsCancel(TimerWheel.Entry e) {
+        UUID id = timeoutIds.remove(e);
+        if(id != null){
+            TimerTask task = activeTimers.remove(id);
+            if(task != null) task.cancel();
+        }
+    }
+
+    //Two timer events: the schedule and the cancel
+    @Benchmark
+    public boolean wheelScheduleCancel() {
+        Deadline d = nextProbe();
+        wheel.schedule(d, ACK_TIMER, now);
+        return wheel.cancel(d);
+    }
+
+    @Benchmark
+    public void kompicsScheduleCancel() {
+        Deadline d = nextProbe();
+        kompicsSchedule(d, ACK_TIMER);
+        kompicsCancel(d);
+    }
+
+    //Two timer events: a schedule, and the expiry of an earlier ack deadline that advancing the clock brings
+    @Benchmark
+    public int wheelScheduleExpire() {
+        wheel.schedule(nextProbe(), ACK_TIMER, now);
+        now++;
+        wheel.advance(now, out);
+        int expired = out.size();
+        out.clear();
+        return expired;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Deadlines on the TimerWheel: rounding to ticks, deadlines more than one turn away, cancel and reschedule,
+ * and advance() calls that skip over many ticks at once.
+ */
+public class TimerWheelTest {
+
+    private static final long TICK = 10;
+
+    private static final class Deadline extends TimerWheel.Entry {
+        private final int id;
+
+        private Deadline(int id) {
+            this.id = id;
+        }
+    }
+
+    private static List<Integer> advance(TimerWheel wheel, long now) {
+        List<TimerWheel.Entry> out = new ArrayList<TimerWheel.Entry>();
+        wheel.advance(now, out);
+        List<Integer> ids = new ArrayList<Integer>();
+        for(TimerWheel.Entry e : out){
+            assertFalse(e.isScheduled());
+            ids.add(((Deadline) e).id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void deadlineIsRoundedUpToAWholeTick() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, 1000);
+        Deadline d = new Deadline(1);
+        wheel.schedule(d, 25, 1000);
+        assertTrue(d.isScheduled());
+        assertTrue(advance(wheel, 1029).isEmpty());
+        assertEquals(Arrays.asList(1), advance(wheel, 1030));
+        assertEquals(0, wheel.size());
+        assertEquals(1, wheel.getExpired());
+    }
+
+    //A deadline that is already due still waits for the next tick, it never fires inside schedule()
+    @Test
+    public void zeroDelayExpiresAtTheNextTick() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, 0);
+        assertTrue(advance(wheel, 55).isEmpty());
+        wheel.schedule(new Deadline(1), 0, 55);
+        assertTrue(advance(wheel, 59).isEmpty());
+        assertEquals(Arrays.asList(1), advance(wheel, 60));
+    }
+
+    @Test
+    public void deadlinesSeveralTurnsAwayWaitTheirTurns() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, 0);
+        //same slot (tick 3 modulo 8), zero, one and twelve turns away
+        wheel.schedule(new Deadline(1), 30, 0);
+        wheel.schedule(new Deadline(2), 110, 0);
+        wheel.schedule(new Deadline(3), 990, 0);
+        //exactly one turn away
+        wheel.schedule(new Deadline(4), 80, 0);
+        List<Integer> fired = new ArrayList<Integer>();
+        long[] firedAt = new long[5];
+        for(long now = 0; now <= 1000; now += TICK){
+            for(Integer id : advance(wheel, now)){
+                fired.add(id);
+                firedAt[id] = now;
+            }
+        }
+        assertEquals(Arrays.asList(1, 4, 2, 3), fired);
+        assertEquals(30, firedAt[1]);
+        assertEquals(110, firedAt[2]);
+        assertEquals(990, firedAt[3]);
+        assertEquals(80, firedAt[4]);
+    }
+
+    //One advance() over many turns fires everything that came due, in deadline order, and nothing early
+    @Test
+    public void advanceSkippingTicksFiresInDeadlineOrder() {
+        TimerWheel wheel = new TimerWheel(TICK, 4, 0);
+        int[] delays = {700, 15, 390, 40, 41, 1000, 5000};
+        for(int i = 0; i < delays.length; i++){
+            wheel.schedule(new Deadline(i), delays[i], 0);
+        }
+        assertEquals(Arrays.asList(1, 3, 4, 2, 0), advance(wheel, 705));
+        assertEquals(2, wheel.size());
+        assertTrue(advance(wheel, 999).isEmpty());
+        assertEquals(Arrays.asList(5), advance(wheel, 4999));
+        assertEquals(Arrays.asList(6), advance(wheel, 100000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelledDeadlineNeverFires() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, 0);
+        Deadline kept = new Deadline(1);
+        Deadline dropped = new Deadline(2);
+        wheel.schedule(kept, 200, 0);
+        wheel.schedule(dropped, 200, 0);
+        assertTrue(wheel.cancel(dropped));
+        assertFalse(dropped.isScheduled());
+        assertFalse(wheel.cancel(dropped));
+        assertFalse(wheel.cancel(null));
+        assertEquals(1, wheel.size());
+        assertEquals(Arrays.asList(1), advance(wheel, 200));
+        assertFalse(wheel.cancel(kept));
+        assertEquals(2, wheel.getScheduled());
+        assertEquals(1, wheel.getCancelled());
+        assertEquals(1, wheel.getExpired());
+    }
+
+    @Test
+    public void rescheduleMovesTheDeadline() {
+        TimerWheel wheel = new TimerWheel(TICK, 8, 0);
+        Deadline d = new Deadline(1);
+        wheel.schedule(d, 50, 0);
+        wheel.schedule(d, 300, 20);
+        assertEquals(1, wheel.size());
+        assertTrue(advance(wheel, 310).isEmpty());
+        assertEquals(Arrays.asList(1), advance(wheel, 320));
+        //and back to an earlier deadline, which fires once only
+        wheel.schedule(d, 500, 320);
+        wheel.schedule(d, 10, 320);
+        assertEquals(Arrays.asList(1), advance(wheel, 1000));
+        assertEquals(0, wheel.size());
+    }
+
+    //A slot count that is not a power of two is rounded up: turns are counted on the real size
+    @Test
+    public void oddSlotCountKeepsDeadlines() {
+        TimerWheel wheel = new TimerWheel(TICK, 5, 0);
+        for(int i = 1; i <= 20; i++){
+            wheel.schedule(new Deadline(i), i * TICK, 0);
+        }
+        for(int i = 1; i <= 20; i++){
+            assertEquals(Arrays.asList(i), advance(wheel, i * TICK));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.internal;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import static se.kth.swim.TestAddresses.node;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+
+/**
+ * One full Croupier shuffle between two views of 20 to 1000 entries, both sides of it: the initiator picks the
+ * peer and samples what it sends, the receiver samples its reply and keeps what it got, and the initiator keeps
+ * the reply. Both views age once, as each node does once per round. The shuffle size is the one of the
+ * simulations and the UDP launcher.
+ * Run with Executable/Benchmark.sh CroupierView
+ * The main() checks what sampling allocates: the bytes per op (JMH gc profiler) of sample(), which draws the
+ * descriptors sent to a peer and records them as pending, against descriptorSet(), which builds a set of as many
+ * descriptor copies and does nothing else: Executable/Benchmark.sh report se.kth.swim.croupier.internal.CroupierViewBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CroupierViewBenchmark {
+
+    private static final int SHUFFLE_SIZE = 5;
+
+    @Param({"20", "100", "1000"})
+    public int viewSize;
+
+    @Param({"RANDOM", "TAIL"})
+    public CroupierSelectionPolicy policy;
+
+    private final NatedAddress initiatorSelf = node(0);
+    private final NatedAddress receiverSelf = node(1);
+    private CroupierView<Object> initiator;
+    private CroupierView<Object> receiver;
+    private NatedAddress[] peers;
+    private CroupierContainer<Object>[] containers;
+    private int nextPeer = 0;
+
+    //Both views start full, from a population twice their size
+    @Setup
+    public void setUp() {
+        Random rand = new Random(1);
+        initiator = new CroupierView<Object>((BasicAddress) initiatorSelf.getBaseAdr(), viewSize, new Random(2), false);
+        receiver = new CroupierView<Object>((BasicAddress) receiverSelf.getBaseAdr(), viewSize, new Random(3), false);
+        for(CroupierView<Object> view : new CroupierView[]{initiator, receiver}){
+            Set<CroupierContainer<Object>> descriptors = new HashSet<CroupierContainer<Object>>();
+            while(descriptors.size() < viewSize){
+                descriptors.add(new CroupierContainer<Object>(node(2 + rand.nextInt(2 * viewSize)), null, rand.nextInt(20)));
+            }
+            view.selectToKeep(node(-1), descriptors);
+        }
+        peers = new NatedAddress[64];
+        for(int i = 0; i < peers.length; i++){
+            peers[i] = node(-2 - i);
+        }
+        containers = new CroupierContainer[SHUFFLE_SIZE];
+        for(int i = 0; i < containers.length; i++){
+            containers[i] = new CroupierContainer<Object>(peers[i], null, i);
+        }
+    }
+
+    @Benchmark
+    public int shuffle() {
+        initiator.incrementDescriptorAges();
+        receiver.incrementDescriptorAges();
+        NatedAddress peer = initiator.selectPeerToShuffleWith(policy, false, 0);
+        Set<CroupierContainer<Object>> request = initiator.initiatorCopySet(SHUFFLE_SIZE, peer);
+        request.add(new CroupierContainer<Object>(initiatorSelf, null));
+        Set<CroupierContainer<Object>> response = receiver.receiverCopySet(SHUFFLE_SIZE, initiatorSelf);
+        receiver.selectToKeep(initiatorSelf, request);
+        initiator.selectToKeep(peer, response);
+        return initiator.size() + receiver.size();
+    }
+
+    //The sampling of one shuffle that times out: the descriptor set sent, and the pending record of it
+    @Benchmark
+    public int sample() {
+        NatedAddress peer = peers[nextPeer++ & (peers.length - 1)];
+        Set<CroupierContainer<Object>> request = initiator.initiatorCopySet(SHUFFLE_SIZE, peer);
+        initiator.forgetSentTo(peer);
+        return request.size();
+    }
+
+    //Baseline for sample(): a set of SHUFFLE_SIZE descriptor copies sized like the one sent, nothing else
+    @Benchmark
+    public int descriptorSet() {
+        Set<CroupierContainer<Object>> set = new HashSet<CroupierContainer<Object>>((SHUFFLE_SIZE + 1) * 4 / 3 + 1);
+        for(int i = 0; i < SHUFFLE_SIZE; i++){
+            set.add(containers[i].getCopy());
+        }
+        return set.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CroupierViewBenchmark.class.getSimpleName() + ".(sample|descriptorSet)$")
+                .param("policy", "RANDOM")
+                .addProfiler(GCProfiler.class)
+                .build();
+        System.out.println("Bytes allocated per op, sample() should match descriptorSet():");
+        for(RunResult r : new Runner(opt).run()){
+            Result alloc = r.getSecondaryResults().get("gc.alloc.rate.norm");
+            System.out.println(String.format("  %-14s viewSize %4s  %6.1f B/op", r.getParams().getBenchmark().replaceAll(".*\\.", ""),
+                    r.getParams().getParam("viewSize"), alloc == null ? Double.NaN : alloc.getScore()));
+        }
+    }
+}
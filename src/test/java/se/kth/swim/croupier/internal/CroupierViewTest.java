@@ -0,0 +1,260 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.kth.swim.croupier.CroupierSelectionPolicy;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+
+/**
+ * CroupierView bookkeeping: adds and removes keep the slot array packed, and the age order read by the TAIL and
+ * HEALER policies stays exact through refreshes, replacements, timeouts and ageing.
+ */
+public class CroupierViewTest {
+
+    private static final NatedAddress SELF = node(0);
+
+    private static CroupierView<Object> view(int size, boolean healer, long seed) {
+        return new CroupierView<Object>((BasicAddress) SELF.getBaseAdr(), size, new Random(seed), healer);
+    }
+
+    private static Set<CroupierContainer<Object>> descriptors(int... idAndAge) {
+        Set<CroupierContainer<Object>> set = new HashSet<CroupierContainer<Object>>();
+        for(int i = 0; i < idAndAge.length; i += 2){
+            set.add(new CroupierContainer<Object>(node(idAndAge[i]), null, idAndAge[i+1]));
+        }
+        return set;
+    }
+
+    //id -> age, from a sample of the view
+    private static Map<Integer, Integer> ages(CroupierView<Object> view) {
+        Map<Integer, Integer> ages = new HashMap<Integer, Integer>();
+        for(CroupierContainer<Object> c : view.getAllCopy()){
+            assertNull(ages.put(c.getSource().getId(), c.getAge()));
+        }
+        assertEquals(view.size(), ages.size());
+        return ages;
+    }
+
+    /*
+    Walks the age order through the public API: TAIL without softmax picks the oldest candidate, so excluding each
+    pick in turn lists every entry exactly once, oldest first. Checks that against the ages of the view
+    */
+    private static List<Integer> oldestFirst(CroupierView<Object> view) {
+        Map<Integer, Integer> ages = ages(view);
+        Set<BasicAddress> exclude = new HashSet<BasicAddress>();
+        List<Integer> order = new ArrayList<Integer>();
+        int last = Integer.MAX_VALUE;
+        NatedAddress pick;
+        while((pick = view.selectPeerToShuffleWith(CroupierSelectionPolicy.TAIL, false, 0, exclude)) != null){
+            assertTrue(exclude.add((BasicAddress) pick.getBaseAdr()));
+            int age = ages.get(pick.getId());
+            assertTrue("age order broken at " + pick.getId(), age <= last);
+            last = age;
+            order.add(pick.getId());
+        }
+        assertEquals(ages.size(), order.size());
+        return order;
+    }
+
+    @Test
+    public void addsUpToTheViewSizeAndSkipsSelf() {
+        CroupierView<Object> view = view(4, false, 1);
+        assertTrue(view.isEmpty());
+        assertNull(view.selectPeerToShuffleWith(CroupierSelectionPolicy.RANDOM, false, 0));
+        view.selectToKeep(node(9), descriptors(0, 0, 1, 3, 2, 1, 3, 2));
+        assertEquals(3, view.size());
+        assertFalse(view.contains(SELF));
+        assertTrue(view.contains(node(1)));
+        assertEquals(Arrays.asList(1, 3, 2), oldestFirst(view));
+    }
+
+    @Test
+    public void descriptorsFromSelfAreIgnored() {
+        CroupierView<Object> view = view(4, false, 1);
+        view.selectToKeep(SELF, descriptors(1, 0));
+        assertTrue(view.isEmpty());
+    }
+
+    @Test
+    public void youngerDescriptorRefreshesTheEntry() {
+        CroupierView<Object> view = view(4, false, 1);
+        view.selectToKeep(node(9), descriptors(1, 5, 2, 3, 3, 1));
+        view.selectToKeep(node(9), descriptors(1, 0, 2, 8));
+        Map<Integer, Integer> ages = ages(view);
+        assertEquals(0, (int) ages.get(1));
+        assertEquals(3, (int) ages.get(2));
+        assertEquals(Arrays.asList(2, 3, 1), oldestFirst(view));
+    }
+
+    @Test
+    public void timedOutEntriesAreRemovedAndTheSlotsRepacked() {
+        CroupierView<Object> view = view(6, false, 1);
+        view.selectToKeep(node(9), descriptors(1, 1, 2, 2, 3, 3, 4, 4, 5, 5));
+        view.timedOut(node(1));
+        view.timedOut(node(4));
+        view.timedOut(node(7));
+        assertEquals(3, view.size());
+        assertFalse(view.contains(node(1)));
+        assertFalse(view.contains(node(4)));
+        assertEquals(Arrays.asList(5, 3, 2), oldestFirst(view));
+        //the freed slots are reused
+        view.selectToKeep(node(9), descriptors(6, 0, 7, 9, 8, 4));
+        assertEquals(6, view.size());
+        assertEquals(Arrays.asList(7, 5, 8, 3, 2, 6), oldestFirst(view));
+    }
+
+    @Test
+    public void ageingKeepsTheOrder() {
+        CroupierView<Object> view = view(4, false, 1);
+        view.selectToKeep(node(9), descriptors(1, 2, 2, 0, 3, 1));
+        view.incrementDescriptorAges();
+        view.incrementDescriptorAges();
+        Map<Integer, Integer> ages = ages(view);
+        assertEquals(4, (int) ages.get(1));
+        assertEquals(2, (int) ages.get(2));
+        assertEquals(Arrays.asList(1, 3, 2), oldestFirst(view));
+    }
+
+    //Swapper: a full view makes room with the entries it sent to the shuffle peer, then the peer's own entry
+    @Test
+    public void fullSwapperViewReplacesWhatItSentToThePeer() {
+        CroupierView<Object> view = view(3, false, 1);
+        view.selectToKeep(node(9), descriptors(1, 1, 2, 2, 9, 3));
+        Set<CroupierContainer<Object>> sent = view.initiatorCopySet(1, node(9));
+        assertEquals(1, sent.size());
+        int sentId = sent.iterator().next().getSource().getId();
+        view.selectToKeep(node(9), descriptors(5, 0, 6, 0, 7, 0));
+        //the sent entry goes first, then the peer's own entry (unless that was the one sent), then there is no room
+        assertFalse(view.contains(node(sentId)));
+        assertFalse(view.contains(node(9)));
+        assertEquals(sentId == 9 ? 1 : 2, countOf(view, 5, 6, 7));
+        assertEquals(sentId == 9 ? 2 : 1, countOf(view, 1, 2));
+        oldestFirst(view);
+    }
+
+    //Once the shuffle is forgotten (timeout) only the peer's own entry can be replaced
+    @Test
+    public void forgottenShuffleFreesNothingButThePeer() {
+        CroupierView<Object> view = view(3, false, 1);
+        view.selectToKeep(node(8), descriptors(1, 1, 2, 2, 9, 3));
+        view.initiatorCopySet(3, node(9));
+        view.forgetSentTo(node(9));
+        view.selectToKeep(node(9), descriptors(5, 0, 6, 0));
+        assertEquals(3, view.size());
+        assertFalse(view.contains(node(9)));
+        assertTrue(view.contains(node(1)));
+        assertTrue(view.contains(node(2)));
+        assertEquals(1, countOf(view, 5, 6));
+    }
+
+    //Several shuffles pending at once: merging or forgetting one leaves what was sent to the others in place
+    @Test
+    public void pendingShufflesAreKeptApart() {
+        CroupierView<Object> view = view(4, false, 1);
+        view.selectToKeep(node(8), descriptors(1, 1, 2, 2, 3, 3, 4, 4));
+        Set<CroupierContainer<Object>> toFive = view.initiatorCopySet(1, node(5));
+        view.initiatorCopySet(4, node(6));
+        Set<CroupierContainer<Object>> toSeven = view.initiatorCopySet(1, node(7));
+        view.forgetSentTo(node(6));
+        view.selectToKeep(node(5), descriptors(10, 0));
+        int sentToFive = toFive.iterator().next().getSource().getId();
+        assertFalse(view.contains(node(sentToFive)));
+        assertTrue(view.contains(node(10)));
+        //the entry sent to 7 is the one its reply replaces, unless the reply to 5 already took it: then no room
+        int sentToSeven = toSeven.iterator().next().getSource().getId();
+        view.selectToKeep(node(7), descriptors(11, 0));
+        assertEquals(sentToSeven != sentToFive, view.contains(node(11)));
+        assertFalse(view.contains(node(sentToSeven)));
+        assertEquals(4, view.size());
+        oldestFirst(view);
+    }
+
+    //Healer: a full view drops its oldest entry for any younger descriptor
+    @Test
+    public void fullHealerViewReplacesTheOldest() {
+        CroupierView<Object> view = view(3, true, 1);
+        view.selectToKeep(node(9), descriptors(1, 1, 2, 6, 3, 4));
+        view.selectToKeep(node(9), descriptors(5, 5));
+        assertFalse(view.contains(node(2)));
+        assertTrue(view.contains(node(5)));
+        assertEquals(Arrays.asList(5, 3, 1), oldestFirst(view));
+        //not younger than the oldest left: kept out
+        view.selectToKeep(node(9), descriptors(6, 5));
+        assertFalse(view.contains(node(6)));
+    }
+
+    @Test
+    public void excludedPeersAreNeverPicked() {
+        CroupierView<Object> view = view(8, false, 3);
+        view.selectToKeep(node(9), descriptors(1, 1, 2, 2, 3, 3, 4, 4));
+        Set<BasicAddress> exclude = new HashSet<BasicAddress>();
+        exclude.add((BasicAddress) node(1).getBaseAdr());
+        exclude.add((BasicAddress) node(3).getBaseAdr());
+        for(CroupierSelectionPolicy policy : CroupierSelectionPolicy.values()){
+            for(int i = 0; i < 50; i++){
+                NatedAddress pick = view.selectPeerToShuffleWith(policy, true, 2.0, exclude);
+                assertNotNull(pick);
+                assertFalse(exclude.contains((BasicAddress) pick.getBaseAdr()));
+            }
+        }
+        exclude.add((BasicAddress) node(2).getBaseAdr());
+        exclude.add((BasicAddress) node(4).getBaseAdr());
+        assertNull(view.selectPeerToShuffleWith(CroupierSelectionPolicy.TAIL, true, 2.0, exclude));
+    }
+
+    //Random shuffles, timeouts and ageing, swapper and healer: the invariants hold after every step
+    @Test
+    public void invariantsHoldUnderChurn() {
+        for(boolean healer : new boolean[]{false, true}){
+            Random rand = new Random(7);
+            CroupierView<Object> view = view(20, healer, 11);
+            for(int round = 0; round < 2000; round++){
+                view.incrementDescriptorAges();
+                NatedAddress peer = node(1 + rand.nextInt(100));
+                view.initiatorCopySet(5, peer);
+                Set<CroupierContainer<Object>> in = new HashSet<CroupierContainer<Object>>();
+                for(int i = 0; i < 6; i++){
+                    in.add(new CroupierContainer<Object>(node(rand.nextInt(100)), null, rand.nextInt(15)));
+                }
+                if(rand.nextInt(5) == 0){
+                    view.forgetSentTo(peer);
+                }
+                view.selectToKeep(peer, in);
+                if(!view.isEmpty() && rand.nextInt(8) == 0){
+                    view.timedOut(view.selectPeerToShuffleWith(CroupierSelectionPolicy.RANDOM, false, 0));
+                }
+                assertTrue(view.size() <= 20);
+                assertFalse(view.contains(SELF));
+                oldestFirst(view);
+            }
+        }
+    }
+
+    private static int countOf(CroupierView<Object> view, int... ids) {
+        int count = 0;
+        for(int id : ids){
+            if(view.contains(node(id))) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.croupier.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.kth.swim.TestAddresses.nated;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.kth.swim.croupier.CroupierConfig;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.BasicAddress;
+
+/**
+ * The shuffle steps both croupier components run on an OverlayState: the own descriptor goes into the view
+ * matching the node, a response is picked before the request is merged, a timeout drops the peer, and the view
+ * ids are reported public first.
+ */
+public class OverlayStateTest {
+
+    private static final NatedAddress SELF = node(0);
+    private static final CroupierConfig CONFIG = new CroupierConfig(4, 2, 2000, 1000);
+
+    private static OverlayState overlay(NatedAddress self) {
+        return new OverlayState(1, (BasicAddress) self.getBaseAdr(), CONFIG, new Random(1));
+    }
+
+    private static Set<CroupierContainer> descriptors(NatedAddress... nodes) {
+        Set<CroupierContainer> set = new HashSet<CroupierContainer>();
+        for(NatedAddress na : nodes){
+            set.add(new CroupierContainer(na, null));
+        }
+        return set;
+    }
+
+    private static boolean hasSource(Set<CroupierContainer> descriptors, NatedAddress node) {
+        for(CroupierContainer c : descriptors){
+            if(c.getSource().getId().equals(node.getId())) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void requestCarriesSelfInTheMatchingView() {
+        OverlayState open = overlay(SELF);
+        CroupierShuffle.Request request = open.request(SELF, new Object(), node(5));
+        assertTrue(hasSource(request.publicNodes, SELF));
+        assertTrue(request.privateNodes.isEmpty());
+
+        NatedAddress natedSelf = nated(7, node(1));
+        OverlayState behindNat = overlay(natedSelf);
+        request = behindNat.request(natedSelf, new Object(), node(5));
+        assertTrue(request.publicNodes.isEmpty());
+        assertTrue(hasSource(request.privateNodes, natedSelf));
+    }
+
+    @Test
+    public void responseIsPickedBeforeTheRequestIsMerged() {
+        OverlayState overlay = overlay(SELF);
+        CroupierShuffle.Request request = new CroupierShuffle.Request(UUID.randomUUID(), descriptors(node(2), node(3)),
+                descriptors(nated(4, node(2))));
+        CroupierShuffle.Response response = overlay.respond(SELF, new Object(), node(2), request);
+        assertEquals(request.getId(), response.getId());
+        //only the own descriptor: the view was empty when the response was picked
+        assertEquals(1, response.publicNodes.size());
+        assertTrue(response.privateNodes.isEmpty());
+        assertTrue(overlay.contains(node(3)));
+        assertTrue(overlay.contains(nated(4, node(2))));
+        assertEquals(2, overlay.publicSize());
+        assertEquals(1, overlay.privateSize());
+    }
+
+    @Test
+    public void timedOutPeerLeavesItsView() {
+        OverlayState overlay = overlay(SELF);
+        NatedAddress natedPeer = nated(4, node(2));
+        overlay.keep(node(9), new CroupierShuffle.Response(UUID.randomUUID(), descriptors(node(2), node(3)), descriptors(natedPeer)));
+        overlay.request(SELF, new Object(), node(2));
+        overlay.timedOut(node(2));
+        overlay.timedOut(natedPeer);
+        assertFalse(overlay.contains(node(2)));
+        assertFalse(overlay.contains(natedPeer));
+        assertTrue(overlay.contains(node(3)));
+        assertFalse(overlay.isEmpty());
+    }
+
+    //What the croupier components report for STALEVIEWS: public ids first, then private ones
+    @Test
+    public void viewIdsListBothViews() {
+        OverlayState overlay = overlay(SELF);
+        assertEquals(0, overlay.viewIds().length);
+        overlay.keep(node(9), new CroupierShuffle.Response(UUID.randomUUID(), descriptors(node(2), node(3)), descriptors(nated(4, node(2)))));
+        int[] ids = overlay.viewIds();
+        assertEquals(3, ids.length);
+        Arrays.sort(ids, 0, 2);
+        assertEquals("[2, 3, 4]", Arrays.toString(ids));
+    }
+}
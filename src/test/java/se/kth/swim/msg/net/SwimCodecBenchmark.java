@@ -0,0 +1,119 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.msg.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import static se.kth.swim.TestAddresses.nated;
+import static se.kth.swim.TestAddresses.node;
+import se.kth.swim.msg.Status;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+
+/**
+ * SwimCodec throughput: encoding and decoding a ping carrying 0 to 50 rumours, about open nodes only or with
+ * every other target behind a NAT with two parents out of a small relay pool, as NATed members share relays.
+ * Run with Executable/Benchmark.sh SwimCodec
+ * The main() reports the encoded sizes of those pings and of a status: Executable/Benchmark.sh report
+ * se.kth.swim.msg.net.SwimCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwimCodecBenchmark {
+
+    private static final int RELAYS = 5;
+
+    @Param({"0", "10", "50"})
+    public int rumours;
+
+    @Param({"false", "true"})
+    public boolean nat;
+
+    private NetPing ping;
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer in;
+
+    private static NetPing ping(int rumours, boolean nat) {
+        NatedAddress[] relays = new NatedAddress[RELAYS];
+        for(int i = 0; i < RELAYS; i++){
+            relays[i] = node(1000 + i);
+        }
+        InfoType[] types = InfoType.values();
+        ArrayList<InfoPiggyback> list = new ArrayList<InfoPiggyback>();
+        for(int i = 0; i < rumours; i++){
+            int id = 1 + i * 37;
+            NatedAddress target = nat && i % 2 == 1 ? nated(id, relays[i % RELAYS], relays[(i + 1) % RELAYS]) : node(id);
+            InfoType type = types[i % types.length];
+            if(type == InfoType.NEWPARENT || type == InfoType.DEADPARENT){
+                list.add(new InfoPiggyback(type, target, relays[(i + 2) % RELAYS]));
+            } else {
+                list.add(new InfoPiggyback(type, target, i * 3));
+            }
+        }
+        NatedAddress src = nat ? nated(5000, relays[0], relays[1]) : node(5000);
+        return new NetPing(src, node(5001), list, 7, 123456);
+    }
+
+    //The counters a node reports every second, with a few detections and its RTT histogram
+    private static Status status() {
+        Status s = new Status(3000, 1000, 40, 2, 5, 3, 1, 1, 2, 4);
+        s.detections = new HashMap<Integer,Long>();
+        s.detections.put(17, 1445000000000L);
+        s.detections.put(230, 1445000004000L);
+        s.rttBuckets = new int[]{0, 0, 12, 340, 2100, 480, 60, 8};
+        return s;
+    }
+
+    @Setup
+    public void setUp() {
+        ping = ping(rumours, nat);
+        out.clear();
+        SwimCodec.encode(ping, out);
+        out.flip();
+        in = out.duplicate();
+    }
+
+    @Benchmark
+    public int encode() {
+        out.clear();
+        SwimCodec.encode(ping, out);
+        return out.position();
+    }
+
+    @Benchmark
+    public NetMsg decode() {
+        in.rewind();
+        return SwimCodec.decode(in);
+    }
+
+    public static void main(String[] args) {
+        ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+        System.out.println("Encoded sizes, bytes:");
+        System.out.println("  rumours   open   nat");
+        for(int rumours : new int[]{0, 1, 10, 50}){
+            System.out.println(String.format("  %7d  %5d %5d", rumours, SwimCodec.encodedSize(ping(rumours, false), scratch),
+                    SwimCodec.encodedSize(ping(rumours, true), scratch)));
+        }
+        System.out.println("  status: " + SwimCodec.encodedSize(new NetStatus(node(1), node(0), status()), scratch));
+    }
+}
@@ -0,0 +1,627 @@
+/*
+* To change this license header, choose License Headers in Project Properties.
+* To change this template file, choose Tools | Templates
+* and open the template in the editor.
+*/
+
+package se.kth.swim.msg.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.kth.swim.TestAddresses.nated;
+import static se.kth.swim.TestAddresses.node;
+import org.junit.Test;
+import se.kth.swim.croupier.internal.CroupierContainer;
+import se.kth.swim.croupier.internal.CroupierShuffle;
+import se.kth.swim.croupier.internal.CroupierShuffleNet;
+import se.kth.swim.croupier.msg.CroupierStatus;
+import se.kth.swim.croupier.msg.CroupierStatusNet;
+import se.kth.swim.croupier.util.OverlayHeaderImpl;
+import se.kth.swim.msg.ParentPing;
+import se.kth.swim.msg.Ping;
+import se.kth.swim.msg.Status;
+import se.sics.kompics.network.Header;
+import se.sics.p2ptoolbox.util.network.NatType;
+import se.sics.p2ptoolbox.util.network.NatedAddress;
+import se.sics.p2ptoolbox.util.network.impl.RelayHeader;
+import se.sics.p2ptoolbox.util.network.impl.SourceHeader;
+
+/**
+ * Round trips of every message with a wire format, fixed and randomized, in the relay headers of the NAT layer too,
+ * and decoding of truncated or corrupt bytes.
+ */
+public class SwimCodecTest {
+
+    private static byte[] encode(NetMsg msg) {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        SwimCodec.encode(msg, buf);
+        buf.flip();
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static NetMsg roundTrip(NetMsg msg) {
+        ByteBuffer buf = ByteBuffer.wrap(encode(msg));
+        NetMsg decoded = SwimCodec.decode(buf);
+        assertEquals(0, buf.remaining());
+        assertEquals(msg.getClass(), decoded.getClass());
+        assertSameAddress((NatedAddress) msg.getHeader().getSource(), (NatedAddress) decoded.getHeader().getSource());
+        assertSameAddress((NatedAddress) msg.getHeader().getDestination(), (NatedAddress) decoded.getHeader().getDestination());
+        return decoded;
+    }
+
+    //Addresses do not compare by value: id, ip, port, nat type and the parents, recursively
+    private static void assertSameAddress(NatedAddress expected, NatedAddress actual) {
+        if(expected==null){
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getIp(), actual.getIp());
+        assertEquals(expected.getPort(), actual.getPort());
+        assertEquals(expected.getNatType(), actual.getNatType());
+        assertEquals(expected.getParents().size(), actual.getParents().size());
+        for(NatedAddress parent : expected.getParents()){
+            NatedAddress match = null;
+            for(NatedAddress candidate : actual.getParents()){
+                if(candidate.getId().equals(parent.getId())) match = candidate;
+            }
+            assertSameAddress(parent, match);
+        }
+    }
+
+    private static void assertSamePing(Ping expected, Ping actual) {
+        assertEquals(expected.seq, actual.seq);
+        assertEquals(expected.incarnationValue, actual.incarnationValue);
+        assertSameAddress(expected.toPing, actual.toPing);
+        assertEquals(expected.parentsList.size(), actual.parentsList.size());
+        for(NatedAddress parent : expected.parentsList){
+            NatedAddress match = null;
+            for(NatedAddress candidate : actual.parentsList){
+                if(candidate.getId().equals(parent.getId())) match = candidate;
+            }
+            assertSameAddress(parent, match);
+        }
+        if(expected.infoList==null){
+            assertNull(actual.infoList);
+            return;
+        }
+        assertEquals(expected.infoList.size(), actual.infoList.size());
+        for(int i = 0; i < expected.infoList.size(); i++){
+            InfoPiggyback e = expected.infoList.get(i);
+            InfoPiggyback a = actual.infoList.get(i);
+            assertEquals(e.getInfoType(), a.getInfoType());
+            assertSameAddress(e.getInfoTarget(), a.getInfoTarget());
+            if(e.isParentInfo()){
+                assertSameAddress(e.getInfoParent(), a.getInfoParent());
+            } else {
+                assertEquals(e.getIncarnationValue(), a.getIncarnationValue());
+            }
+        }
+    }
+
+    private static ArrayList<InfoPiggyback> rumours(NatedAddress... targets) {
+        ArrayList<InfoPiggyback> list = new ArrayList<InfoPiggyback>();
+        InfoType[] types = {InfoType.ALIVENODE, InfoType.SUSPECTEDNODE, InfoType.DEADNODE, InfoType.NEWNODE};
+        for(int i = 0; i < targets.length; i++){
+            list.add(new InfoPiggyback(types[i % types.length], targets[i], i * 1000 - 3));
+        }
+        return list;
+    }
+
+    private static Status fullStatus() {
+        Status s = new Status(12);
+        s.memberSize = 99;
+        s.alivePB = 1; s.deadPB = 2; s.suspectedPB = 3; s.newPB = 4; s.incarnationValue = 5; s.newParentPB = 6;
+        s.deadParentPB = 7; s.parentsSize = 8; s.tombstones = 9; s.localHealth = 10; s.latePongs = 11;
+        s.duplicatePongs = 12; s.timerEvents = 13; s.wheelEvents = 14; s.pbMessages = 15; s.pbEntries = 16;
+        s.pbBytes = 1 << 20;
+        s.detections = new HashMap<Integer,Long>();
+        s.detections.put(40, 123456789012L);
+        s.detections.put(3, 0L);
+        s.rttBuckets = new int[]{0, 5, 300, 70000};
+        return s;
+    }
+
+    /*
+    Property tests: random messages of each class round trip unchanged. Each run draws a pool of addresses, open or
+    NATed behind earlier ones, with ids that repeat (so one node shows up with several parent sets) and extreme
+    values mixed in. Seeded, so a failure replays
+    */
+    private static final int TRIALS = 300;
+
+    private static NatedAddress[] randomAddresses(Random rand) {
+        NatedAddress[] pool = new NatedAddress[1 + rand.nextInt(40)];
+        for(int i = 0; i < pool.length; i++){
+            int id = rand.nextInt(10) == 0 ? rand.nextInt() : rand.nextInt(64) - 8;
+            if(i == 0 || rand.nextBoolean()){
+                pool[i] = node(id);
+                continue;
+            }
+            //parents with distinct ids, from the addresses drawn before
+            List<NatedAddress> parents = new ArrayList<NatedAddress>();
+            Set<Integer> ids = new HashSet<Integer>();
+            for(int j = rand.nextInt(4); j > 0; j--){
+                NatedAddress parent = pool[rand.nextInt(i)];
+                if(ids.add(parent.getId())) parents.add(parent);
+            }
+            pool[i] = nated(id, parents.toArray(new NatedAddress[parents.size()]));
+        }
+        return pool;
+    }
+
+    private static NatedAddress pick(Random rand, NatedAddress[] pool) {
+        return pool[rand.nextInt(pool.length)];
+    }
+
+    private static Integer randomInt(Random rand) {
+        switch(rand.nextInt(6)){
+            case 0: return null;
+            case 1: return Integer.MIN_VALUE;
+            case 2: return Integer.MAX_VALUE;
+            case 3: return rand.nextInt();
+            default: return rand.nextInt(200) - 100;
+        }
+    }
+
+    private static ArrayList<InfoPiggyback> randomRumours(Random rand, NatedAddress[] pool) {
+        if(rand.nextInt(5) == 0) return null;
+        InfoType[] types = InfoType.values();
+        ArrayList<InfoPiggyback> list = new ArrayList<InfoPiggyback>();
+        for(int n = rand.nextInt(50); n > 0; n--){
+            InfoType type = types[rand.nextInt(types.length)];
+            if(type == InfoType.NEWPARENT || type == InfoType.DEADPARENT){
+                list.add(new InfoPiggyback(type, pick(rand, pool), pick(rand, pool)));
+            } else {
+                Integer incarnation = randomInt(rand);
+                list.add(new InfoPiggyback(type, pick(rand, pool), incarnation == null ? 0 : incarnation));
+            }
+        }
+        return list;
+    }
+
+    //Fields the constructors leave out: incarnation, target and parents (distinct nodes, as a parent set is)
+    private static <M extends NetMsg<Ping>> M randomize(M msg, Random rand, NatedAddress[] pool) {
+        Ping ping = msg.getContent();
+        ping.incarnationValue = randomInt(rand);
+        if(rand.nextBoolean()) ping.toPing = pick(rand, pool);
+        Set<Integer> ids = new HashSet<Integer>();
+        for(int n = rand.nextInt(3); n > 0; n--){
+            NatedAddress parent = pick(rand, pool);
+            if(ids.add(parent.getId())) ping.parentsList.add(parent);
+        }
+        return msg;
+    }
+
+    private static int randomSeq(Random rand) {
+        Integer seq = randomInt(rand);
+        return seq == null ? 0 : seq;
+    }
+
+    @Test
+    public void randomPingsRoundTrip() {
+        Random rand = new Random(1);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            NetPing msg = randomize(new NetPing(pick(rand, pool), pick(rand, pool), randomRumours(rand, pool), 0, randomSeq(rand)), rand, pool);
+            assertSamePing(msg.getContent(), ((NetPing) roundTrip(msg)).getContent());
+        }
+    }
+
+    @Test
+    public void randomPongsRoundTrip() {
+        Random rand = new Random(2);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            NetPong msg = randomize(new NetPong(pick(rand, pool), pick(rand, pool), randomRumours(rand, pool), 0, randomSeq(rand)), rand, pool);
+            assertSamePing(msg.getContent(), ((NetPong) roundTrip(msg)).getContent());
+        }
+    }
+
+    @Test
+    public void randomPingReqsRoundTrip() {
+        Random rand = new Random(3);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            NetPingReq msg = randomize(new NetPingReq(pick(rand, pool), pick(rand, pool), pick(rand, pool), randomSeq(rand), randomRumours(rand, pool)), rand, pool);
+            assertSamePing(msg.getContent(), ((NetPingReq) roundTrip(msg)).getContent());
+        }
+    }
+
+    @Test
+    public void randomPingRespsRoundTrip() {
+        Random rand = new Random(4);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            NetPingResp msg = randomize(new NetPingResp(pick(rand, pool), pick(rand, pool), pick(rand, pool), randomSeq(rand), randomRumours(rand, pool)), rand, pool);
+            assertSamePing(msg.getContent(), ((NetPingResp) roundTrip(msg)).getContent());
+        }
+    }
+
+    @Test
+    public void randomStatusesRoundTrip() {
+        Random rand = new Random(5);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            Status s = new Status(randomSeq(rand));
+            s.memberSize = randomSeq(rand);
+            s.alivePB = randomInt(rand); s.deadPB = randomInt(rand); s.suspectedPB = randomInt(rand); s.newPB = randomInt(rand);
+            s.incarnationValue = randomInt(rand); s.newParentPB = randomInt(rand); s.deadParentPB = randomInt(rand);
+            s.parentsSize = randomInt(rand); s.tombstones = randomInt(rand); s.localHealth = randomInt(rand);
+            s.latePongs = randomInt(rand); s.duplicatePongs = randomInt(rand); s.timerEvents = randomInt(rand);
+            s.wheelEvents = randomInt(rand); s.pbMessages = randomInt(rand); s.pbEntries = randomInt(rand); s.pbBytes = randomInt(rand);
+            if(rand.nextBoolean()){
+                s.detections = new HashMap<Integer,Long>();
+                for(int n = rand.nextInt(20); n > 0; n--){
+                    s.detections.put(rand.nextInt(), rand.nextBoolean() ? rand.nextLong() : (long) rand.nextInt(1000));
+                }
+            }
+            if(rand.nextBoolean()){
+                s.rttBuckets = new int[rand.nextInt(33)];
+                for(int i = 0; i < s.rttBuckets.length; i++){
+                    s.rttBuckets[i] = rand.nextInt(Integer.MAX_VALUE);
+                }
+            }
+            assertSameStatus(s, ((NetStatus) roundTrip(new NetStatus(pick(rand, pool), pick(rand, pool), s))).getContent());
+        }
+    }
+
+    private static void assertSameStatus(Status e, Status a) {
+        assertEquals(e.receivedPings, a.receivedPings);
+        assertEquals(e.memberSize, a.memberSize);
+        Integer[] expected = {e.alivePB, e.deadPB, e.suspectedPB, e.newPB, e.incarnationValue, e.newParentPB, e.deadParentPB,
+            e.parentsSize, e.tombstones, e.localHealth, e.latePongs, e.duplicatePongs, e.timerEvents, e.wheelEvents,
+            e.pbMessages, e.pbEntries, e.pbBytes};
+        Integer[] actual = {a.alivePB, a.deadPB, a.suspectedPB, a.newPB, a.incarnationValue, a.newParentPB, a.deadParentPB,
+            a.parentsSize, a.tombstones, a.localHealth, a.latePongs, a.duplicatePongs, a.timerEvents, a.wheelEvents,
+            a.pbMessages, a.pbEntries, a.pbBytes};
+        assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+        assertEquals(e.detections, a.detections);
+        assertEquals(Arrays.toString(e.rttBuckets), Arrays.toString(a.rttBuckets));
+    }
+
+    //Descriptors come back with their source and age, the content is not sent
+    private static Set<CroupierContainer> descriptors(Object... addressAndAge) {
+        Set<CroupierContainer> set = new HashSet<CroupierContainer>();
+        for(int i = 0; i < addressAndAge.length; i += 2){
+            set.add(new CroupierContainer<Object>((NatedAddress) addressAndAge[i], new Object(), (Integer) addressAndAge[i+1]));
+        }
+        return set;
+    }
+
+    private static void assertSameDescriptors(Set<CroupierContainer> expected, Set<CroupierContainer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(CroupierContainer e : expected){
+            CroupierContainer match = null;
+            for(CroupierContainer a : actual){
+                if(a.getSource().getId().equals(e.getSource().getId())) match = a;
+            }
+            assertNotNull(match);
+            assertSameAddress(e.getSource(), match.getSource());
+            assertEquals(e.getAge(), match.getAge());
+            assertNull(match.getContent());
+        }
+    }
+
+    private static void assertSameShuffle(CroupierShuffle.Basic expected, CroupierShuffle.Basic actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getId(), actual.getId());
+        assertSameDescriptors(expected.publicNodes, actual.publicNodes);
+        assertSameDescriptors(expected.privateNodes, actual.privateNodes);
+    }
+
+    private static Set<CroupierContainer> randomDescriptors(Random rand, NatedAddress[] pool) {
+        Set<CroupierContainer> set = new HashSet<CroupierContainer>();
+        Set<Integer> ids = new HashSet<Integer>();
+        for(int n = rand.nextInt(20); n > 0; n--){
+            NatedAddress na = pick(rand, pool);
+            if(ids.add(na.getId())) set.add(new CroupierContainer<Object>(na, null, rand.nextInt(100)));
+        }
+        return set;
+    }
+
+    @Test
+    public void randomShufflesRoundTrip() {
+        Random rand = new Random(6);
+        for(int trial = 0; trial < TRIALS; trial++){
+            NatedAddress[] pool = randomAddresses(rand);
+            int overlay = rand.nextInt(5);
+            NetMsg msg;
+            if(rand.nextBoolean()){
+                msg = new CroupierShuffleNet.Request(pick(rand, pool), pick(rand, pool), overlay,
+                        new CroupierShuffle.Request(UUID.randomUUID(), randomDescriptors(rand, pool), randomDescriptors(rand, pool)));
+            } else {
+                msg = new CroupierShuffleNet.Response(pick(rand, pool), pick(rand, pool), overlay,
+                        new CroupierShuffle.Response(UUID.randomUUID(), randomDescriptors(rand, pool), randomDescriptors(rand, pool)));
+            }
+            NetMsg decoded = roundTrip(msg);
+            assertEquals(overlay, ((OverlayHeaderImpl) decoded.getHeader()).getOverlayId());
+            assertSameShuffle((CroupierShuffle.Basic) msg.getContent(), (CroupierShuffle.Basic) decoded.getContent());
+        }
+    }
+
+    @Test
+    public void shuffleBatchRoundTrip() throws Exception {
+        NatedAddress parent = node(1);
+        Map<Integer, CroupierShuffle.Request> requests = new HashMap<Integer, CroupierShuffle.Request>();
+        requests.put(1, new CroupierShuffle.Request(UUID.randomUUID(), descriptors(node(4), 3, parent, 0), descriptors(nated(5, parent), 7)));
+        requests.put(2, new CroupierShuffle.Request(UUID.randomUUID(), descriptors(), descriptors()));
+        CroupierShuffle.Batch<CroupierShuffle.Request> batch = new CroupierShuffle.Batch<CroupierShuffle.Request>(UUID.randomUUID(), requests);
+        CroupierShuffleNet.BatchRequest decoded = (CroupierShuffleNet.BatchRequest) roundTrip(new CroupierShuffleNet.BatchRequest(node(2), node(3), batch));
+        assertEquals(batch.getId(), decoded.getContent().getId());
+        assertEquals(requests.keySet(), decoded.getContent().shuffles.keySet());
+        for(Integer overlay : requests.keySet()){
+            assertSameShuffle(requests.get(overlay), decoded.getContent().shuffles.get(overlay));
+        }
+
+        Map<Integer, CroupierShuffle.Response> responses = new HashMap<Integer, CroupierShuffle.Response>();
+        responses.put(3, new CroupierShuffle.Response(UUID.randomUUID(), descriptors(node(6), 1), descriptors()));
+        CroupierShuffle.Batch<CroupierShuffle.Response> answer = new CroupierShuffle.Batch<CroupierShuffle.Response>(batch.getId(), responses);
+        CroupierShuffleNet.BatchResponse decodedAnswer = (CroupierShuffleNet.BatchResponse) roundTrip(new CroupierShuffleNet.BatchResponse(node(3), node(2), answer));
+        assertEquals(batch.getId(), decodedAnswer.getContent().getId());
+        assertSameShuffle(responses.get(3), decodedAnswer.getContent().shuffles.get(3));
+    }
+
+    @Test
+    public void croupierStatusRoundTrip() throws Exception {
+        HashMap<Integer, int[]> views = new HashMap<Integer, int[]>();
+        views.put(1, new int[]{4, 9, -2, Integer.MAX_VALUE});
+        views.put(2, new int[0]);
+        CroupierStatus decoded = ((CroupierStatusNet) roundTrip(new CroupierStatusNet(node(2), node(0), new CroupierStatus(5, 9, views)))).getContent();
+        assertEquals(5, decoded.messagesSent);
+        assertEquals(9, decoded.shufflesSent);
+        assertEquals(views.keySet(), decoded.views.keySet());
+        for(Integer overlay : views.keySet()){
+            assertTrue(Arrays.equals(views.get(overlay), decoded.views.get(overlay)));
+        }
+    }
+
+    @Test
+    public void parentPingRoundTrip() throws Exception {
+        NatedAddress parent = node(1);
+        NetParentPing decoded = (NetParentPing) roundTrip(new NetParentPing(nated(3, parent), parent));
+        assertTrue(decoded.getContent() instanceof ParentPing);
+    }
+
+    /*
+    The NAT layer sends to a NATed node through one of its parents in a SourceHeader, and the parent forwards the
+    message in a RelayHeader: both keep the relay and the header they wrap, a croupier overlay header included
+    */
+    @Test
+    public void relayHeadersRoundTrip() throws Exception {
+        NatedAddress relay = node(1);
+        NatedAddress dst = nated(3, relay);
+        CroupierShuffleNet.Request shuffle = new CroupierShuffleNet.Request(node(2), dst, 4,
+                new CroupierShuffle.Request(UUID.randomUUID(), descriptors(node(2), 0), descriptors()));
+        SourceHeader<NatedAddress> sourceHeader = new SourceHeader(shuffle.getHeader(), relay);
+
+        NetMsg toRelay = roundTrip(shuffle.copyMessage(sourceHeader));
+        assertTrue(toRelay.getHeader() instanceof SourceHeader);
+        assertSameAddress(relay, (NatedAddress) toRelay.getHeader().getDestination());
+        assertSameAddress(dst, ((SourceHeader<NatedAddress>) toRelay.getHeader()).getActualDestination());
+
+        NetMsg relayed = roundTrip(toRelay.copyMessage(((SourceHeader<NatedAddress>) toRelay.getHeader()).getRelayHeader()));
+        assertTrue(relayed.getHeader() instanceof RelayHeader);
+        RelayHeader<NatedAddress> relayHeader = (RelayHeader<NatedAddress>) relayed.getHeader();
+        assertSameAddress(relay, relayHeader.getSource());
+        assertSameAddress(node(2), relayHeader.getActualSource());
+        Header<NatedAddress> original = relayHeader.getActualHeader();
+        assertEquals(4, ((OverlayHeaderImpl) original).getOverlayId());
+        assertSameAddress(dst, original.getDestination());
+        assertSameShuffle(shuffle.getContent(), (CroupierShuffle.Basic) relayed.getContent());
+
+        //a SWIM ping to a NATed member travels the same way, in a plain header
+        NetPing ping = new NetPing(node(2), dst, rumours(node(7)), 1, 5);
+        NetMsg pingToRelay = roundTrip(ping.copyMessage(new SourceHeader(ping.getHeader(), relay)));
+        assertFalse(((SourceHeader<NatedAddress>) pingToRelay.getHeader()).getRelayHeader().getActualHeader() instanceof OverlayHeaderImpl);
+        assertSamePing(ping.getContent(), ((NetPing) pingToRelay).getContent());
+    }
+
+    @Test
+    public void pingRoundTrip() throws Exception {
+        NatedAddress parent = node(1);
+        NetPing msg = new NetPing(node(2), nated(3, parent), rumours(node(9), nated(5, parent), node(7), node(5)), 4, 77);
+        NetPing decoded = (NetPing) roundTrip(msg);
+        assertSamePing(msg.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void pingWithoutRumoursRoundTrip() throws Exception {
+        NetPing msg = new NetPing(node(2), node(3), 9, 3);
+        NetPing decoded = (NetPing) roundTrip(msg);
+        assertSamePing(msg.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void pongRoundTrip() throws Exception {
+        NetPong msg = new NetPong(node(3), node(2), rumours(node(4), node(6)), -1, Integer.MAX_VALUE);
+        NetPong decoded = (NetPong) roundTrip(msg);
+        assertSamePing(msg.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void pingReqRoundTrip() throws Exception {
+        NatedAddress target = nated(8, node(1), node(4));
+        NetPingReq msg = new NetPingReq(node(2), node(3), target, 5, rumours(target));
+        NetPingReq decoded = (NetPingReq) roundTrip(msg);
+        assertSamePing(msg.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void pingRespRoundTrip() throws Exception {
+        NetPingResp msg = new NetPingResp(node(3), node(2), nated(8, node(1)), 6);
+        NetPingResp decoded = (NetPingResp) roundTrip(msg);
+        assertSamePing(msg.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void statusRoundTrip() throws Exception {
+        Status s = fullStatus();
+        Status decoded = ((NetStatus) roundTrip(new NetStatus(node(2), node(0), s))).getContent();
+        assertEquals(s.receivedPings, decoded.receivedPings);
+        assertEquals(s.memberSize, decoded.memberSize);
+        assertEquals(s.alivePB, decoded.alivePB);
+        assertEquals(s.incarnationValue, decoded.incarnationValue);
+        assertEquals(s.tombstones, decoded.tombstones);
+        assertEquals(s.localHealth, decoded.localHealth);
+        assertEquals(s.wheelEvents, decoded.wheelEvents);
+        assertEquals(s.pbMessages, decoded.pbMessages);
+        assertEquals(s.pbBytes, decoded.pbBytes);
+        assertEquals(s.detections, decoded.detections);
+        assertEquals(Arrays.toString(s.rttBuckets), Arrays.toString(decoded.rttBuckets));
+    }
+
+    @Test
+    public void statusWithoutOptionalFieldsRoundTrip() throws Exception {
+        Status s = new Status(3);
+        s.memberSize = 7;
+        Status decoded = ((NetStatus) roundTrip(new NetStatus(node(2), node(0), s))).getContent();
+        assertEquals(3, decoded.receivedPings);
+        assertEquals(7, decoded.memberSize);
+        assertNull(decoded.alivePB);
+        assertNull(decoded.pbMessages);
+        assertNull(decoded.detections);
+        assertNull(decoded.rttBuckets);
+    }
+
+    //A NEWPARENT rumour carries a newer address of a node than the header: both must survive
+    @Test
+    public void newParentKeepsItsOwnParentSet() throws Exception {
+        NatedAddress oldParent = node(1);
+        NatedAddress newParent = node(4);
+        NatedAddress before = nated(8, oldParent);
+        NatedAddress after = nated(8, oldParent, newParent);
+        ArrayList<InfoPiggyback> list = new ArrayList<InfoPiggyback>();
+        list.add(new InfoPiggyback(InfoType.NEWPARENT, after, newParent));
+        NetPing decoded = (NetPing) roundTrip(new NetPing(node(2), before, list, 1, 1));
+        assertEquals(1, ((NatedAddress) decoded.getHeader().getDestination()).getParents().size());
+        InfoPiggyback rumour = decoded.getContent().infoList.get(0);
+        assertSameAddress(after, rumour.getInfoTarget());
+        assertSameAddress(newParent, rumour.getInfoParent());
+    }
+
+    //Equal addresses are written once, shared instance or not
+    @Test
+    public void equalAddressesShareOneEntry() throws Exception {
+        NatedAddress parent = node(1);
+        NatedAddress dst = nated(8, parent);
+        int shared = encode(new NetPing(node(2), dst, rumours(dst), 1, 1)).length;
+        int copies = encode(new NetPing(node(2), dst, rumours(nated(8, node(1))), 1, 1)).length;
+        assertEquals(shared, copies);
+    }
+
+    //The address table is reused from message to message: a message encodes the same after a larger one
+    @Test
+    public void encodingDoesNotDependOnThePreviousMessage() throws Exception {
+        NetPing small = new NetPing(node(2), nated(3, node(1)), rumours(node(4)), 1, 1);
+        NatedAddress[] targets = new NatedAddress[200];
+        for(int i = 0; i < targets.length; i++){
+            targets[i] = i % 3 == 0 ? nated(50 + i, node(i), node(i + 1)) : node(50 + i);
+        }
+        byte[] before = encode(small);
+        roundTrip(new NetPing(node(2), node(3), rumours(targets), 1, 1));
+        assertTrue(Arrays.equals(before, encode(small)));
+    }
+
+    @Test
+    public void truncatedInputIsRejected() throws Exception {
+        NatedAddress parent = node(1);
+        NetMsg[] msgs = {
+            new NetPing(node(2), nated(3, parent), rumours(node(9), nated(5, parent)), 4, 77),
+            new NetPingReq(node(2), node(3), nated(8, parent), 5, rumours(node(6))),
+            new NetStatus(node(2), node(0), fullStatus()),
+            new CroupierShuffleNet.Request(node(2), nated(3, parent), 1,
+                    new CroupierShuffle.Request(UUID.randomUUID(), descriptors(node(4), 3), descriptors(nated(5, parent), 7)))
+        };
+        for(NetMsg msg : msgs){
+            byte[] bytes = encode(msg);
+            for(int length = 0; length < bytes.length; length++){
+                try {
+                    SwimCodec.decode(ByteBuffer.wrap(bytes, 0, length));
+                    fail(msg.getClass().getSimpleName() + " decoded from " + length + " of " + bytes.length + " bytes");
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsRejected() throws Exception {
+        byte[] bytes = encode(new NetPing(node(2), node(3), 1));
+        bytes[0] = 42;
+        SwimCodec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingAddressIsRejected() throws Exception {
+        //type, no table entry, then source and destination references
+        SwimCodec.decode(ByteBuffer.wrap(new byte[]{1, 0, 0, 0, 0, 0}));
+    }
+
+    //A parent reference can only point to an earlier entry: a self reference would be a parent cycle
+    @Test(expected = IllegalArgumentException.class)
+    public void forwardParentReferenceIsRejected() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.put((byte) 2);
+        SwimCodec.writeVarint(buf, 1);
+        SwimCodec.writeZigzag(buf, 8);
+        buf.put((byte) 4).put(new byte[]{10, 0, 1, 8});
+        SwimCodec.writeVarint(buf, 40008);
+        buf.put((byte) NatType.NAT.ordinal());
+        SwimCodec.writeVarint(buf, 1);
+        SwimCodec.writeVarint(buf, 0);
+        buf.flip();
+        SwimCodec.decode(buf);
+    }
+
+    //Flipping bits anywhere must give an IllegalArgumentException or a message, never another exception
+    @Test
+    public void corruptInputFailsCleanly() throws Exception {
+        byte[] bytes = encode(new NetPing(node(2), nated(3, node(1)), rumours(node(9), nated(5, node(1)), node(7)), 4, 77));
+        int rejected = 0;
+        for(int i = 0; i < bytes.length; i++){
+            for(int bit = 0; bit < 8; bit++){
+                byte[] corrupt = bytes.clone();
+                corrupt[i] ^= 1 << bit;
+                try {
+                    assertNotNull(SwimCodec.decode(ByteBuffer.wrap(corrupt)));
+                } catch (IllegalArgumentException ex) {
+                    rejected++;
+                }
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void varintsRoundTrip() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        int[] ints = {0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for(int v : ints){
+            SwimCodec.writeZigzag(buf, v);
+        }
+        SwimCodec.writeVarlong(buf, Long.MAX_VALUE);
+        buf.flip();
+        for(int v : ints){
+            assertEquals(v, SwimCodec.readZigzag(buf));
+        }
+        assertEquals(Long.MAX_VALUE, SwimCodec.readVarlong(buf));
+        assertEquals(0, buf.remaining());
+    }
+}